@@ -39,6 +39,8 @@ android {
         implementation("androidx.appcompat:appcompat:1.6.1")
         implementation("com.google.android.material:material:1.11.0")
         implementation("androidx.constraintlayout:constraintlayout:2.1.4")
+        // getBindingAdapterPosition() in the incident list
+        implementation("androidx.recyclerview:recyclerview:1.3.2")
 
         // Firebase
         implementation(platform("com.google.firebase:firebase-bom:32.7.0"))
@@ -54,11 +56,20 @@ android {
         // SMS
         implementation("com.google.android.gms:play-services-auth:20.7.0")
 
+        // Background work (offline outbox)
+        implementation("androidx.work:work-runtime:2.9.0")
+
+        // Image orientation when compressing report photos
+        implementation("androidx.exifinterface:exifinterface:1.3.7")
+
         // UI components
         implementation("com.google.android.material:material:1.11.0")
         implementation("de.hdodenhof:circleimageview:3.1.0")
 
         testImplementation("junit:junit:4.13.2")
+        // JMH benchmarks next to the unit tests, run through their main()
+        testImplementation("org.openjdk.jmh:jmh-core:1.37")
+        testAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
         androidTestImplementation("androidx.test.ext:junit:1.1.5")
         androidTestImplementation("androidx.test.espresso:espresso-core:3.5.1")
 
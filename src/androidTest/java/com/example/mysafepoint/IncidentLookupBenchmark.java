@@ -0,0 +1,157 @@
+package com.example.mysafepoint.services;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.mysafepoint.models.IncidentReport;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreSettings;
+import com.google.firebase.firestore.WriteBatch;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+// Compares opening an incident by ID with the old approach of loading the whole collection
+// and scanning it for the ID. Needs the Firestore emulator on the host:
+//
+//   firebase emulators:start --only firestore
+//
+// The emulator is reached from the Android emulator at 10.0.2.2:8080. Results are logged
+// under the IncidentLookupBenchmark tag.
+@RunWith(AndroidJUnit4.class)
+public class IncidentLookupBenchmark {
+    private static final String TAG = "IncidentLookupBenchmark";
+    private static final String EMULATOR_HOST = "10.0.2.2";
+    private static final int EMULATOR_PORT = 8080;
+
+    private static final int DATASET_SIZE = 5000;
+    private static final int LOOKUPS = 30;
+    private static final long TIMEOUT_SECONDS = 60;
+
+    private static final List<String> reportIds = new ArrayList<>();
+
+    @BeforeClass
+    public static void seedEmulator() throws Exception {
+        FirebaseFirestore db = FirebaseFirestore.getInstance();
+        db.useEmulator(EMULATOR_HOST, EMULATOR_PORT);
+        // Measure the server path, not the SDK's on-disk cache
+        db.setFirestoreSettings(new FirebaseFirestoreSettings.Builder()
+                .setPersistenceEnabled(false)
+                .build());
+
+        WriteBatch batch = db.batch();
+        int pending = 0;
+        for (int i = 0; i < DATASET_SIZE; i++) {
+            String reportId = db.collection("incidents").document().getId();
+            IncidentReport incident = new IncidentReport(reportId, "user" + (i % 200), "User " + i, "0120000000",
+                    "Robbery", "Synthetic incident " + i, "Somewhere", 3.0 + i * 1e-4, 101.0 + i * 1e-4);
+            batch.set(db.collection("incidents").document(reportId), incident.toMap());
+            reportIds.add(reportId);
+            if (++pending == 500) {
+                Tasks.await(batch.commit(), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                batch = db.batch();
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            Tasks.await(batch.commit(), TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void lookupByIdBeatsFullScan() throws Exception {
+        FirebaseIncidentService service = new FirebaseIncidentService();
+
+        // Spread over the dataset; each ID is looked up once, so none comes from the cache
+        long[] byId = new long[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            String reportId = reportIds.get(i * (DATASET_SIZE / LOOKUPS));
+            long start = SystemClock.elapsedRealtime();
+            IncidentReport incident = getById(service, reportId);
+            byId[i] = SystemClock.elapsedRealtime() - start;
+            assertEquals(reportId, incident.getReportId());
+        }
+
+        // What IncidentDetailsActivity used to do
+        long[] scan = new long[3];
+        for (int i = 0; i < scan.length; i++) {
+            String reportId = reportIds.get(reportIds.size() - 1 - i);
+            long start = SystemClock.elapsedRealtime();
+            IncidentReport incident = scanFor(service, reportId);
+            scan[i] = SystemClock.elapsedRealtime() - start;
+            assertNotNull(incident);
+        }
+
+        long byIdMedian = median(byId);
+        long scanMedian = median(scan);
+        Log.i(TAG, DATASET_SIZE + " incidents: getIncidentById median " + byIdMedian
+                + "ms, full scan median " + scanMedian + "ms");
+        assertTrue("Lookup by ID (" + byIdMedian + "ms) should beat a full scan (" + scanMedian + "ms)",
+                byIdMedian < scanMedian);
+    }
+
+    private static IncidentReport getById(FirebaseIncidentService service, String reportId) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<IncidentReport> result = new AtomicReference<>();
+        service.getIncidentById(reportId, new FirebaseIncidentService.IncidentCallback() {
+            @Override
+            public void onSuccess(IncidentReport incident) {
+                result.set(incident);
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertNotNull(result.get());
+        return result.get();
+    }
+
+    private static IncidentReport scanFor(FirebaseIncidentService service, String reportId) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final AtomicReference<IncidentReport> result = new AtomicReference<>();
+        service.getAllIncidents(new FirebaseIncidentService.IncidentsCallback() {
+            @Override
+            public void onSuccess(List<IncidentReport> incidents) {
+                for (IncidentReport incident : incidents) {
+                    if (reportId.equals(incident.getReportId())) {
+                        result.set(incident);
+                        break;
+                    }
+                }
+                done.countDown();
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        return result.get();
+    }
+
+    private static long median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+}
@@ -0,0 +1,189 @@
+package com.example.mysafepoint.adapters;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.ViewConfiguration;
+
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.example.mysafepoint.activities.LoginActivity;
+import com.example.mysafepoint.models.IncidentReport;
+import com.example.mysafepoint.utils.Constants;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+// Flings the incident list from top to bottom through 5000 incidents and records how long
+// every frame of the scroll took. Needs no backend; the list is hosted in the login screen.
+// Frame times depend on the device, so compare runs on the same one. Results are logged
+// under the IncidentScrollBenchmark tag.
+@RunWith(AndroidJUnit4.class)
+public class IncidentScrollBenchmark {
+    private static final String TAG = "IncidentScrollBenchmark";
+
+    private static final int DATASET_SIZE = 5000;
+    // A frame that took longer than this many refresh periods missed at least one vsync
+    private static final double JANK_FACTOR = 1.5;
+    private static final long TIMEOUT_SECONDS = 60;
+    private static final String[] STATUSES = {
+            Constants.INCIDENT_STATUS_PENDING, Constants.INCIDENT_STATUS_IN_PROGRESS, Constants.INCIDENT_STATUS_RESOLVED
+    };
+
+    @Test
+    public void flingThroughFiveThousandIncidents() throws Exception {
+        final List<IncidentReport> incidents = new ArrayList<>(DATASET_SIZE);
+        for (int i = 0; i < DATASET_SIZE; i++) {
+            IncidentReport incident = new IncidentReport("incident" + i, "user" + (i % 200), "User " + i, "0120000000",
+                    "Robbery", "Synthetic incident " + i + " with a description long enough to be truncated "
+                    + "when the row is built, as real reports usually are", "Somewhere", 3.0 + i * 1e-4, 101.0 + i * 1e-4);
+            incident.setStatus(STATUSES[i % STATUSES.length]);
+            incidents.add(incident);
+        }
+
+        try (ActivityScenario<LoginActivity> scenario = ActivityScenario.launch(LoginActivity.class)) {
+            final AtomicReference<RecyclerView> listRef = new AtomicReference<>();
+            final FrameRecorder recorder = new FrameRecorder();
+            final int[] flingVelocity = new int[1];
+            scenario.onActivity(activity -> {
+                RecyclerView recyclerView = new RecyclerView(activity);
+                recyclerView.setLayoutManager(new LinearLayoutManager(activity));
+                IncidentAdapter adapter = new IncidentAdapter((incident, position) -> { });
+                recyclerView.setAdapter(adapter);
+                activity.setContentView(recyclerView);
+                adapter.setIncidents(incidents);
+
+                listRef.set(recyclerView);
+                recorder.list = recyclerView;
+                recorder.refreshPeriodNanos = (long) (TimeUnit.SECONDS.toNanos(1)
+                        / activity.getWindowManager().getDefaultDisplay().getRefreshRate());
+                flingVelocity[0] = ViewConfiguration.get(activity).getScaledMaximumFlingVelocity();
+            });
+            waitUntil(scenario, () -> listRef.get().getAdapter().getItemCount() == DATASET_SIZE);
+
+            scenario.onActivity(activity -> recorder.start());
+            long start = SystemClock.elapsedRealtime();
+            int flings = 0;
+            while (true) {
+                final AtomicBoolean atEnd = new AtomicBoolean();
+                scenario.onActivity(activity -> {
+                    RecyclerView recyclerView = listRef.get();
+                    atEnd.set(!recyclerView.canScrollVertically(1));
+                    if (!atEnd.get()) {
+                        recyclerView.fling(0, flingVelocity[0]);
+                    }
+                });
+                if (atEnd.get()) {
+                    break;
+                }
+                flings++;
+                waitUntil(scenario, () -> listRef.get().getScrollState() == RecyclerView.SCROLL_STATE_IDLE);
+            }
+            long scrollMs = SystemClock.elapsedRealtime() - start;
+            scenario.onActivity(activity -> recorder.stop());
+
+            final int[] lastVisible = new int[1];
+            scenario.onActivity(activity -> lastVisible[0] = ((LinearLayoutManager) listRef.get().getLayoutManager())
+                    .findLastVisibleItemPosition());
+            assertEquals(DATASET_SIZE - 1, lastVisible[0]);
+
+            long[] frames = recorder.frameNanos();
+            assertTrue("No frames were drawn while scrolling", frames.length > 0);
+            long jankThreshold = (long) (recorder.refreshPeriodNanos * JANK_FACTOR);
+            int janky = 0;
+            for (long frame : frames) {
+                if (frame > jankThreshold) {
+                    janky++;
+                }
+            }
+            Arrays.sort(frames);
+            Log.i(TAG, DATASET_SIZE + " incidents: " + flings + " flings in " + scrollMs + "ms, "
+                    + frames.length + " frames, " + janky + " janky (" + (janky * 100 / frames.length) + "%), "
+                    + "frame time p50 " + millis(percentile(frames, 50)) + "ms, p90 "
+                    + millis(percentile(frames, 90)) + "ms, p99 " + millis(percentile(frames, 99)) + "ms");
+        }
+    }
+
+    // Main thread only. Records the time between consecutive frames while the list is
+    // moving; the gaps between flings are left out.
+    private static class FrameRecorder implements Choreographer.FrameCallback {
+        RecyclerView list;
+        long refreshPeriodNanos;
+        private long[] frames = new long[1024];
+        private int frameCount;
+        private long lastFrameNanos;
+        private boolean running;
+
+        void start() {
+            running = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        void stop() {
+            running = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (!running) {
+                return;
+            }
+            if (list.getScrollState() == RecyclerView.SCROLL_STATE_IDLE) {
+                lastFrameNanos = 0;
+            } else {
+                if (lastFrameNanos != 0) {
+                    if (frameCount == frames.length) {
+                        frames = Arrays.copyOf(frames, frameCount * 2);
+                    }
+                    frames[frameCount++] = frameTimeNanos - lastFrameNanos;
+                }
+                lastFrameNanos = frameTimeNanos;
+            }
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+
+        long[] frameNanos() {
+            return Arrays.copyOf(frames, frameCount);
+        }
+    }
+
+    private interface Condition {
+        boolean isMet();
+    }
+
+    // Polls the condition on the main thread
+    private static void waitUntil(ActivityScenario<LoginActivity> scenario, Condition condition) {
+        long deadline = SystemClock.elapsedRealtime() + TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS);
+        final AtomicBoolean met = new AtomicBoolean();
+        while (true) {
+            scenario.onActivity(activity -> met.set(condition.isMet()));
+            if (met.get()) {
+                return;
+            }
+            assertTrue("Timed out", SystemClock.elapsedRealtime() < deadline);
+            SystemClock.sleep(50);
+        }
+    }
+
+    private static long percentile(long[] sorted, int percent) {
+        return sorted[Math.min(sorted.length - 1, sorted.length * percent / 100)];
+    }
+
+    private static String millis(long nanos) {
+        return String.valueOf(nanos / 100000 / 10.0);
+    }
+}
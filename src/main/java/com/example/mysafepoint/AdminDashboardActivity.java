@@ -5,10 +5,14 @@ import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.widget.ProgressBar;
 import android.widget.TextView;
+import android.widget.Toast;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.view.ActionMode;
 import androidx.appcompat.widget.Toolbar;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -20,12 +24,21 @@ import com.example.mysafepoint.models.IncidentReport;
 import com.example.mysafepoint.services.FirebaseAuthService;
 import com.example.mysafepoint.services.FirebaseIncidentService;
 import com.example.mysafepoint.utils.Constants;
+import com.example.mysafepoint.utils.IncidentPartitions;
 import com.example.mysafepoint.utils.SharedPrefManager;
+import com.example.mysafepoint.utils.StartupTrace;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.tabs.TabLayout;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
 
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class AdminDashboardActivity extends AppCompatActivity implements IncidentAdapter.IncidentItemClickListener {
 
@@ -36,7 +49,8 @@ public class AdminDashboardActivity extends AppCompatActivity implements Inciden
     private TextView tvNoIncidents;
 
     private IncidentAdapter adapter;
-    private List<IncidentReport> incidentList;
+    // Every loaded incident, split by status so switching tabs needs no filtering or refetch
+    private final IncidentPartitions incidents = new IncidentPartitions();
 
     private FirebaseIncidentService incidentService;
     private FirebaseAuthService authService;
@@ -47,12 +61,34 @@ public class AdminDashboardActivity extends AppCompatActivity implements Inciden
     private static final int TAB_IN_PROGRESS = 2;
     private static final int TAB_RESOLVED = 3;
 
+    private static final int PAGE_SIZE = 25;
+
     private int currentTab = TAB_ALL;
 
+    // Paging state for the unfiltered incident feed shown under "All"
+    private DocumentSnapshot lastDocument;
+    private boolean hasMorePages = true;
+    private boolean isLoadingPage = false;
+    private int loadGeneration = 0;
+    // Set once the feed has been loaded; afterwards onStart() only re-attaches the listener
+    private boolean feedLoaded = false;
+
+    // Status tabs page their own whereEqualTo("status") query, so a rare status does not
+    // have to be found by paging through the whole feed
+    private final Map<String, StatusPaging> statusPaging = new HashMap<>();
+
+    // Live listener over the newest page of the feed
+    private ListenerRegistration incidentStream;
+
+    // Shown while rows are selected for bulk triage
+    private ActionMode selectionMode;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_admin_dashboard);
+        // Ends the startup trace if the app was cold started onto this screen
+        StartupTrace.endWhenDrawn(this);
 
         // Initialize views
         toolbar = findViewById(R.id.toolbar);
@@ -73,10 +109,10 @@ public class AdminDashboardActivity extends AppCompatActivity implements Inciden
         prefManager = SharedPrefManager.getInstance(this);
 
         // Setup RecyclerView
-        incidentList = new ArrayList<>();
-        adapter = new IncidentAdapter(incidentList, this);
+        adapter = new IncidentAdapter(this);
         recyclerIncidents.setLayoutManager(new LinearLayoutManager(this));
         recyclerIncidents.setAdapter(adapter);
+        adapter.setOnLoadMoreListener(this::loadNextPage);
 
         // Setup TabLayout
         setupTabs();
@@ -84,8 +120,7 @@ public class AdminDashboardActivity extends AppCompatActivity implements Inciden
         // Setup SwipeRefreshLayout
         swipeRefreshLayout.setOnRefreshListener(this::loadIncidents);
 
-        // Load incidents
-        loadIncidents();
+        // Incidents are loaded and kept live from onStart()
     }
 
     private void setupTabs() {
@@ -98,7 +133,7 @@ public class AdminDashboardActivity extends AppCompatActivity implements Inciden
             @Override
             public void onTabSelected(TabLayout.Tab tab) {
                 currentTab = tab.getPosition();
-                loadIncidents();
+                showCurrentTab();
             }
 
             @Override
@@ -113,63 +148,262 @@ public class AdminDashboardActivity extends AppCompatActivity implements Inciden
         });
     }
 
+    // Reload the feed: the first page comes from a live listener that keeps streaming
+    // changes, older pages are fetched on demand as the list scrolls. Status tabs filter
+    // the same incidents and page their own status query when they run short.
     private void loadIncidents() {
+        loadGeneration++;
+        lastDocument = null;
+        hasMorePages = true;
+        isLoadingPage = true;
+        statusPaging.clear();
         swipeRefreshLayout.setRefreshing(true);
 
-        incidentService.getAllIncidents(new FirebaseIncidentService.IncidentsCallback() {
+        attachIncidentStream(true);
+    }
+
+    // Listen to the newest page. With reset, what the first snapshot brings replaces the
+    // loaded incidents; otherwise (coming back to the screen) it is merged into them, so
+    // pages already scrolled in and the scroll position survive.
+    private void attachIncidentStream(final boolean reset) {
+        stopIncidentStream();
+
+        final int generation = loadGeneration;
+        incidentStream = incidentService.listenToIncidents(null, PAGE_SIZE, new FirebaseIncidentService.IncidentStreamListener() {
             @Override
-            public void onSuccess(List<IncidentReport> incidents) {
-                incidentList.clear();
-
-                // Filter by status if needed
-                if (currentTab == TAB_PENDING) {
-                    for (IncidentReport incident : incidents) {
-                        if (Constants.INCIDENT_STATUS_PENDING.equals(incident.getStatus())) {
-                            incidentList.add(incident);
-                        }
-                    }
-                } else if (currentTab == TAB_IN_PROGRESS) {
-                    for (IncidentReport incident : incidents) {
-                        if (Constants.INCIDENT_STATUS_IN_PROGRESS.equals(incident.getStatus())) {
-                            incidentList.add(incident);
-                        }
-                    }
-                } else if (currentTab == TAB_RESOLVED) {
-                    for (IncidentReport incident : incidents) {
-                        if (Constants.INCIDENT_STATUS_RESOLVED.equals(incident.getStatus())) {
-                            incidentList.add(incident);
+            public void onInitial(List<IncidentReport> page, DocumentSnapshot last, boolean hasMore) {
+                if (generation != loadGeneration) {
+                    return;
+                }
+
+                if (reset) {
+                    lastDocument = last;
+                    hasMorePages = hasMore;
+                    isLoadingPage = false;
+                    feedLoaded = true;
+                    incidents.clear();
+                } else {
+                    removeDeletedWhileAway(page, hasMore);
+                }
+                for (IncidentReport incident : page) {
+                    incidents.put(incident);
+                }
+                swipeRefreshLayout.setRefreshing(false);
+                showCurrentTab();
+            }
+
+            @Override
+            public void onChanges(List<IncidentReport> added, List<IncidentReport> modified, List<IncidentReport> removed) {
+                if (generation != loadGeneration) {
+                    return;
+                }
+
+                // Only real removals arrive here; incidents pushed out of the live window by
+                // newer ones are still part of the feed and are not reported
+                for (IncidentReport incident : removed) {
+                    incidents.remove(incident.getReportId());
+                }
+                for (IncidentReport incident : modified) {
+                    incidents.put(incident);
+                }
+                for (IncidentReport incident : added) {
+                    incidents.put(incident);
+                }
+                showCurrentTab();
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                if (generation != loadGeneration) {
+                    return;
+                }
+
+                isLoadingPage = false;
+                showLoadError(errorMessage, true);
+            }
+        });
+    }
+
+    // After re-attaching: anything loaded that falls inside the fresh window but is not in
+    // it was deleted while the screen was stopped. Without more pages the window is the
+    // whole collection.
+    private void removeDeletedWhileAway(List<IncidentReport> window, boolean hasMore) {
+        Set<String> inWindow = new HashSet<>();
+        for (IncidentReport incident : window) {
+            inWindow.add(incident.getReportId());
+        }
+        Date oldestInWindow = window.isEmpty() ? null : window.get(window.size() - 1).getTimestamp();
+
+        for (IncidentReport incident : new ArrayList<>(incidents.get(null))) {
+            if (inWindow.contains(incident.getReportId())) {
+                continue;
+            }
+            boolean covered = !hasMore || (oldestInWindow != null && incident.getTimestamp() != null
+                    && incident.getTimestamp().after(oldestInWindow));
+            if (covered) {
+                incidents.remove(incident.getReportId());
+            }
+        }
+    }
+
+    private void loadNextPage() {
+        String status = getStatusForTab(currentTab);
+        if (status != null) {
+            loadStatusPage(status);
+            return;
+        }
+        if (isLoadingPage || !hasMorePages || lastDocument == null) {
+            return;
+        }
+        isLoadingPage = true;
+
+        // Responses for a feed that has since been reloaded are dropped
+        final int generation = loadGeneration;
+
+        incidentService.getIncidentsPage(null, PAGE_SIZE, lastDocument, new FirebaseIncidentService.IncidentsPageCallback() {
+            @Override
+            public void onSuccess(List<IncidentReport> page, DocumentSnapshot last, boolean hasMore) {
+                if (generation != loadGeneration) {
+                    return;
+                }
+
+                runOnUiThread(() -> {
+                    lastDocument = last;
+                    hasMorePages = hasMore;
+                    isLoadingPage = false;
+
+                    for (IncidentReport incident : page) {
+                        // The live window may already have a newer copy
+                        if (!incidents.contains(incident.getReportId())) {
+                            incidents.put(incident);
                         }
                     }
-                } else {
-                    // All incidents
-                    incidentList.addAll(incidents);
+                    showCurrentTab();
+                });
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                if (generation != loadGeneration) {
+                    return;
                 }
 
                 runOnUiThread(() -> {
-                    adapter.notifyDataSetChanged();
-                    swipeRefreshLayout.setRefreshing(false);
-                    updateEmptyView();
+                    isLoadingPage = false;
+                    showLoadError(errorMessage, false);
+                });
+            }
+        });
+    }
+
+    // Next page of one status. Incidents it brings are merged into the shared partitions,
+    // so they also show up under "All" in their place.
+    private void loadStatusPage(final String status) {
+        final StatusPaging paging = pagingFor(status);
+        if (paging.loading || !paging.hasMore) {
+            return;
+        }
+        paging.loading = true;
+        paging.started = true;
+
+        final int generation = loadGeneration;
+
+        incidentService.getIncidentsPage(status, PAGE_SIZE, paging.lastDocument, new FirebaseIncidentService.IncidentsPageCallback() {
+            @Override
+            public void onSuccess(List<IncidentReport> page, DocumentSnapshot last, boolean hasMore) {
+                if (generation != loadGeneration) {
+                    return;
+                }
+
+                runOnUiThread(() -> {
+                    paging.lastDocument = last;
+                    paging.hasMore = hasMore;
+                    paging.loading = false;
+
+                    for (IncidentReport incident : page) {
+                        // The live window may already have a newer copy
+                        if (!incidents.contains(incident.getReportId())) {
+                            incidents.put(incident);
+                        }
+                    }
+                    showCurrentTab();
                 });
             }
 
             @Override
             public void onError(String errorMessage) {
+                if (generation != loadGeneration) {
+                    return;
+                }
+
                 runOnUiThread(() -> {
-                    swipeRefreshLayout.setRefreshing(false);
-                    new MaterialAlertDialogBuilder(AdminDashboardActivity.this)
-                            .setTitle("Error")
-                            .setMessage("Failed to load incidents: " + errorMessage)
-                            .setPositiveButton("Retry", (dialog, which) -> loadIncidents())
-                            .setNegativeButton("Cancel", null)
-                            .show();
-                    updateEmptyView();
+                    paging.loading = false;
+                    showLoadError(errorMessage, false);
                 });
             }
         });
     }
 
+    private StatusPaging pagingFor(String status) {
+        StatusPaging paging = statusPaging.get(status);
+        if (paging == null) {
+            paging = new StatusPaging();
+            statusPaging.put(status, paging);
+        }
+        return paging;
+    }
+
+    // Show the current tab's partition; the adapter diffs it against what is on screen
+    private void showCurrentTab() {
+        String status = getStatusForTab(currentTab);
+        List<IncidentReport> tabIncidents = incidents.get(status);
+        adapter.setIncidents(tabIncidents);
+        updateEmptyView();
+
+        // A sparse status may not fill the screen, and then scrolling never asks for more.
+        // Fetch its first page from the server once; later pages follow the scroll.
+        if (status != null && tabIncidents.size() < PAGE_SIZE && !pagingFor(status).started) {
+            loadStatusPage(status);
+        }
+    }
+
+    private void stopIncidentStream() {
+        if (incidentStream != null) {
+            incidentStream.remove();
+            incidentStream = null;
+        }
+    }
+
+    private void showLoadError(String errorMessage, boolean firstPage) {
+        swipeRefreshLayout.setRefreshing(false);
+        new MaterialAlertDialogBuilder(AdminDashboardActivity.this)
+                .setTitle("Error")
+                .setMessage("Failed to load incidents: " + errorMessage)
+                .setPositiveButton("Retry", (dialog, which) -> {
+                    if (firstPage) {
+                        loadIncidents();
+                    } else {
+                        loadNextPage();
+                    }
+                })
+                .setNegativeButton("Cancel", null)
+                .show();
+        updateEmptyView();
+    }
+
+    private String getStatusForTab(int tab) {
+        if (tab == TAB_PENDING) {
+            return Constants.INCIDENT_STATUS_PENDING;
+        } else if (tab == TAB_IN_PROGRESS) {
+            return Constants.INCIDENT_STATUS_IN_PROGRESS;
+        } else if (tab == TAB_RESOLVED) {
+            return Constants.INCIDENT_STATUS_RESOLVED;
+        }
+        return null; // All incidents
+    }
+
     private void updateEmptyView() {
-        if (incidentList.isEmpty()) {
+        if (incidents.get(getStatusForTab(currentTab)).isEmpty()) {
             tvNoIncidents.setVisibility(View.VISIBLE);
             recyclerIncidents.setVisibility(View.GONE);
         } else {
@@ -180,6 +414,11 @@ public class AdminDashboardActivity extends AppCompatActivity implements Inciden
 
     @Override
     public void onItemClick(IncidentReport incident, int position) {
+        if (adapter.isSelectionMode()) {
+            toggleSelection(position);
+            return;
+        }
+
         // Open incident details activity
         Intent intent = new Intent(this, IncidentDetailsActivity.class);
         intent.putExtra("incidentId", incident.getReportId());
@@ -187,10 +426,209 @@ public class AdminDashboardActivity extends AppCompatActivity implements Inciden
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        // Reload incidents when resuming
-        loadIncidents();
+    public boolean onItemLongClick(IncidentReport incident, int position) {
+        toggleSelection(position);
+        return true;
+    }
+
+    private void toggleSelection(int position) {
+        adapter.toggleSelection(position);
+        updateSelectionMode();
+    }
+
+    private void updateSelectionMode() {
+        int count = adapter.getSelectedIds().size();
+        if (count == 0) {
+            if (selectionMode != null) {
+                selectionMode.finish();
+            }
+            return;
+        }
+        if (selectionMode == null) {
+            selectionMode = startSupportActionMode(selectionCallback);
+        }
+        if (selectionMode != null) {
+            selectionMode.setTitle(count + " selected");
+        }
+    }
+
+    private final ActionMode.Callback selectionCallback = new ActionMode.Callback() {
+        @Override
+        public boolean onCreateActionMode(ActionMode mode, Menu menu) {
+            mode.getMenuInflater().inflate(R.menu.menu_incident_selection, menu);
+            swipeRefreshLayout.setEnabled(false);
+            return true;
+        }
+
+        @Override
+        public boolean onPrepareActionMode(ActionMode mode, Menu menu) {
+            return false;
+        }
+
+        @Override
+        public boolean onActionItemClicked(ActionMode mode, MenuItem item) {
+            int id = item.getItemId();
+            if (id == R.id.action_select_all) {
+                adapter.selectAll();
+                updateSelectionMode();
+                return true;
+            } else if (id == R.id.action_mark_pending) {
+                bulkUpdateSelected(Constants.INCIDENT_STATUS_PENDING);
+                return true;
+            } else if (id == R.id.action_mark_in_progress) {
+                bulkUpdateSelected(Constants.INCIDENT_STATUS_IN_PROGRESS);
+                return true;
+            } else if (id == R.id.action_mark_resolved) {
+                bulkUpdateSelected(Constants.INCIDENT_STATUS_RESOLVED);
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public void onDestroyActionMode(ActionMode mode) {
+            selectionMode = null;
+            adapter.clearSelection();
+            swipeRefreshLayout.setEnabled(true);
+        }
+    };
+
+    private void bulkUpdateSelected(String status) {
+        List<IncidentReport> selected = new ArrayList<>();
+        for (String reportId : adapter.getSelectedIds()) {
+            IncidentReport incident = incidents.find(reportId);
+            if (incident != null) {
+                selected.add(incident);
+            }
+        }
+        if (selectionMode != null) {
+            selectionMode.finish();
+        }
+        bulkUpdateStatus(selected, status);
+    }
+
+    // Change the status of many incidents at once. The lists update immediately; the
+    // writes go out in parallel batches behind a progress dialog, and any batch that
+    // fails is put back and reported at the end with the option to retry it.
+    private void bulkUpdateStatus(List<IncidentReport> selected, String status) {
+        View progressView = getLayoutInflater().inflate(R.layout.dialog_bulk_progress, null);
+        final TextView tvProgress = progressView.findViewById(R.id.tvBulkProgress);
+        final ProgressBar progressBulk = progressView.findViewById(R.id.progressBulk);
+        final AlertDialog progressDialog = new MaterialAlertDialogBuilder(this)
+                .setTitle(R.string.bulk_update_title)
+                .setView(progressView)
+                .setCancelable(false)
+                .create();
+
+        final List<IncidentReport> failed = new ArrayList<>();
+        final List<String> batchErrors = new ArrayList<>();
+        // The copies with the new status, by report ID
+        final Map<String, IncidentReport> applied = new HashMap<>();
+
+        incidentService.updateIncidentStatuses(selected, status, new FirebaseIncidentService.StatusUpdateListener() {
+            @Override
+            public void onApplied(List<IncidentReport> changed) {
+                if (changed.isEmpty()) {
+                    return;
+                }
+                for (IncidentReport incident : changed) {
+                    applied.put(incident.getReportId(), incident);
+                    incidents.put(incident);
+                }
+                showCurrentTab();
+
+                progressBulk.setMax(changed.size());
+                tvProgress.setText("Updating 0 of " + changed.size());
+                progressDialog.show();
+            }
+
+            @Override
+            public void onBatchFailed(List<IncidentReport> batch, String errorMessage) {
+                // Copies with the old statuses; only put back where the stream has not
+                // brought anything newer since
+                for (IncidentReport incident : batch) {
+                    String reportId = incident.getReportId();
+                    if (incidents.find(reportId) == applied.get(reportId)) {
+                        incidents.put(incident);
+                    }
+                }
+                showCurrentTab();
+                failed.addAll(batch);
+                batchErrors.add(batch.size() + " incident(s): " + errorMessage);
+            }
+
+            @Override
+            public void onProgress(int done, int failedCount, int total) {
+                progressBulk.setProgress(done + failedCount);
+                tvProgress.setText("Updating " + (done + failedCount) + " of " + total);
+                if (done + failedCount < total) {
+                    return;
+                }
+
+                // Dismiss even when finishing, or the dialog's window leaks
+                progressDialog.dismiss();
+                if (isFinishing()) {
+                    return;
+                }
+                if (failed.isEmpty()) {
+                    Toast.makeText(AdminDashboardActivity.this, "Updated " + done + " incident(s)", Toast.LENGTH_SHORT).show();
+                } else {
+                    showBulkUpdateFailures(done, total, failed, batchErrors, status);
+                }
+            }
+
+            @Override
+            public void onRolledBack(List<IncidentReport> rolledBack, String errorMessage) {
+                // Already reflected batch by batch in onBatchFailed()
+            }
+        });
+    }
+
+    private void showBulkUpdateFailures(int done, int total, List<IncidentReport> failed,
+                                        List<String> batchErrors, String status) {
+        StringBuilder message = new StringBuilder()
+                .append("Updated ").append(done).append(" of ").append(total).append(" incidents.\n\n")
+                .append("Failed batches:");
+        for (String error : batchErrors) {
+            message.append("\n\u2022 ").append(error);
+        }
+
+        new MaterialAlertDialogBuilder(this)
+                .setTitle("Some updates failed")
+                .setMessage(message.toString())
+                .setPositiveButton("Retry", (dialog, which) -> bulkUpdateStatus(currentIncidents(failed), status))
+                .setNegativeButton("Cancel", null)
+                .show();
+    }
+
+    // The incidents as loaded now, which may be newer than the given ones; any no longer
+    // loaded are left out
+    private List<IncidentReport> currentIncidents(List<IncidentReport> stale) {
+        List<IncidentReport> current = new ArrayList<>(stale.size());
+        for (IncidentReport incident : stale) {
+            IncidentReport loaded = incidents.find(incident.getReportId());
+            if (loaded != null) {
+                current.add(loaded);
+            }
+        }
+        return current;
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Keep incidents live while visible; coming back keeps what was already loaded
+        if (feedLoaded) {
+            attachIncidentStream(false);
+        } else {
+            loadIncidents();
+        }
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        stopIncidentStream();
     }
 
     @Override
@@ -203,7 +641,10 @@ public class AdminDashboardActivity extends AppCompatActivity implements Inciden
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         int id = item.getItemId();
 
-        if (id == R.id.action_logout) {
+        if (id == R.id.action_incident_map) {
+            startActivity(new Intent(this, IncidentMapActivity.class));
+            return true;
+        } else if (id == R.id.action_logout) {
             showLogoutConfirmation();
             return true;
         }
@@ -233,4 +674,13 @@ public class AdminDashboardActivity extends AppCompatActivity implements Inciden
         startActivity(intent);
         finish();
     }
+
+    // Paging state of one status tab's server-side query
+    private static class StatusPaging {
+        DocumentSnapshot lastDocument;
+        boolean hasMore = true;
+        boolean loading;
+        // The first page has been requested
+        boolean started;
+    }
 }
@@ -0,0 +1,252 @@
+package com.example.mysafepoint.utils;
+
+import java.util.TimeZone;
+
+// Emergency SMS text, compiled once per sender and incident type and then rendered with
+// the coordinates when the fix arrives. Rendering appends into a reused buffer with
+// fixed-precision integer formatting (no String.format, no SimpleDateFormat):
+//
+//   EMERGENCY: <type> alert from <name>
+//   14:05 maps.google.com/?q=3.13900,101.68685
+//   <address, trimmed to what is left>
+//
+// An old last-known fix is marked with the time it was taken ("Last seen 13:40 ..."), and
+// without any fix the second line says the location is unavailable.
+//
+// The message fits in a single segment whenever the sender and the location do. If the
+// long header does not fit, the short "<name> SOS: <type>" form is used, and a name that
+// still does not fit (usually in UCS-2, where a segment is only 70 characters) gets as
+// many segments as it needs rather than being cut. The address only ever fills what is
+// left of those segments.
+public class AlertMessageTemplate {
+    // Single-segment limits for the GSM 7-bit alphabet (in septets) and for UCS-2 (any
+    // other script, in UTF-16 units)
+    public static final int GSM_SEGMENT_LENGTH = 160;
+    public static final int UCS2_SEGMENT_LENGTH = 70;
+    // Per-segment limits once a message is split, which costs a header in every segment
+    public static final int GSM_CONCAT_SEGMENT_LENGTH = 153;
+    public static final int UCS2_CONCAT_SEGMENT_LENGTH = 67;
+    // Enough for any name with the location; the address never adds a segment
+    public static final int MAX_SEGMENTS = 3;
+
+    private static final String MAP_LINK = "maps.google.com/?q=";
+    // 5 decimal places is about 1.1m, plenty for finding someone
+    private static final int COORDINATE_SCALE = 100000;
+    private static final String STALE_PREFIX = "Last seen ";
+    private static final String NO_LOCATION = " location unavailable";
+    // "\n" + "Last seen " + "HH:mm" + " " + link + "-90.00000,-180.00000"
+    public static final int FIXED_LENGTH = 1 + STALE_PREFIX.length() + 5 + 1 + MAP_LINK.length() + 20;
+    // Longest long-form header, leaving room for at least part of the address
+    private static final int MAX_HEADER_LENGTH = 80;
+    // Below this the address is left out rather than cut to a useless stub
+    private static final int MIN_ADDRESS_LENGTH = 8;
+
+    // GSM 03.38 default alphabet, one septet each
+    private static final String GSM_BASIC = "@£$¥èéùìòÇ\nØø\rÅåΔ_ΦΓΛΩΠΨΣΘΞÆæßÉ !\"#¤%&'()*+,-./0123456789:;<=>?"
+            + "¡ABCDEFGHIJKLMNOPQRSTUVWXYZÄÖÑÜ§¿abcdefghijklmnopqrstuvwxyzäöñüà";
+    // Extension table, two septets each (escape + character)
+    private static final String GSM_EXTENSION = "^{}\\[~]|€\f";
+
+    private final String header;
+    private final int headerLength;
+    private final boolean gsm;
+    private final int maxLength;
+    private final StringBuilder buffer;
+
+    public AlertMessageTemplate(String userName, String incidentType) {
+        String type = incidentType != null ? incidentType : "Emergency";
+        String name = userName != null ? userName.replace('\n', ' ') : "";
+        String longHeader = "EMERGENCY: " + type + " alert from " + name;
+        String shortHeader = name.isEmpty() ? "SOS: " + type : name + " SOS: " + type;
+
+        gsm = encodedLength(longHeader, true) >= 0;
+        int longLength = encodedLength(longHeader, gsm);
+        int shortLength = encodedLength(shortHeader, gsm);
+        int singleSegment = gsm ? GSM_SEGMENT_LENGTH : UCS2_SEGMENT_LENGTH;
+
+        if (longLength <= MAX_HEADER_LENGTH && longLength + FIXED_LENGTH <= singleSegment) {
+            header = longHeader;
+        } else if (shortLength + FIXED_LENGTH <= singleSegment) {
+            header = shortHeader;
+        } else {
+            // Only a name longer than every segment together is cut
+            header = trimTo(shortHeader, budgetFor(Integer.MAX_VALUE, gsm) - FIXED_LENGTH, gsm);
+        }
+        headerLength = encodedLength(header, gsm);
+        maxLength = budgetFor(headerLength + FIXED_LENGTH, gsm);
+        buffer = new StringBuilder(maxLength);
+    }
+
+    // Longest rendered message, in septets for GSM and in UTF-16 units for UCS-2
+    public int getMaxLength() {
+        return maxLength;
+    }
+
+    public boolean isGsm() {
+        return gsm;
+    }
+
+    // Segments the longest rendered message takes
+    public int getSegmentCount() {
+        return segmentsFor(maxLength, gsm);
+    }
+
+    // Segments a message of this encoded length is sent in
+    public static int segmentsFor(int length, boolean gsm) {
+        if (length <= (gsm ? GSM_SEGMENT_LENGTH : UCS2_SEGMENT_LENGTH)) {
+            return 1;
+        }
+        int perSegment = gsm ? GSM_CONCAT_SEGMENT_LENGTH : UCS2_CONCAT_SEGMENT_LENGTH;
+        return length / perSegment + (length % perSegment == 0 ? 0 : 1);
+    }
+
+    // Room in the segments a message of this length needs, up to MAX_SEGMENTS
+    private static int budgetFor(int length, boolean gsm) {
+        if (length <= (gsm ? GSM_SEGMENT_LENGTH : UCS2_SEGMENT_LENGTH)) {
+            return gsm ? GSM_SEGMENT_LENGTH : UCS2_SEGMENT_LENGTH;
+        }
+        int perSegment = gsm ? GSM_CONCAT_SEGMENT_LENGTH : UCS2_CONCAT_SEGMENT_LENGTH;
+        return Math.min(MAX_SEGMENTS, segmentsFor(length, gsm)) * perSegment;
+    }
+
+    // Render the message; never longer than getMaxLength(), and never in more segments
+    // than the message without its address would take
+    public String render(double latitude, double longitude, String address, long timeMillis) {
+        return render(latitude, longitude, address, timeMillis, false);
+    }
+
+    // For a last-known fix, timeMillis is when the fix was taken rather than now
+    public synchronized String render(double latitude, double longitude, String address, long timeMillis,
+                                      boolean stale) {
+        StringBuilder sb = buffer;
+        sb.setLength(0);
+        sb.append(header).append('\n');
+        if (stale) {
+            sb.append(STALE_PREFIX);
+        }
+        appendTime(sb, timeMillis);
+
+        sb.append(' ').append(MAP_LINK);
+        appendCoordinate(sb, latitude);
+        sb.append(',');
+        appendCoordinate(sb, longitude);
+
+        // The address is the only variable-length part, so it takes whatever is left in
+        // the segments the rest needs. Everything after the header is plain ASCII.
+        int length = headerLength + sb.length() - header.length();
+        int room = budgetFor(length, gsm) - length - 1;
+        if (address != null && !address.isEmpty() && room >= MIN_ADDRESS_LENGTH) {
+            int start = sb.length();
+            sb.append('\n');
+            int used = 0;
+            for (int i = 0; i < address.length(); i++) {
+                char c = address.charAt(i);
+                if (c == '\n' || c == '\r') {
+                    continue;
+                }
+                // In GSM mode, one character outside the alphabet would switch the whole
+                // message to UCS-2 and cut the room in less than half, so it is dropped
+                int cost = gsm ? septets(c) : 1;
+                if (cost < 0) {
+                    continue;
+                }
+                if (used + cost > room) {
+                    break;
+                }
+                sb.append(c);
+                used += cost;
+            }
+            if (used > 0 && Character.isHighSurrogate(sb.charAt(sb.length() - 1))) {
+                sb.setLength(sb.length() - 1);
+                used--;
+            }
+            if (used == 0) {
+                sb.setLength(start);
+            }
+        }
+        return sb.toString();
+    }
+
+    // The alert when no location could be found at all
+    public synchronized String renderWithoutLocation(long timeMillis) {
+        StringBuilder sb = buffer;
+        sb.setLength(0);
+        sb.append(header).append('\n');
+        appendTime(sb, timeMillis);
+        sb.append(NO_LOCATION);
+        return sb.toString();
+    }
+
+    // Length of the text as sent: septets when gsm, UTF-16 units otherwise. -1 if gsm is
+    // asked for and the text has a character outside the GSM alphabet.
+    public static int encodedLength(String text, boolean gsm) {
+        if (!gsm) {
+            return text.length();
+        }
+        int length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            int cost = septets(text.charAt(i));
+            if (cost < 0) {
+                return -1;
+            }
+            length += cost;
+        }
+        return length;
+    }
+
+    // Septets the character takes in GSM 7-bit, or -1 if it forces UCS-2
+    private static int septets(char c) {
+        if (GSM_BASIC.indexOf(c) >= 0) {
+            return 1;
+        }
+        return GSM_EXTENSION.indexOf(c) >= 0 ? 2 : -1;
+    }
+
+    // Local time of day as HH:mm, without a Calendar or formatter
+    private static void appendTime(StringBuilder sb, long timeMillis) {
+        long local = timeMillis + TimeZone.getDefault().getOffset(timeMillis);
+        int minuteOfDay = (int) ((local / 60000) % 1440);
+        if (minuteOfDay < 0) {
+            minuteOfDay += 1440;
+        }
+        appendTwoDigits(sb, minuteOfDay / 60);
+        sb.append(':');
+        appendTwoDigits(sb, minuteOfDay % 60);
+    }
+
+    // Fixed-point with 5 decimals, e.g. -6.20000
+    private static void appendCoordinate(StringBuilder sb, double value) {
+        long scaled = Math.round(value * COORDINATE_SCALE);
+        if (scaled < 0) {
+            sb.append('-');
+            scaled = -scaled;
+        }
+        sb.append(scaled / COORDINATE_SCALE).append('.');
+        long fraction = scaled % COORDINATE_SCALE;
+        for (long divisor = COORDINATE_SCALE / 10; divisor > 0; divisor /= 10) {
+            sb.append((char) ('0' + (fraction / divisor) % 10));
+        }
+    }
+
+    private static void appendTwoDigits(StringBuilder sb, int value) {
+        sb.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    // Longest prefix that fits in the given length, in the units of the encoding
+    private static String trimTo(String text, int length, boolean gsm) {
+        int used = 0;
+        int end = 0;
+        while (end < text.length()) {
+            int cost = gsm ? septets(text.charAt(end)) : 1;
+            if (used + cost > length) {
+                break;
+            }
+            used += cost;
+            end++;
+        }
+        if (end > 0 && end < text.length() && Character.isHighSurrogate(text.charAt(end - 1))) {
+            end--;
+        }
+        return text.substring(0, end);
+    }
+}
@@ -27,7 +27,6 @@ import com.google.android.material.textfield.TextInputLayout;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.UUID;
 
 public class CirclesFragment extends Fragment implements EmergencyContactAdapter.ContactClickListener {
 
@@ -53,7 +52,7 @@ public class CirclesFragment extends Fragment implements EmergencyContactAdapter
         fabAddContact = view.findViewById(R.id.fabAddContact);
 
         // Initialize services and data
-        userService = new FirebaseUserService();
+        userService = new FirebaseUserService(requireContext());
         prefManager = SharedPrefManager.getInstance(requireContext());
         userId = prefManager.getString(Constants.KEY_USER_ID);
         contactList = new ArrayList<>();
@@ -99,6 +98,14 @@ public class CirclesFragment extends Fragment implements EmergencyContactAdapter
         });
     }
 
+    // A change shown as done was refused by the server; show the list as it really is
+    private void showRollback(String message) {
+        if (getActivity() != null) {
+            getActivity().runOnUiThread(() -> Toast.makeText(getContext(), message, Toast.LENGTH_LONG).show());
+        }
+        loadEmergencyContacts();
+    }
+
     private void updateEmptyView() {
         if (contactList.isEmpty()) {
             tvNoContacts.setVisibility(View.VISIBLE);
@@ -167,7 +174,7 @@ public class CirclesFragment extends Fragment implements EmergencyContactAdapter
             if (isValid) {
                 // Create new emergency contact
                 EmergencyContact newContact = new EmergencyContact(
-                        UUID.randomUUID().toString(), // Temporary ID, will be replaced by Firebase
+                        null, // ID is allocated by FirebaseUserService
                         name,
                         phone,
                         relationship
@@ -197,6 +204,19 @@ public class CirclesFragment extends Fragment implements EmergencyContactAdapter
                             });
                         }
                     }
+
+                    @Override
+                    public void onRolledBack(EmergencyContact contact, String errorMessage) {
+                        // Shown as added already; the server refused it, so take it back out
+                        contactList.remove(contact);
+                        if (getActivity() != null) {
+                            getActivity().runOnUiThread(() -> {
+                                adapter.notifyDataSetChanged();
+                                updateEmptyView();
+                                Toast.makeText(getContext(), "Contact was not saved: " + errorMessage, Toast.LENGTH_LONG).show();
+                            });
+                        }
+                    }
                 });
             }
         });
@@ -291,6 +311,11 @@ public class CirclesFragment extends Fragment implements EmergencyContactAdapter
                             });
                         }
                     }
+
+                    @Override
+                    public void onRolledBack(EmergencyContact contact, String errorMessage) {
+                        showRollback("Contact was not updated: " + errorMessage);
+                    }
                 });
             }
         });
@@ -330,6 +355,11 @@ public class CirclesFragment extends Fragment implements EmergencyContactAdapter
                                 });
                             }
                         }
+
+                        @Override
+                        public void onRolledBack(EmergencyContact contact, String errorMessage) {
+                            showRollback("Contact was not deleted: " + errorMessage);
+                        }
                     });
                 })
                 .setNegativeButton(R.string.action_cancel, null)
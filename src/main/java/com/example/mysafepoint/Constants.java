@@ -8,6 +8,10 @@ public class Constants {
     public static final String KEY_USER_EMAIL = "user_email";
     public static final String KEY_USER_PHONE = "user_phone";
     public static final String KEY_USER_TYPE = "user_type";
+    // Comma-separated user IDs the live location is shared with; absent while not sharing
+    public static final String KEY_LOCATION_VIEWERS = "location_viewers";
+    // Phone number (E.164) this user is listed under in the phone directory
+    public static final String KEY_LISTED_PHONE = "listed_phone";
 
     // User Types
     public static final String USER_TYPE_NORMAL = "user";
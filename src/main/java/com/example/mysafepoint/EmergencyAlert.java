@@ -1,5 +1,7 @@
 package com.example.mysafepoint.models;
 
+import com.example.mysafepoint.utils.GeohashUtils;
+
 import java.io.Serializable;
 import java.util.Date;
 import java.util.HashMap;
@@ -14,6 +16,10 @@ public class EmergencyAlert implements Serializable {
     private double latitude;
     private double longitude;
     private Date timestamp;
+    // When the coordinates were fixed; older than the alert when only a last-known fix was found
+    private Date locationTime;
+    // Set when no location at all could be found; latitude and longitude are then meaningless
+    private boolean locationUnavailable;
 
     // Empty constructor needed for Firebase
     public EmergencyAlert() {
@@ -41,7 +47,10 @@ public class EmergencyAlert implements Serializable {
         map.put("location", location);
         map.put("latitude", latitude);
         map.put("longitude", longitude);
+        map.put("geohash", locationUnavailable ? null : getGeohash());
         map.put("timestamp", timestamp);
+        map.put("locationTime", locationTime);
+        map.put("locationUnavailable", locationUnavailable);
         return map;
     }
 
@@ -102,6 +111,16 @@ public class EmergencyAlert implements Serializable {
         this.longitude = longitude;
     }
 
+    // Derived from latitude/longitude and stored so nearby documents can be found with
+    // geohash prefix queries
+    public String getGeohash() {
+        return GeohashUtils.encode(latitude, longitude, GeohashUtils.PRECISION_STORED);
+    }
+
+    public void setGeohash(String geohash) {
+        // Always recomputed from the coordinates
+    }
+
     public Date getTimestamp() {
         return timestamp;
     }
@@ -109,4 +128,20 @@ public class EmergencyAlert implements Serializable {
     public void setTimestamp(Date timestamp) {
         this.timestamp = timestamp;
     }
-}
\ No newline at end of file
+
+    public Date getLocationTime() {
+        return locationTime;
+    }
+
+    public void setLocationTime(Date locationTime) {
+        this.locationTime = locationTime;
+    }
+
+    public boolean isLocationUnavailable() {
+        return locationUnavailable;
+    }
+
+    public void setLocationUnavailable(boolean locationUnavailable) {
+        this.locationUnavailable = locationUnavailable;
+    }
+}
@@ -0,0 +1,330 @@
+package com.example.mysafepoint.services;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.mysafepoint.models.EmergencyAlert;
+import com.example.mysafepoint.models.EmergencyContact;
+import com.example.mysafepoint.utils.AlertMessageTemplate;
+import com.example.mysafepoint.utils.LatencyHistogram;
+
+import java.util.Date;
+import java.util.List;
+
+// Runs the panic-button flow. The contact fetch and the location fix start together,
+// SMS goes out as soon as both are available, and the alert record is persisted to
+// Firestore afterwards without holding up the messages. Location never holds up an
+// alert: an old last-known fix is sent straight away marked with its time, and with no
+// fix within LOCATION_DEADLINE_MS the alert goes out without one. If a better fix turns
+// up after that, the contacts get a second message with it.
+public class EmergencyDispatchPipeline {
+    private static final String TAG = "EmergencyDispatch";
+
+    // How long to hold the SMS for a street address once coordinates are known; after
+    // this the message goes out with the map link only
+    private static final long ADDRESS_DEADLINE_MS = 1500;
+    // How long to wait for any fix at all before sending without a location
+    private static final long LOCATION_DEADLINE_MS = 3000;
+
+    // Per-stage timings, measured from the moment dispatch() is called
+    private static final LatencyHistogram contactsLatency = new LatencyHistogram("dispatch_contacts");
+    private static final LatencyHistogram locationLatency = new LatencyHistogram("dispatch_location");
+    private static final LatencyHistogram firstSmsLatency = new LatencyHistogram("dispatch_first_sms");
+    private static final LatencyHistogram persistLatency = new LatencyHistogram("dispatch_persist");
+
+    private final FirebaseUserService userService;
+    private final FirebaseIncidentService incidentService;
+    private final LocationService locationService;
+    private final SMSService smsService;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public EmergencyDispatchPipeline(Context context) {
+        userService = new FirebaseUserService(context);
+        incidentService = new FirebaseIncidentService(context);
+        locationService = new LocationService(context);
+        smsService = new SMSService(context);
+    }
+
+    public interface DispatchListener {
+        void onSMSSent(EmergencyContact contact);
+        void onSMSError(EmergencyContact contact, String errorMessage);
+        void onAlertPersisted(EmergencyAlert alert);
+        void onPersistError(String errorMessage);
+        // The alert record is saved on the device and will be uploaded once online
+        default void onAlertQueued(EmergencyAlert alert) {
+        }
+        // The messages are with the SMS dispatcher, which keeps retrying on its own; the
+        // per-contact results can take minutes to arrive
+        default void onHandedOff(int contactCount) {
+        }
+        // The alert could not be sent at all (no contacts, contacts could not be loaded)
+        void onError(String errorMessage);
+    }
+
+    public void dispatch(String userId, String userName, String incidentType, final DispatchListener listener) {
+        final Dispatch dispatch = new Dispatch(userId, userName, incidentType, listener);
+
+        userService.getEmergencyContacts(userId, new FirebaseUserService.EmergencyContactsCallback() {
+            @Override
+            public void onSuccess(List<EmergencyContact> contacts) {
+                contactsLatency.record(dispatch.elapsed());
+                if (contacts.isEmpty()) {
+                    dispatch.fail("You have no emergency contacts. Please add contacts first.");
+                    return;
+                }
+                dispatch.onContacts(contacts);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                dispatch.fail("Error getting contacts: " + errorMessage);
+            }
+        });
+
+        mainHandler.postDelayed(dispatch::onLocationDeadline, LOCATION_DEADLINE_MS);
+        // An old last-known fix comes first, and a precise one after it if it turns up
+        locationService.getCurrentLocation(LocationStrategy.sosFix(), new LocationService.LocationCallback() {
+            @Override
+            public void onFix(double latitude, double longitude, float accuracy, long ageMillis) {
+                if (dispatch.onFix(latitude, longitude, ageMillis)) {
+                    locationLatency.record(dispatch.elapsed());
+                    mainHandler.postDelayed(dispatch::onAddressDeadline, ADDRESS_DEADLINE_MS);
+                }
+            }
+
+            @Override
+            public void onAddressResolved(String address) {
+                dispatch.onAddress(address);
+            }
+
+            @Override
+            public void onLocationReceived(double latitude, double longitude, String address) {
+                // Geocoding has finished, with or without an address
+                dispatch.onAddressSettled();
+            }
+
+            @Override
+            public void onLocationError(String errorMessage) {
+                dispatch.onNoLocation(errorMessage);
+            }
+        });
+    }
+
+    // Stage timings recorded since process start, one line per stage
+    public static String getStageTimings() {
+        return contactsLatency + "\n" + locationLatency + "\n" + firstSmsLatency + "\n" + persistLatency;
+    }
+
+    // State of one panic-button press. Callbacks may arrive in any order.
+    private class Dispatch {
+        private final long startTime = SystemClock.elapsedRealtime();
+        private final String userId;
+        private final String userName;
+        private final String incidentType;
+        private final DispatchListener listener;
+        // Compiled up front so the text is ready the moment the fix arrives
+        private final AlertMessageTemplate messageTemplate;
+
+        private List<EmergencyContact> contacts;
+        private boolean hasFix;
+        private double latitude;
+        private double longitude;
+        // Wall-clock time the fix was taken, or 0 when there is no location at all
+        private long fixTime;
+        private String address;
+        private boolean addressSettled;
+        // The address callbacks still to come belong to a fix that has been replaced
+        private boolean addressOutdated;
+        private EmergencyAlert alert;
+        private boolean sent;
+        private boolean failed;
+        private boolean firstSmsRecorded;
+
+        Dispatch(String userId, String userName, String incidentType, DispatchListener listener) {
+            this.userId = userId;
+            this.userName = userName;
+            this.incidentType = incidentType;
+            this.listener = listener;
+            this.messageTemplate = new AlertMessageTemplate(userName, incidentType);
+        }
+
+        long elapsed() {
+            return SystemClock.elapsedRealtime() - startTime;
+        }
+
+        synchronized void onContacts(List<EmergencyContact> contacts) {
+            this.contacts = contacts;
+            maybeSend();
+        }
+
+        // Returns true for the fix the alert is first sent with. A better fix after that
+        // replaces it if the alert has not gone out yet, or is sent as a follow-up.
+        synchronized boolean onFix(double latitude, double longitude, long ageMillis) {
+            long time = System.currentTimeMillis() - ageMillis;
+            if (!hasFix) {
+                this.latitude = latitude;
+                this.longitude = longitude;
+                this.fixTime = time;
+                this.hasFix = true;
+                maybeSend();
+                return true;
+            }
+            if (failed || !isBetter(time)) {
+                return false;
+            }
+            if (sent) {
+                sendFollowUp(latitude, longitude, time);
+                return false;
+            }
+            // Still waiting on contacts; send the better fix, without waiting for its address
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.fixTime = time;
+            this.address = null;
+            this.addressSettled = true;
+            this.addressOutdated = true;
+            maybeSend();
+            return false;
+        }
+
+        // Any fix beats none, and a recent one beats an old one
+        private boolean isBetter(long time) {
+            long now = System.currentTimeMillis();
+            return fixTime == 0
+                    || (now - time <= LocationStrategy.FAST_MAX_AGE_MS && now - fixTime > LocationStrategy.FAST_MAX_AGE_MS);
+        }
+
+        // No fix, not even an old one: send without a location rather than not at all
+        synchronized void onNoLocation(String errorMessage) {
+            if (hasFix) {
+                return;
+            }
+            locationLatency.record(elapsed());
+            Log.w(TAG, "Sending without a location: " + errorMessage);
+            this.hasFix = true;
+            this.addressSettled = true;
+            maybeSend();
+        }
+
+        synchronized void onLocationDeadline() {
+            onNoLocation("No location within " + LOCATION_DEADLINE_MS + "ms");
+        }
+
+        synchronized void onAddress(String address) {
+            if (addressOutdated) {
+                return;
+            }
+            this.address = address;
+            this.addressSettled = true;
+            maybeSend();
+        }
+
+        synchronized void onAddressSettled() {
+            this.addressSettled = true;
+            maybeSend();
+        }
+
+        synchronized void onAddressDeadline() {
+            if (!addressSettled) {
+                Log.d(TAG, "No address within " + ADDRESS_DEADLINE_MS + "ms, sending map link only");
+            }
+            this.addressSettled = true;
+            maybeSend();
+        }
+
+        synchronized void fail(String errorMessage) {
+            if (sent || failed) {
+                return;
+            }
+            failed = true;
+            Log.w(TAG, "Dispatch failed after " + elapsed() + "ms: " + errorMessage);
+            listener.onError(errorMessage);
+        }
+
+        private void maybeSend() {
+            if (sent || failed || contacts == null || !hasFix || !addressSettled) {
+                return;
+            }
+            sent = true;
+
+            alert = new EmergencyAlert(
+                    incidentService.newAlertId(),
+                    userId,
+                    userName,
+                    incidentType,
+                    address,
+                    latitude,
+                    longitude
+            );
+            if (fixTime > 0) {
+                alert.setLocationTime(new Date(fixTime));
+            } else {
+                alert.setLocationUnavailable(true);
+            }
+
+            smsService.sendEmergencyAlertSMS(messageTemplate, alert, contacts, new SMSService.SMSCallback() {
+                @Override
+                public void onSMSSent(EmergencyContact contact) {
+                    recordFirstSms();
+                    listener.onSMSSent(contact);
+                }
+
+                @Override
+                public void onSMSError(EmergencyContact contact, String errorMessage) {
+                    listener.onSMSError(contact, errorMessage);
+                }
+            });
+            listener.onHandedOff(contacts.size());
+
+            incidentService.createEmergencyAlert(alert, new FirebaseIncidentService.AlertCallback() {
+                @Override
+                public void onSuccess(EmergencyAlert persisted) {
+                    persistLatency.record(elapsed());
+                    Log.d(TAG, "Dispatch complete:\n" + getStageTimings());
+                    listener.onAlertPersisted(persisted);
+                }
+
+                @Override
+                public void onQueued(EmergencyAlert queued, String reason) {
+                    Log.d(TAG, "Alert record queued for upload: " + reason);
+                    listener.onAlertQueued(queued);
+                }
+
+                @Override
+                public void onError(String errorMessage) {
+                    listener.onPersistError(errorMessage);
+                }
+            });
+        }
+
+        // A second message with a better location than the alert went out with
+        private void sendFollowUp(double latitude, double longitude, long time) {
+            Log.d(TAG, "Better fix " + elapsed() + "ms in, sending it as a follow-up");
+            this.fixTime = time;
+            EmergencyAlert update = new EmergencyAlert(alert.getAlertId(), userId, userName, incidentType,
+                    null, latitude, longitude);
+            update.setLocationTime(new Date(time));
+            smsService.sendEmergencyAlertSMS(messageTemplate, update, contacts, new SMSService.SMSCallback() {
+                @Override
+                public void onSMSSent(EmergencyContact contact) {
+                    Log.d(TAG, "Location follow-up sent to " + contact.getName());
+                }
+
+                @Override
+                public void onSMSError(EmergencyContact contact, String errorMessage) {
+                    listener.onSMSError(contact, "Location update not sent: " + errorMessage);
+                }
+            });
+        }
+
+        private synchronized void recordFirstSms() {
+            if (!firstSmsRecorded) {
+                firstSmsRecorded = true;
+                firstSmsLatency.record(elapsed());
+            }
+        }
+    }
+}
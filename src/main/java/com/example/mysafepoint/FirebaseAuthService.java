@@ -1,5 +1,6 @@
 package com.example.mysafepoint.services;
 
+import android.app.Activity;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -7,13 +8,21 @@ import androidx.annotation.NonNull;
 import com.example.mysafepoint.models.User;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.Task;
+import com.google.firebase.FirebaseException;
 import com.google.firebase.auth.AuthResult;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
+import com.google.firebase.auth.PhoneAuthCredential;
+import com.google.firebase.auth.PhoneAuthOptions;
+import com.google.firebase.auth.PhoneAuthProvider;
 import com.google.firebase.firestore.FirebaseFirestore;
 
+import java.util.concurrent.TimeUnit;
+
 public class FirebaseAuthService {
     private static final String TAG = "FirebaseAuthService";
+    // How long to wait for the verification SMS to be read automatically
+    private static final long PHONE_VERIFICATION_TIMEOUT_S = 60;
 
     private FirebaseAuth mAuth;
     private FirebaseFirestore db;
@@ -30,6 +39,15 @@ public class FirebaseAuthService {
         void onError(String errorMessage);
     }
 
+    // Phone number verification by SMS code. Either the code is read automatically and
+    // onVerified() is called straight away, or onCodeSent() asks for the code to be
+    // passed to confirmPhoneCode().
+    public interface PhoneVerificationCallback {
+        void onCodeSent(String verificationId);
+        void onVerified(String phoneNumber);
+        void onError(String errorMessage);
+    }
+
     public void registerUser(String fullName, String email, String phoneNumber, String nic, String password, final AuthCallback callback) {
         mAuth.createUserWithEmailAndPassword(email, password)
                 .addOnCompleteListener(new OnCompleteListener<AuthResult>() {
@@ -98,6 +116,73 @@ public class FirebaseAuthService {
                 });
     }
 
+    // Verify an E.164 phone number and attach it to the signed-in account. Only a verified
+    // number can be listed in the phone directory.
+    public void verifyPhoneNumber(Activity activity, String phoneNumber, final PhoneVerificationCallback callback) {
+        PhoneAuthOptions options = PhoneAuthOptions.newBuilder(mAuth)
+                .setPhoneNumber(phoneNumber)
+                .setTimeout(PHONE_VERIFICATION_TIMEOUT_S, TimeUnit.SECONDS)
+                .setActivity(activity)
+                .setCallbacks(new PhoneAuthProvider.OnVerificationStateChangedCallbacks() {
+                    @Override
+                    public void onVerificationCompleted(@NonNull PhoneAuthCredential credential) {
+                        updatePhoneNumber(credential, callback);
+                    }
+
+                    @Override
+                    public void onVerificationFailed(@NonNull FirebaseException e) {
+                        Log.w(TAG, "verifyPhoneNumber:failure", e);
+                        callback.onError(e.getMessage());
+                    }
+
+                    @Override
+                    public void onCodeSent(@NonNull String verificationId,
+                                           @NonNull PhoneAuthProvider.ForceResendingToken token) {
+                        callback.onCodeSent(verificationId);
+                    }
+                })
+                .build();
+        PhoneAuthProvider.verifyPhoneNumber(options);
+    }
+
+    public void confirmPhoneCode(String verificationId, String code, PhoneVerificationCallback callback) {
+        updatePhoneNumber(PhoneAuthProvider.getCredential(verificationId, code), callback);
+    }
+
+    private void updatePhoneNumber(PhoneAuthCredential credential, final PhoneVerificationCallback callback) {
+        final FirebaseUser user = mAuth.getCurrentUser();
+        if (user == null) {
+            callback.onError("Not signed in");
+            return;
+        }
+        user.updatePhoneNumber(credential)
+                // Firestore rules read the number from the ID token, so fetch one that has it
+                .continueWithTask(task -> {
+                    if (!task.isSuccessful()) {
+                        throw task.getException();
+                    }
+                    return user.getIdToken(true);
+                })
+                .addOnCompleteListener(task -> {
+                    if (task.isSuccessful()) {
+                        callback.onVerified(user.getPhoneNumber());
+                    } else {
+                        // Usually a wrong code, or the number is verified on another account
+                        Log.w(TAG, "updatePhoneNumber:failure", task.getException());
+                        callback.onError(task.getException() != null ? task.getException().getMessage() : "Verification failed");
+                    }
+                });
+    }
+
+    // The number verified by SMS on the signed-in account, or null if there is none
+    public String getVerifiedPhoneNumber() {
+        FirebaseUser user = mAuth.getCurrentUser();
+        if (user == null || user.getPhoneNumber() == null || user.getPhoneNumber().isEmpty()) {
+            return null;
+        }
+        return user.getPhoneNumber();
+    }
+
     public void logoutUser() {
         mAuth.signOut();
     }
@@ -1,39 +1,89 @@
 package com.example.mysafepoint.services;
 
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import com.example.mysafepoint.models.EmergencyAlert;
 import com.example.mysafepoint.models.IncidentReport;
+import com.example.mysafepoint.utils.GeohashUtils;
+import com.example.mysafepoint.utils.LatencyHistogram;
+import com.example.mysafepoint.utils.SpatialIncidentIndex;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
 import com.google.firebase.firestore.CollectionReference;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class FirebaseIncidentService {
     private static final String TAG = "FirebaseIncidentService";
     private static final String INCIDENTS_COLLECTION = "incidents";
     private static final String ALERTS_COLLECTION = "alerts";
+    private static final String INCIDENT_IMAGES_PATH = "incident_images/";
+    private static final String FIELD_IMAGE_URL = "imageUrl";
+    private static final int INCIDENT_CACHE_SIZE = 500;
+    // Firestore rejects a write batch with more operations than this
+    private static final int MAX_BATCH_WRITES = 500;
+
+    // Process-wide cache of incidents by reportId, shared by every service instance
+    // so a details screen can open an incident the list has already loaded
+    private static final Map<String, IncidentReport> incidentCache =
+            new LinkedHashMap<String, IncidentReport>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, IncidentReport> eldest) {
+                    return size() > INCIDENT_CACHE_SIZE;
+                }
+            };
+
+    // End-to-end time from createEmergencyAlert() to the server acknowledging the write
+    private static final LatencyHistogram alertPersistLatency = new LatencyHistogram("alert_persist");
 
     private FirebaseFirestore db;
+    private WriteOutbox outbox;
+    private ImageUploadService imageUploads;
 
     public FirebaseIncidentService() {
         db = FirebaseFirestore.getInstance();
     }
 
+    // Use this constructor wherever reports or alerts are created: the writes then go
+    // through the on-device outbox and are not lost when the device is offline
+    public FirebaseIncidentService(Context context) {
+        this();
+        outbox = WriteOutbox.getInstance(context);
+        imageUploads = ImageUploadService.getInstance(context);
+    }
+
     public interface IncidentCallback {
         void onSuccess(IncidentReport incident);
         void onError(String errorMessage);
+
+        // Saved on the device and will be sent once there is a connection
+        default void onQueued(IncidentReport incident, String reason) {
+            onSuccess(incident);
+        }
     }
 
     public interface IncidentsCallback {
@@ -41,9 +91,51 @@ public class FirebaseIncidentService {
         void onError(String errorMessage);
     }
 
+    public interface IncidentsPageCallback {
+        void onSuccess(List<IncidentReport> incidents, DocumentSnapshot lastDocument, boolean hasMore);
+        void onError(String errorMessage);
+    }
+
+    public interface IncidentStreamListener {
+        // First snapshot: the current window of incidents plus a cursor for paging past it
+        void onInitial(List<IncidentReport> incidents, DocumentSnapshot lastDocument, boolean hasMore);
+        // Every later snapshot: only the documents that entered, changed or left the window.
+        // removed holds only documents that are gone from the query (deleted, or no longer
+        // matching the status); ones merely pushed past the limit by newer incidents are
+        // left out, as they are still part of the feed.
+        void onChanges(List<IncidentReport> added, List<IncidentReport> modified, List<IncidentReport> removed);
+        void onError(String errorMessage);
+    }
+
+    // Progress of an optimistic status change. The incidents passed in are never changed:
+    // onApplied() gets copies with the new status before anything is sent. The write goes
+    // out in batches; for a batch that fails, onBatchFailed() gets fresh copies with the
+    // old statuses, to replace the applied ones wherever those are still shown. Once every
+    // batch is done, onCommitted() gets the applied copies that were written and
+    // onRolledBack() the old-status copies, each only if there are any.
+    public interface StatusUpdateListener {
+        void onApplied(List<IncidentReport> incidents);
+        void onRolledBack(List<IncidentReport> incidents, String errorMessage);
+
+        default void onCommitted(List<IncidentReport> incidents) {
+        }
+
+        // After each batch; done and failed count incidents, not batches
+        default void onProgress(int done, int failed, int total) {
+        }
+
+        default void onBatchFailed(List<IncidentReport> batch, String errorMessage) {
+        }
+    }
+
     public interface AlertCallback {
         void onSuccess(EmergencyAlert alert);
         void onError(String errorMessage);
+
+        // Saved on the device and will be sent once there is a connection
+        default void onQueued(EmergencyAlert alert, String reason) {
+            onSuccess(alert);
+        }
     }
 
     public interface AlertsCallback {
@@ -51,25 +143,40 @@ public class FirebaseIncidentService {
         void onError(String errorMessage);
     }
 
-    // Report a new incident
+    // Report a new incident. The document ID is allocated on the client so the
+    // report, including its reportId, is written in a single round trip.
     public void reportIncident(IncidentReport incident, final IncidentCallback callback) {
-        db.collection(INCIDENTS_COLLECTION)
-                .add(incident.toMap())
-                .addOnSuccessListener(new OnSuccessListener<DocumentReference>() {
+        DocumentReference documentRef = incident.getReportId() != null
+                ? db.collection(INCIDENTS_COLLECTION).document(incident.getReportId())
+                : db.collection(INCIDENTS_COLLECTION).document();
+        incident.setReportId(documentRef.getId());
+
+        if (outbox != null) {
+            outbox.submit(INCIDENTS_COLLECTION, incident.getReportId(), incident.toMap(), new WriteOutbox.DeliveryListener() {
+                @Override
+                public void onDelivered() {
+                    Log.d(TAG, "Incident reported successfully");
+                    cacheIncident(incident);
+                    callback.onSuccess(incident);
+                }
+
+                @Override
+                public void onQueued(String reason) {
+                    Log.d(TAG, "Incident report queued: " + reason);
+                    cacheIncident(incident);
+                    callback.onQueued(incident, reason);
+                }
+            });
+            return;
+        }
+
+        documentRef.set(incident.toMap())
+                .addOnSuccessListener(new OnSuccessListener<Void>() {
                     @Override
-                    public void onSuccess(DocumentReference documentReference) {
-                        incident.setReportId(documentReference.getId());
-                        // Update with the generated ID
-                        db.collection(INCIDENTS_COLLECTION)
-                                .document(documentReference.getId())
-                                .update("reportId", documentReference.getId())
-                                .addOnSuccessListener(new OnSuccessListener<Void>() {
-                                    @Override
-                                    public void onSuccess(Void aVoid) {
-                                        Log.d(TAG, "Incident reported successfully");
-                                        callback.onSuccess(incident);
-                                    }
-                                });
+                    public void onSuccess(Void aVoid) {
+                        Log.d(TAG, "Incident reported successfully");
+                        cacheIncident(incident);
+                        callback.onSuccess(incident);
                     }
                 })
                 .addOnFailureListener(new OnFailureListener() {
@@ -81,6 +188,19 @@ public class FirebaseIncidentService {
                 });
     }
 
+    // Attach a photo to a report that has been submitted (its reportId is set). The photo is
+    // compressed and uploaded in the background and its URL written to imageUrl; an upload
+    // cut short, or finished before the report reached the server, is picked up again by
+    // ImageUploadService.resumePendingUploads().
+    public void uploadIncidentImage(IncidentReport incident, Uri image, ImageUploadService.UploadCallback callback) {
+        if (imageUploads == null || incident.getReportId() == null) {
+            callback.onError("Images can only be attached to a submitted report");
+            return;
+        }
+        imageUploads.uploadImage(image, INCIDENT_IMAGES_PATH + incident.getReportId() + ".jpg",
+                INCIDENTS_COLLECTION, incident.getReportId(), FIELD_IMAGE_URL, callback);
+    }
+
     // Get all incidents (for admin)
     public void getAllIncidents(final IncidentsCallback callback) {
         db.collection(INCIDENTS_COLLECTION)
@@ -95,6 +215,7 @@ public class FirebaseIncidentService {
                                 IncidentReport incident = document.toObject(IncidentReport.class);
                                 incidents.add(incident);
                             }
+                            cacheIncidents(incidents);
                             callback.onSuccess(incidents);
                         } else {
                             Log.w(TAG, "Error getting incidents", task.getException());
@@ -104,6 +225,202 @@ public class FirebaseIncidentService {
                 });
     }
 
+    // Get one page of incidents (for admin), newest first. Pass a null status for all
+    // statuses and a null startAfter for the first page; the callback hands back the
+    // cursor for the next page. Filtering by status needs the (status, timestamp desc)
+    // composite index.
+    public void getIncidentsPage(String status, int pageSize, DocumentSnapshot startAfter,
+                                 final IncidentsPageCallback callback) {
+        Query query = db.collection(INCIDENTS_COLLECTION);
+        if (status != null) {
+            query = query.whereEqualTo("status", status);
+        }
+        query = query.orderBy("timestamp", Query.Direction.DESCENDING);
+        if (startAfter != null) {
+            query = query.startAfter(startAfter);
+        }
+
+        query.limit(pageSize)
+                .get()
+                .addOnCompleteListener(new OnCompleteListener<QuerySnapshot>() {
+                    @Override
+                    public void onComplete(@NonNull Task<QuerySnapshot> task) {
+                        if (task.isSuccessful()) {
+                            QuerySnapshot snapshot = task.getResult();
+                            List<IncidentReport> incidents = new ArrayList<>();
+                            for (QueryDocumentSnapshot document : snapshot) {
+                                IncidentReport incident = document.toObject(IncidentReport.class);
+                                incidents.add(incident);
+                            }
+                            cacheIncidents(incidents);
+
+                            List<DocumentSnapshot> documents = snapshot.getDocuments();
+                            DocumentSnapshot lastDocument = documents.isEmpty() ? startAfter : documents.get(documents.size() - 1);
+                            callback.onSuccess(incidents, lastDocument, documents.size() == pageSize);
+                        } else {
+                            Log.w(TAG, "Error getting incidents page", task.getException());
+                            callback.onError(task.getException() != null ? task.getException().getMessage() : "Error getting incidents");
+                        }
+                    }
+                });
+    }
+
+    // Listen to the newest incidents (for admin) and receive added/modified/removed deltas
+    // instead of re-reading the whole list. Pass a null status for all statuses and a
+    // limit of 0 for no limit. The caller must remove the returned registration.
+    public ListenerRegistration listenToIncidents(String status, int limit, final IncidentStreamListener listener) {
+        Query query = db.collection(INCIDENTS_COLLECTION);
+        if (status != null) {
+            query = query.whereEqualTo("status", status);
+        }
+        query = query.orderBy("timestamp", Query.Direction.DESCENDING);
+        if (limit > 0) {
+            query = query.limit(limit);
+        }
+
+        final boolean[] initialDelivered = {false};
+        return query.addSnapshotListener((snapshot, e) -> {
+            if (e != null) {
+                Log.w(TAG, "Incident stream failed", e);
+                listener.onError(e.getMessage());
+                return;
+            }
+            if (snapshot == null) {
+                return;
+            }
+
+            if (!initialDelivered[0]) {
+                initialDelivered[0] = true;
+                List<IncidentReport> incidents = new ArrayList<>();
+                for (QueryDocumentSnapshot document : snapshot) {
+                    incidents.add(document.toObject(IncidentReport.class));
+                }
+                cacheIncidents(incidents);
+
+                List<DocumentSnapshot> documents = snapshot.getDocuments();
+                DocumentSnapshot lastDocument = documents.isEmpty() ? null : documents.get(documents.size() - 1);
+                listener.onInitial(incidents, lastDocument, limit > 0 && documents.size() == limit);
+                return;
+            }
+
+            List<IncidentReport> added = new ArrayList<>();
+            List<IncidentReport> modified = new ArrayList<>();
+            List<IncidentReport> removed = new ArrayList<>();
+            for (DocumentChange change : snapshot.getDocumentChanges()) {
+                IncidentReport incident = change.getDocument().toObject(IncidentReport.class);
+                switch (change.getType()) {
+                    case ADDED:
+                        added.add(incident);
+                        break;
+                    case MODIFIED:
+                        modified.add(incident);
+                        break;
+                    case REMOVED:
+                        if (!isPastWindow(change.getDocument(), snapshot, limit)) {
+                            removed.add(incident);
+                        }
+                        break;
+                }
+            }
+            cacheIncidents(added);
+            cacheIncidents(modified);
+
+            if (!added.isEmpty() || !modified.isEmpty() || !removed.isEmpty()) {
+                listener.onChanges(added, modified, removed);
+            }
+        });
+    }
+
+    // Whether a document dropped out of a limited, newest-first window because newer ones
+    // pushed it past the limit. A deleted document was newer than the window's new last
+    // document (which filled its place); a pushed-out one is older.
+    private static boolean isPastWindow(DocumentSnapshot removed, QuerySnapshot window, int limit) {
+        if (limit <= 0 || window.size() < limit) {
+            return false;
+        }
+        DocumentSnapshot last = window.getDocuments().get(window.size() - 1);
+        Date removedTime = removed.getDate("timestamp");
+        Date lastTime = last.getDate("timestamp");
+        if (removedTime == null || lastTime == null) {
+            return false;
+        }
+        int byTime = removedTime.compareTo(lastTime);
+        if (byTime != 0) {
+            return byTime < 0;
+        }
+        // Equal timestamps are ordered by document ID, in the same (descending) direction
+        return removed.getId().compareTo(last.getId()) < 0;
+    }
+
+    // Get a single incident by ID, served from the in-memory cache when possible. A cached
+    // copy may be out of date; it is refreshed in the background for the next caller. Use
+    // listenToIncident() to show an incident that has to stay current.
+    public void getIncidentById(String incidentId, final IncidentCallback callback) {
+        IncidentReport cached = getCachedIncident(incidentId);
+        if (cached != null) {
+            callback.onSuccess(cached);
+            db.collection(INCIDENTS_COLLECTION).document(incidentId).get()
+                    .addOnSuccessListener(document -> {
+                        if (document.exists()) {
+                            cacheIncident(document.toObject(IncidentReport.class));
+                        }
+                    });
+            return;
+        }
+
+        db.collection(INCIDENTS_COLLECTION)
+                .document(incidentId)
+                .get()
+                .addOnCompleteListener(new OnCompleteListener<DocumentSnapshot>() {
+                    @Override
+                    public void onComplete(@NonNull Task<DocumentSnapshot> task) {
+                        if (task.isSuccessful()) {
+                            DocumentSnapshot document = task.getResult();
+                            if (document != null && document.exists()) {
+                                IncidentReport incident = document.toObject(IncidentReport.class);
+                                cacheIncident(incident);
+                                callback.onSuccess(incident);
+                            } else {
+                                callback.onError("Incident not found");
+                            }
+                        } else {
+                            Log.w(TAG, "Error getting incident", task.getException());
+                            callback.onError(task.getException() != null ? task.getException().getMessage() : "Error getting incident");
+                        }
+                    }
+                });
+    }
+
+    // Follow a single incident: the cached copy, if any, is delivered at once for the first
+    // paint, then every snapshot of the document replaces it. Remove the registration when
+    // the screen stops.
+    public ListenerRegistration listenToIncident(String incidentId, final IncidentCallback callback) {
+        IncidentReport cached = getCachedIncident(incidentId);
+        if (cached != null) {
+            callback.onSuccess(cached);
+        }
+
+        return db.collection(INCIDENTS_COLLECTION).document(incidentId)
+                .addSnapshotListener((document, e) -> {
+                    if (e != null) {
+                        Log.w(TAG, "Error listening to incident", e);
+                        // Keep showing the cached copy if there is one
+                        if (getCachedIncident(incidentId) == null) {
+                            callback.onError(e.getMessage());
+                        }
+                        return;
+                    }
+                    if (document == null || !document.exists()) {
+                        callback.onError("Incident not found");
+                        return;
+                    }
+
+                    IncidentReport incident = document.toObject(IncidentReport.class);
+                    cacheIncident(incident);
+                    callback.onSuccess(incident);
+                });
+    }
+
     // Get incidents for a specific user
     public void getUserIncidents(String userId, final IncidentsCallback callback) {
         db.collection(INCIDENTS_COLLECTION)
@@ -119,6 +436,7 @@ public class FirebaseIncidentService {
                                 IncidentReport incident = document.toObject(IncidentReport.class);
                                 incidents.add(incident);
                             }
+                            cacheIncidents(incidents);
                             callback.onSuccess(incidents);
                         } else {
                             Log.w(TAG, "Error getting user incidents", task.getException());
@@ -128,53 +446,185 @@ public class FirebaseIncidentService {
                 });
     }
 
-    // Update incident status (for admin)
-    public void updateIncidentStatus(String incidentId, String status, final IncidentCallback callback) {
-        db.collection(INCIDENTS_COLLECTION)
-                .document(incidentId)
-                .update("status", status)
-                .addOnSuccessListener(new OnSuccessListener<Void>() {
-                    @Override
-                    public void onSuccess(Void aVoid) {
-                        // Get the updated incident
-                        db.collection(INCIDENTS_COLLECTION)
-                                .document(incidentId)
-                                .get()
-                                .addOnSuccessListener(documentSnapshot -> {
-                                    IncidentReport incident = documentSnapshot.toObject(IncidentReport.class);
-                                    Log.d(TAG, "Incident status updated successfully");
-                                    callback.onSuccess(incident);
-                                });
-                    }
-                })
-                .addOnFailureListener(new OnFailureListener() {
+    // Get incidents within radiusMeters of a position, nearest first. Each covering
+    // geohash cell is one prefix-range query on the stored geohash; the queries run in
+    // parallel and the union is trimmed to the exact circle. Cost follows how many
+    // incidents are in the area, not the size of the collection.
+    public void getIncidentsNear(final double latitude, final double longitude, final double radiusMeters,
+                                 final IncidentsCallback callback) {
+        List<Task<QuerySnapshot>> queries = new ArrayList<>();
+        for (String cell : GeohashUtils.coveringCells(latitude, longitude, radiusMeters)) {
+            queries.add(db.collection(INCIDENTS_COLLECTION)
+                    .orderBy("geohash")
+                    .startAt(cell)
+                    .endAt(cell + "\uf8ff")
+                    .get());
+        }
+
+        Tasks.whenAllSuccess(queries)
+                .addOnCompleteListener(new OnCompleteListener<List<Object>>() {
                     @Override
-                    public void onFailure(@NonNull Exception e) {
-                        Log.w(TAG, "Error updating incident status", e);
-                        callback.onError(e.getMessage());
+                    public void onComplete(@NonNull Task<List<Object>> task) {
+                        if (task.isSuccessful()) {
+                            Map<String, IncidentReport> nearby = new LinkedHashMap<>();
+                            final Map<String, Double> distances = new HashMap<>();
+                            for (Object result : task.getResult()) {
+                                for (QueryDocumentSnapshot document : (QuerySnapshot) result) {
+                                    IncidentReport incident = document.toObject(IncidentReport.class);
+                                    double distance = SpatialIncidentIndex.distanceMeters(latitude, longitude,
+                                            incident.getLatitude(), incident.getLongitude());
+                                    // Cells overhang the circle, so drop what is outside it
+                                    if (distance <= radiusMeters) {
+                                        nearby.put(incident.getReportId(), incident);
+                                        distances.put(incident.getReportId(), distance);
+                                    }
+                                }
+                            }
+
+                            List<IncidentReport> incidents = new ArrayList<>(nearby.values());
+                            Collections.sort(incidents, (a, b) -> Double.compare(
+                                    distances.get(a.getReportId()), distances.get(b.getReportId())));
+                            cacheIncidents(incidents);
+                            callback.onSuccess(incidents);
+                        } else {
+                            Log.w(TAG, "Error getting nearby incidents", task.getException());
+                            callback.onError(task.getException() != null ? task.getException().getMessage() : "Error getting nearby incidents");
+                        }
                     }
                 });
     }
 
-    // Create a new emergency alert
+    // Set the status on the given incidents right away and write it in one batch
+    public void updateIncidentStatusOptimistic(IncidentReport incident, String status, StatusUpdateListener listener) {
+        updateIncidentStatuses(Collections.singletonList(incident), status, listener);
+    }
+
+    // Cache a copy of every incident with the new status, then write them in WriteBatch
+    // chunks of up to MAX_BATCH_WRITES, all committed in parallel. Each chunk changes
+    // together or not at all. The given objects may be on screen or being read off the
+    // main thread, so they are left alone. Call on the main thread.
+    public void updateIncidentStatuses(Collection<IncidentReport> incidents, final String status,
+                                       final StatusUpdateListener listener) {
+        final List<IncidentReport> changed = new ArrayList<>();
+        final Map<String, String> previousStatus = new HashMap<>();
+        for (IncidentReport incident : incidents) {
+            if (incident.getReportId() == null || status.equals(incident.getStatus())) {
+                continue;
+            }
+            IncidentReport applied = new IncidentReport(incident);
+            applied.setStatus(status);
+            previousStatus.put(applied.getReportId(), incident.getStatus());
+            cacheIncident(applied);
+            changed.add(applied);
+        }
+
+        listener.onApplied(changed);
+        if (changed.isEmpty()) {
+            listener.onCommitted(changed);
+            return;
+        }
+
+        // Commit callbacks all arrive on the main thread, so this needs no locking
+        final BulkUpdate update = new BulkUpdate(changed.size());
+        for (int start = 0; start < changed.size(); start += MAX_BATCH_WRITES) {
+            final List<IncidentReport> chunk = changed.subList(start, Math.min(start + MAX_BATCH_WRITES, changed.size()));
+            WriteBatch batch = db.batch();
+            for (IncidentReport incident : chunk) {
+                batch.update(db.collection(INCIDENTS_COLLECTION).document(incident.getReportId()), "status", status);
+            }
+
+            batch.commit().addOnCompleteListener(new OnCompleteListener<Void>() {
+                @Override
+                public void onComplete(@NonNull Task<Void> task) {
+                    if (task.isSuccessful()) {
+                        update.committed.addAll(chunk);
+                    } else {
+                        Log.w(TAG, "Error updating a batch of " + chunk.size() + " incident statuses", task.getException());
+                        String errorMessage = task.getException() != null
+                                ? task.getException().getMessage() : "Error updating incident status";
+                        List<IncidentReport> restored = new ArrayList<>(chunk.size());
+                        for (IncidentReport applied : chunk) {
+                            IncidentReport incident = new IncidentReport(applied);
+                            incident.setStatus(previousStatus.get(applied.getReportId()));
+                            // Restore the cache only where nothing newer has replaced the copy
+                            synchronized (incidentCache) {
+                                if (incidentCache.get(applied.getReportId()) == applied) {
+                                    incidentCache.put(applied.getReportId(), incident);
+                                }
+                            }
+                            restored.add(incident);
+                        }
+                        update.rolledBack.addAll(restored);
+                        if (update.errorMessage == null) {
+                            update.errorMessage = errorMessage;
+                        }
+                        listener.onBatchFailed(restored, errorMessage);
+                    }
+
+                    listener.onProgress(update.committed.size(), update.rolledBack.size(), update.total);
+                    if (update.committed.size() + update.rolledBack.size() < update.total) {
+                        return;
+                    }
+
+                    Log.d(TAG, "Status set to " + status + " on " + update.committed.size() + " of "
+                            + update.total + " incident(s)");
+                    if (!update.committed.isEmpty()) {
+                        listener.onCommitted(update.committed);
+                    }
+                    if (!update.rolledBack.isEmpty()) {
+                        listener.onRolledBack(update.rolledBack, update.errorMessage);
+                    }
+                }
+            });
+        }
+    }
+
+    // Outcome of updateIncidentStatuses() across its batches
+    private static class BulkUpdate {
+        final int total;
+        final List<IncidentReport> committed = new ArrayList<>();
+        final List<IncidentReport> rolledBack = new ArrayList<>();
+        String errorMessage;
+
+        BulkUpdate(int total) {
+            this.total = total;
+        }
+    }
+
+    // Create a new emergency alert with a client-allocated ID and a single write
     public void createEmergencyAlert(EmergencyAlert alert, final AlertCallback callback) {
-        db.collection(ALERTS_COLLECTION)
-                .add(alert.toMap())
-                .addOnSuccessListener(new OnSuccessListener<DocumentReference>() {
+        final long startTime = SystemClock.elapsedRealtime();
+
+        DocumentReference documentRef = alert.getAlertId() != null
+                ? db.collection(ALERTS_COLLECTION).document(alert.getAlertId())
+                : db.collection(ALERTS_COLLECTION).document();
+        alert.setAlertId(documentRef.getId());
+
+        if (outbox != null) {
+            outbox.submit(ALERTS_COLLECTION, alert.getAlertId(), alert.toMap(), new WriteOutbox.DeliveryListener() {
+                @Override
+                public void onDelivered() {
+                    alertPersistLatency.record(SystemClock.elapsedRealtime() - startTime);
+                    Log.d(TAG, "Emergency alert created successfully (" + alertPersistLatency + ")");
+                    callback.onSuccess(alert);
+                }
+
+                @Override
+                public void onQueued(String reason) {
+                    Log.d(TAG, "Emergency alert queued: " + reason);
+                    callback.onQueued(alert, reason);
+                }
+            });
+            return;
+        }
+
+        documentRef.set(alert.toMap())
+                .addOnSuccessListener(new OnSuccessListener<Void>() {
                     @Override
-                    public void onSuccess(DocumentReference documentReference) {
-                        alert.setAlertId(documentReference.getId());
-                        // Update with the generated ID
-                        db.collection(ALERTS_COLLECTION)
-                                .document(documentReference.getId())
-                                .update("alertId", documentReference.getId())
-                                .addOnSuccessListener(new OnSuccessListener<Void>() {
-                                    @Override
-                                    public void onSuccess(Void aVoid) {
-                                        Log.d(TAG, "Emergency alert created successfully");
-                                        callback.onSuccess(alert);
-                                    }
-                                });
+                    public void onSuccess(Void aVoid) {
+                        alertPersistLatency.record(SystemClock.elapsedRealtime() - startTime);
+                        Log.d(TAG, "Emergency alert created successfully (" + alertPersistLatency + ")");
+                        callback.onSuccess(alert);
                     }
                 })
                 .addOnFailureListener(new OnFailureListener() {
@@ -186,6 +636,16 @@ public class FirebaseIncidentService {
                 });
     }
 
+    // Allocate an alert ID up front so an alert can be referenced (e.g. in SMS) before it is written
+    public String newAlertId() {
+        return db.collection(ALERTS_COLLECTION).document().getId();
+    }
+
+    // Latency distribution of emergency alert writes since process start
+    public static LatencyHistogram getAlertPersistLatency() {
+        return alertPersistLatency;
+    }
+
     // Get emergency alerts for a user
     public void getUserAlerts(String userId, final AlertsCallback callback) {
         db.collection(ALERTS_COLLECTION)
@@ -232,4 +692,29 @@ public class FirebaseIncidentService {
                     }
                 });
     }
+
+    private static IncidentReport getCachedIncident(String incidentId) {
+        synchronized (incidentCache) {
+            return incidentCache.get(incidentId);
+        }
+    }
+
+    private static void cacheIncident(IncidentReport incident) {
+        if (incident == null || incident.getReportId() == null) {
+            return;
+        }
+        synchronized (incidentCache) {
+            incidentCache.put(incident.getReportId(), incident);
+        }
+    }
+
+    private static void cacheIncidents(List<IncidentReport> incidents) {
+        synchronized (incidentCache) {
+            for (IncidentReport incident : incidents) {
+                if (incident != null && incident.getReportId() != null) {
+                    incidentCache.put(incident.getReportId(), incident);
+                }
+            }
+        }
+    }
 }
\ No newline at end of file
@@ -1,11 +1,15 @@
 package com.example.mysafepoint.services;
 
+import android.content.Context;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import com.example.mysafepoint.models.EmergencyContact;
 import com.example.mysafepoint.models.User;
+import com.example.mysafepoint.utils.LocalContactStore;
+import com.example.mysafepoint.utils.ValidationUtils;
 import com.google.android.gms.tasks.OnCompleteListener;
 import com.google.android.gms.tasks.OnFailureListener;
 import com.google.android.gms.tasks.OnSuccessListener;
@@ -18,19 +22,42 @@ import com.google.firebase.firestore.QueryDocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class FirebaseUserService {
     private static final String TAG = "FirebaseUserService";
     private static final String USERS_COLLECTION = "users";
     private static final String EMERGENCY_CONTACTS_COLLECTION = "emergency_contacts";
+    // phone_directory/{E.164 number} -> {userId, fullName}; lets a user find which of their
+    // contacts have an account without being able to read anyone's user document. Entries
+    // can only be fetched one number at a time, never listed.
+    private static final String PHONE_DIRECTORY_COLLECTION = "phone_directory";
+    // Error message when the user document does not exist
+    public static final String USER_NOT_FOUND = "User not found";
+
+    // Minimum time between background refreshes of a user's cached contacts
+    private static final long CONTACT_REFRESH_INTERVAL_MS = 60 * 1000;
+    private static final Map<String, Long> lastContactRefresh = new ConcurrentHashMap<>();
 
     private FirebaseFirestore db;
+    private LocalContactStore contactStore;
 
     public FirebaseUserService() {
         db = FirebaseFirestore.getInstance();
     }
 
+    // Use this constructor wherever emergency contacts are read or edited: contacts are then
+    // served from the on-device store and synced with Firestore in the background
+    public FirebaseUserService(Context context) {
+        this();
+        contactStore = LocalContactStore.getInstance(context);
+    }
+
     public interface UserCallback {
         void onSuccess(User user);
         void onError(String errorMessage);
@@ -44,6 +71,11 @@ public class FirebaseUserService {
     public interface EmergencyContactCallback {
         void onSuccess(EmergencyContact contact);
         void onError(String errorMessage);
+        // A change already reported through onSuccess() was rejected by the server and the
+        // local store has been put back in line with it; contact is null for a deletion
+        default void onRolledBack(EmergencyContact contact, String errorMessage) {
+            onError(errorMessage);
+        }
     }
 
     public interface EmergencyContactsCallback {
@@ -51,6 +83,13 @@ public class FirebaseUserService {
         void onError(String errorMessage);
     }
 
+    public interface PhoneLookupCallback {
+        // Accounts found, keyed by E.164 number; numbers without an account are left out.
+        // Each user only has the ID and name filled in.
+        void onSuccess(Map<String, User> usersByPhone);
+        void onError(String errorMessage);
+    }
+
     // Save user to Firestore
     public void saveUser(User user, final UserCallback callback) {
         db.collection(USERS_COLLECTION).document(user.getUserId())
@@ -97,7 +136,29 @@ public class FirebaseUserService {
                                     }
                                 });
                             } else {
-                                callback.onError("User not found");
+                                callback.onError(USER_NOT_FOUND);
+                            }
+                        } else {
+                            Log.w(TAG, "Error getting user", task.getException());
+                            callback.onError(task.getException() != null ? task.getException().getMessage() : "Error getting user");
+                        }
+                    }
+                });
+    }
+
+    // Get the user document only, without emergency contacts, e.g. to check the role
+    public void getUserProfile(String userId, final UserCallback callback) {
+        db.collection(USERS_COLLECTION).document(userId)
+                .get()
+                .addOnCompleteListener(new OnCompleteListener<DocumentSnapshot>() {
+                    @Override
+                    public void onComplete(@NonNull Task<DocumentSnapshot> task) {
+                        if (task.isSuccessful()) {
+                            DocumentSnapshot document = task.getResult();
+                            if (document.exists()) {
+                                callback.onSuccess(document.toObject(User.class));
+                            } else {
+                                callback.onError(USER_NOT_FOUND);
                             }
                         } else {
                             Log.w(TAG, "Error getting user", task.getException());
@@ -150,40 +211,84 @@ public class FirebaseUserService {
                 });
     }
 
-    // Add emergency contact
+    // Add emergency contact. The ID is allocated on the client so the contact can be stored
+    // locally straight away; the Firestore write is synced in the background.
     public void addEmergencyContact(String userId, EmergencyContact contact, final EmergencyContactCallback callback) {
-        CollectionReference contactsRef = db.collection(USERS_COLLECTION)
+        DocumentReference contactRef = db.collection(USERS_COLLECTION)
                 .document(userId)
-                .collection(EMERGENCY_CONTACTS_COLLECTION);
+                .collection(EMERGENCY_CONTACTS_COLLECTION)
+                .document();
+        contact.setContactId(contactRef.getId());
 
-        contactsRef.add(contact.toMap())
-                .addOnSuccessListener(new OnSuccessListener<DocumentReference>() {
+        if (contactStore != null) {
+            contactStore.putContact(userId, contact);
+            callback.onSuccess(contact);
+        }
+
+        contactRef.set(contact.toMap())
+                .addOnSuccessListener(new OnSuccessListener<Void>() {
                     @Override
-                    public void onSuccess(DocumentReference documentReference) {
-                        contact.setContactId(documentReference.getId());
-                        // Update with the generated ID
-                        contactsRef.document(documentReference.getId())
-                                .update("contactId", documentReference.getId())
-                                .addOnSuccessListener(new OnSuccessListener<Void>() {
-                                    @Override
-                                    public void onSuccess(Void aVoid) {
-                                        Log.d(TAG, "Contact added successfully");
-                                        callback.onSuccess(contact);
-                                    }
-                                });
+                    public void onSuccess(Void aVoid) {
+                        Log.d(TAG, "Contact added successfully");
+                        if (contactStore == null) {
+                            callback.onSuccess(contact);
+                        }
                     }
                 })
                 .addOnFailureListener(new OnFailureListener() {
                     @Override
                     public void onFailure(@NonNull Exception e) {
                         Log.w(TAG, "Error adding contact", e);
-                        callback.onError(e.getMessage());
+                        if (contactStore == null) {
+                            callback.onError(e.getMessage());
+                        } else {
+                            contactStore.removeContact(userId, contact.getContactId());
+                            callback.onRolledBack(contact, e.getMessage());
+                        }
                     }
                 });
     }
 
-    // Get emergency contacts for a user
+    // Get emergency contacts for a user. With a local store, known contacts are returned
+    // immediately (also offline) and refreshed from Firestore in the background.
     public void getEmergencyContacts(String userId, final EmergencyContactsCallback callback) {
+        if (contactStore == null) {
+            fetchEmergencyContacts(userId, callback);
+            return;
+        }
+        contactStore.loadContacts(userId, cached -> {
+            if (cached != null) {
+                callback.onSuccess(cached);
+                refreshEmergencyContacts(userId);
+            } else {
+                fetchEmergencyContacts(userId, callback);
+            }
+        });
+    }
+
+    // Re-read contacts from Firestore into the local store, at most once per interval
+    private void refreshEmergencyContacts(String userId) {
+        long now = SystemClock.elapsedRealtime();
+        Long lastRefresh = lastContactRefresh.get(userId);
+        if (lastRefresh != null && now - lastRefresh < CONTACT_REFRESH_INTERVAL_MS) {
+            return;
+        }
+        lastContactRefresh.put(userId, now);
+
+        fetchEmergencyContacts(userId, new EmergencyContactsCallback() {
+            @Override
+            public void onSuccess(List<EmergencyContact> contacts) {
+                Log.d(TAG, "Contacts refreshed in background");
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                lastContactRefresh.remove(userId);
+            }
+        });
+    }
+
+    private void fetchEmergencyContacts(String userId, final EmergencyContactsCallback callback) {
         db.collection(USERS_COLLECTION)
                 .document(userId)
                 .collection(EMERGENCY_CONTACTS_COLLECTION)
@@ -197,6 +302,10 @@ public class FirebaseUserService {
                                 EmergencyContact contact = document.toObject(EmergencyContact.class);
                                 contacts.add(contact);
                             }
+                            // Results served from Firestore's own offline cache are not authoritative
+                            if (contactStore != null && !task.getResult().getMetadata().isFromCache()) {
+                                contactStore.replaceContacts(userId, contacts);
+                            }
                             callback.onSuccess(contacts);
                         } else {
                             Log.w(TAG, "Error getting contacts", task.getException());
@@ -208,6 +317,11 @@ public class FirebaseUserService {
 
     // Update emergency contact
     public void updateEmergencyContact(String userId, EmergencyContact contact, final EmergencyContactCallback callback) {
+        if (contactStore != null) {
+            contactStore.putContact(userId, contact);
+            callback.onSuccess(contact);
+        }
+
         db.collection(USERS_COLLECTION)
                 .document(userId)
                 .collection(EMERGENCY_CONTACTS_COLLECTION)
@@ -217,20 +331,31 @@ public class FirebaseUserService {
                     @Override
                     public void onSuccess(Void aVoid) {
                         Log.d(TAG, "Contact updated successfully");
-                        callback.onSuccess(contact);
+                        if (contactStore == null) {
+                            callback.onSuccess(contact);
+                        }
                     }
                 })
                 .addOnFailureListener(new OnFailureListener() {
                     @Override
                     public void onFailure(@NonNull Exception e) {
                         Log.w(TAG, "Error updating contact", e);
-                        callback.onError(e.getMessage());
+                        if (contactStore == null) {
+                            callback.onError(e.getMessage());
+                        } else {
+                            resyncEmergencyContacts(userId, () -> callback.onRolledBack(contact, e.getMessage()));
+                        }
                     }
                 });
     }
 
     // Delete emergency contact
     public void deleteEmergencyContact(String userId, String contactId, final EmergencyContactCallback callback) {
+        if (contactStore != null) {
+            contactStore.removeContact(userId, contactId);
+            callback.onSuccess(null);
+        }
+
         db.collection(USERS_COLLECTION)
                 .document(userId)
                 .collection(EMERGENCY_CONTACTS_COLLECTION)
@@ -240,15 +365,127 @@ public class FirebaseUserService {
                     @Override
                     public void onSuccess(Void aVoid) {
                         Log.d(TAG, "Contact deleted successfully");
-                        callback.onSuccess(null);
+                        if (contactStore == null) {
+                            callback.onSuccess(null);
+                        }
                     }
                 })
                 .addOnFailureListener(new OnFailureListener() {
                     @Override
                     public void onFailure(@NonNull Exception e) {
                         Log.w(TAG, "Error deleting contact", e);
+                        if (contactStore == null) {
+                            callback.onError(e.getMessage());
+                        } else {
+                            resyncEmergencyContacts(userId, () -> callback.onRolledBack(null, e.getMessage()));
+                        }
+                    }
+                });
+    }
+
+    // A local edit was rejected by the server: bring the store back in line with Firestore,
+    // then report back whether or not the re-read worked
+    private void resyncEmergencyContacts(String userId, Runnable onDone) {
+        lastContactRefresh.put(userId, SystemClock.elapsedRealtime());
+        fetchEmergencyContacts(userId, new EmergencyContactsCallback() {
+            @Override
+            public void onSuccess(List<EmergencyContact> contacts) {
+                onDone.run();
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                lastContactRefresh.remove(userId);
+                onDone.run();
+            }
+        });
+    }
+
+    // List the user under their phone number, so people who have them as a contact can
+    // find them to share a location with. previousPhone is the number listed before, if
+    // any, which is taken down. The number has to be the one verified by SMS on the
+    // signed-in account (FirebaseUser.getPhoneNumber()); the rules reject any other.
+    public void listPhoneNumber(final User user, String previousPhone, final UserCallback callback) {
+        final String phone = ValidationUtils.normalizePhone(user.getPhoneNumber());
+        if (phone == null || phone.isEmpty()) {
+            callback.onError("No phone number to list");
+            return;
+        }
+        if (previousPhone != null && !previousPhone.isEmpty() && !previousPhone.equals(phone)) {
+            db.collection(PHONE_DIRECTORY_COLLECTION).document(previousPhone).delete();
+        }
+
+        Map<String, Object> entry = new HashMap<>();
+        entry.put("userId", user.getUserId());
+        entry.put("fullName", user.getFullName());
+        db.collection(PHONE_DIRECTORY_COLLECTION)
+                .document(phone)
+                .set(entry)
+                .addOnSuccessListener(new OnSuccessListener<Void>() {
+                    @Override
+                    public void onSuccess(Void aVoid) {
+                        callback.onSuccess(user);
+                    }
+                })
+                .addOnFailureListener(new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        // Usually the number is already listed by another account
+                        Log.w(TAG, "Error listing phone number", e);
                         callback.onError(e.getMessage());
                     }
                 });
     }
-}
\ No newline at end of file
+
+    // Find the accounts listed under the given phone numbers, in any format
+    public void findUsersByPhone(List<String> phoneNumbers, final PhoneLookupCallback callback) {
+        Set<String> normalized = new LinkedHashSet<>();
+        for (String phoneNumber : phoneNumbers) {
+            String phone = ValidationUtils.normalizePhone(phoneNumber);
+            if (phone != null && !phone.isEmpty()) {
+                normalized.add(phone);
+            }
+        }
+        final Map<String, User> found = new HashMap<>();
+        if (normalized.isEmpty()) {
+            callback.onSuccess(found);
+            return;
+        }
+
+        // One get() per number: the directory cannot be queried, so it cannot be dumped
+        final int[] remaining = {normalized.size()};
+        final boolean[] failed = {false};
+        for (final String phone : normalized) {
+            db.collection(PHONE_DIRECTORY_COLLECTION)
+                    .document(phone)
+                    .get()
+                    .addOnCompleteListener(new OnCompleteListener<DocumentSnapshot>() {
+                        @Override
+                        public void onComplete(@NonNull Task<DocumentSnapshot> task) {
+                            // Completion listeners all run on the main thread
+                            if (failed[0]) {
+                                return;
+                            }
+                            if (!task.isSuccessful()) {
+                                failed[0] = true;
+                                Log.w(TAG, "Error looking up phone numbers", task.getException());
+                                callback.onError(task.getException() != null ? task.getException().getMessage() : "Error looking up contacts");
+                                return;
+                            }
+                            DocumentSnapshot document = task.getResult();
+                            if (document != null && document.exists()) {
+                                User user = new User();
+                                user.setUserId(document.getString("userId"));
+                                user.setFullName(document.getString("fullName"));
+                                if (user.getUserId() != null) {
+                                    found.put(phone, user);
+                                }
+                            }
+                            if (--remaining[0] == 0) {
+                                callback.onSuccess(found);
+                            }
+                        }
+                    });
+        }
+    }
+}
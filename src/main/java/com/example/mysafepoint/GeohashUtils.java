@@ -0,0 +1,193 @@
+package com.example.mysafepoint.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Geohash encoding: a lat/lng is turned into a base-32 string where nearby points share
+// a common prefix. Used as a cache key for nearby locations and, stored on documents, to
+// find nearby documents with prefix-range queries.
+public class GeohashUtils {
+    private static final String BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+    // Precision 7 is a cell of about 150m x 150m
+    public static final int PRECISION_STREET = 7;
+    // Precision stored on documents, about 5m x 5m; queries use a prefix of it
+    public static final int PRECISION_STORED = 9;
+
+    // Smallest side of a cell at each precision (index 0 = precision 1), in metres
+    private static final double[] CELL_SIZE_METERS = {
+            5009400, 625100, 156500, 19500, 4890, 610, 153, 19.1, 4.77
+    };
+    private static final double METERS_PER_DEGREE_LAT = 111320;
+
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLng = -180, maxLng = 180;
+
+        char[] hash = new char[precision];
+        boolean evenBit = true;
+        int bit = 0;
+        int ch = 0;
+        int length = 0;
+
+        while (length < precision) {
+            if (evenBit) {
+                double mid = (minLng + maxLng) / 2;
+                if (longitude >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLng = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLng = mid;
+                }
+            } else {
+                double mid = (minLat + maxLat) / 2;
+                if (latitude >= mid) {
+                    ch = (ch << 1) | 1;
+                    minLat = mid;
+                } else {
+                    ch = ch << 1;
+                    maxLat = mid;
+                }
+            }
+            evenBit = !evenBit;
+
+            if (++bit == 5) {
+                hash[length++] = BASE32.charAt(ch);
+                bit = 0;
+                ch = 0;
+            }
+        }
+        return new String(hash);
+    }
+
+    // Bounds of a geohash cell as {south, west, north, east}
+    public static double[] decodeBounds(String hash) {
+        double minLat = -90, maxLat = 90;
+        double minLng = -180, maxLng = 180;
+        boolean evenBit = true;
+
+        for (int i = 0; i < hash.length(); i++) {
+            int value = BASE32.indexOf(hash.charAt(i));
+            for (int bit = 4; bit >= 0; bit--) {
+                boolean set = ((value >> bit) & 1) == 1;
+                if (evenBit) {
+                    double mid = (minLng + maxLng) / 2;
+                    if (set) {
+                        minLng = mid;
+                    } else {
+                        maxLng = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (set) {
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                evenBit = !evenBit;
+            }
+        }
+        return new double[]{minLat, minLng, maxLat, maxLng};
+    }
+
+    // The geohash as a number, 5 bits per character in the same bit order as encode(). A
+    // point's hash at a lower precision q is encodeBits(...) >>> 5 * (precision - q), so
+    // every prefix covers a contiguous range of values. Precision 12 at most.
+    public static long encodeBits(double latitude, double longitude, int precision) {
+        return interleave(column(longitude, precision), row(latitude, precision), precision);
+    }
+
+    // Column of the cell holding the longitude, in the grid of cells at this precision
+    public static int column(double longitude, int precision) {
+        return gridIndex(longitude + 180, 360, (5 * precision + 1) / 2);
+    }
+
+    // Row of the cell holding the latitude, in the grid of cells at this precision
+    public static int row(double latitude, int precision) {
+        return gridIndex(latitude + 90, 180, 5 * precision / 2);
+    }
+
+    // Numeric hash of the cell at this column and row: longitude bits first, alternating
+    public static long interleave(int column, int row, int precision) {
+        int bits = 5 * precision;
+        int columnBit = (bits + 1) / 2 - 1;
+        int rowBit = bits / 2 - 1;
+        long hash = 0;
+        for (int i = 0; i < bits; i++) {
+            if ((i & 1) == 0) {
+                hash = (hash << 1) | ((column >> columnBit--) & 1);
+            } else {
+                hash = (hash << 1) | ((row >> rowBit--) & 1);
+            }
+        }
+        return hash;
+    }
+
+    private static int gridIndex(double offset, double span, int bits) {
+        int cells = 1 << bits;
+        int index = (int) (offset / span * cells);
+        return Math.max(0, Math.min(cells - 1, index));
+    }
+
+    // Longest precision whose cells are at least as big as the radius, so the circle is
+    // always covered by the cell it is centred in and its eight neighbours
+    public static int precisionForRadius(double radiusMeters) {
+        for (int precision = CELL_SIZE_METERS.length; precision > 1; precision--) {
+            if (CELL_SIZE_METERS[precision - 1] >= radiusMeters) {
+                return precision;
+            }
+        }
+        return 1;
+    }
+
+    // The geohash cells that together cover a circle: the centre cell plus whichever of
+    // its neighbours the circle's bounding box reaches into (between one and nine cells)
+    public static List<String> coveringCells(double latitude, double longitude, double radiusMeters) {
+        double latDelta = radiusMeters / METERS_PER_DEGREE_LAT;
+        double cosLat = Math.max(0.01, Math.cos(Math.toRadians(latitude)));
+        double lngDelta = Math.min(180, latDelta / cosLat);
+
+        // Cells narrow away from the equator, so step down until one cell spans the radius
+        int precision = precisionForRadius(radiusMeters);
+        String center = encode(latitude, longitude, precision);
+        double[] bounds = decodeBounds(center);
+        while (precision > 1 && (bounds[2] - bounds[0] < latDelta || bounds[3] - bounds[1] < lngDelta)) {
+            precision--;
+            center = encode(latitude, longitude, precision);
+            bounds = decodeBounds(center);
+        }
+        double cellHeight = bounds[2] - bounds[0];
+        double cellWidth = bounds[3] - bounds[1];
+        double centerLat = (bounds[0] + bounds[2]) / 2;
+        double centerLng = (bounds[1] + bounds[3]) / 2;
+
+        List<String> cells = new ArrayList<>();
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                // Skip neighbours the circle does not reach
+                if ((dy < 0 && latitude - latDelta >= bounds[0]) || (dy > 0 && latitude + latDelta <= bounds[2])
+                        || (dx < 0 && longitude - lngDelta >= bounds[1]) || (dx > 0 && longitude + lngDelta <= bounds[3])) {
+                    continue;
+                }
+                double lat = centerLat + dy * cellHeight;
+                if (lat < -90 || lat > 90) {
+                    continue;
+                }
+                double lng = centerLng + dx * cellWidth;
+                if (lng > 180) {
+                    lng -= 360;
+                } else if (lng < -180) {
+                    lng += 360;
+                }
+
+                String cell = encode(lat, lng, precision);
+                if (!cells.contains(cell)) {
+                    cells.add(cell);
+                }
+            }
+        }
+        return cells;
+    }
+}
@@ -16,32 +16,27 @@ import androidx.fragment.app.Fragment;
 import com.example.mysafepoint.R;
 import com.example.mysafepoint.models.EmergencyAlert;
 import com.example.mysafepoint.models.EmergencyContact;
-import com.example.mysafepoint.services.FirebaseIncidentService;
-import com.example.mysafepoint.services.FirebaseUserService;
-import com.example.mysafepoint.services.LocationService;
-import com.example.mysafepoint.services.SMSService;
+import com.example.mysafepoint.services.EmergencyDispatchPipeline;
 import com.example.mysafepoint.utils.Constants;
+import com.example.mysafepoint.utils.LocalContactStore;
 import com.example.mysafepoint.utils.PermissionUtils;
 import com.example.mysafepoint.utils.SharedPrefManager;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
-import java.util.List;
-
 public class HomeFragment extends Fragment {
 
     private TextView tvWelcome;
     private MaterialButton btnEmergency;
 
     private SharedPrefManager prefManager;
-    private FirebaseUserService userService;
-    private FirebaseIncidentService incidentService;
-    private LocationService locationService;
-    private SMSService smsService;
+    private EmergencyDispatchPipeline dispatchPipeline;
 
     private String userId;
     private String userName;
     private boolean isDialogShowing = false;
+    // Shown while an alert is being dispatched; dismissed with the view if still up
+    private AlertDialog progressDialog;
 
     @Nullable
     @Override
@@ -54,10 +49,7 @@ public class HomeFragment extends Fragment {
 
         // Initialize services
         prefManager = SharedPrefManager.getInstance(requireContext());
-        userService = new FirebaseUserService();
-        incidentService = new FirebaseIncidentService();
-        locationService = new LocationService(requireContext());
-        smsService = new SMSService(requireContext());
+        dispatchPipeline = new EmergencyDispatchPipeline(requireContext());
 
         // Get user data
         userId = prefManager.getString(Constants.KEY_USER_ID);
@@ -66,6 +58,9 @@ public class HomeFragment extends Fragment {
         // Set welcome message
         tvWelcome.setText("Welcome, " + userName);
 
+        // Have the contact list in memory before the SOS button is pressed
+        LocalContactStore.getInstance(requireContext()).preload(userId);
+
         // Setup emergency button click
         btnEmergency.setOnClickListener(v -> {
             if (!isDialogShowing) {
@@ -97,12 +92,11 @@ public class HomeFragment extends Fragment {
     }
 
     private void triggerEmergencyAlert(String incidentType) {
-        // Check permissions first
+        // Check permissions first. Without location the alert still goes out, just without
+        // coordinates, so only SMS is required.
         if (!PermissionUtils.hasLocationPermission(requireContext())) {
             Toast.makeText(requireContext(), R.string.location_permission_message, Toast.LENGTH_LONG).show();
             PermissionUtils.requestLocationPermission(requireActivity());
-            isDialogShowing = false;
-            return;
         }
 
         if (!PermissionUtils.hasSMSPermission(requireContext())) {
@@ -113,93 +107,86 @@ public class HomeFragment extends Fragment {
         }
 
         // Show processing dialog
-        AlertDialog progressDialog = new MaterialAlertDialogBuilder(requireContext())
+        final AlertDialog dialog = new MaterialAlertDialogBuilder(requireContext())
                 .setTitle("Sending Alert")
                 .setMessage("Processing your emergency alert...")
                 .setCancelable(false)
                 .show();
+        progressDialog = dialog;
+        final boolean[] confirmed = {false};
 
-        // Get user's emergency contacts
-        userService.getEmergencyContacts(userId, new FirebaseUserService.EmergencyContactsCallback() {
+        // Contacts and location are fetched in parallel; SMS goes out before the alert is saved
+        dispatchPipeline.dispatch(userId, userName, incidentType, new EmergencyDispatchPipeline.DispatchListener() {
             @Override
-            public void onSuccess(List<EmergencyContact> contacts) {
-                if (contacts.isEmpty()) {
-                    progressDialog.dismiss();
-                    isDialogShowing = false;
-                    Toast.makeText(requireContext(), "You have no emergency contacts. Please add contacts first.", Toast.LENGTH_LONG).show();
-                    return;
+            public void onHandedOff(int contactCount) {
+                // Retries can take minutes and carry on without the screen, so don't hold the user here
+                if (isAdded() && dismissProgress(dialog)) {
+                    Toast.makeText(requireContext(), "Sending alert to " + contactCount + " contact(s)...", Toast.LENGTH_SHORT).show();
                 }
+            }
+
+            @Override
+            public void onSMSSent(EmergencyContact contact) {
+                // Successfully sent to at least one contact
+                if (isAdded() && !confirmed[0]) {
+                    confirmed[0] = true;
+                    dismissProgress(dialog);
+                    Toast.makeText(requireContext(), "Emergency alert sent successfully", Toast.LENGTH_SHORT).show();
+                }
+            }
+
+            @Override
+            public void onSMSError(EmergencyContact contact, String errorMessage) {
+                // Reported only once retries are used up, so every failure is shown
+                if (isAdded()) {
+                    dismissProgress(dialog);
+                    Toast.makeText(requireContext(), "Could not send SMS to " + contact.getName() + ": " + errorMessage, Toast.LENGTH_LONG).show();
+                }
+            }
 
-                // Get current location
-                locationService.getCurrentLocation(new LocationService.LocationCallback() {
-                    @Override
-                    public void onLocationReceived(double latitude, double longitude, String address) {
-                        // Create emergency alert
-                        EmergencyAlert alert = new EmergencyAlert(
-                                null, // ID will be generated by Firebase
-                                userId,
-                                userName,
-                                incidentType,
-                                address,
-                                latitude,
-                                longitude
-                        );
-
-                        // Save to Firebase
-                        incidentService.createEmergencyAlert(alert, new FirebaseIncidentService.AlertCallback() {
-                            @Override
-                            public void onSuccess(EmergencyAlert alert) {
-                                // Send SMS to emergency contacts
-                                smsService.sendEmergencyAlertSMS(alert, contacts, new SMSService.SMSCallback() {
-                                    @Override
-                                    public void onSMSSent(EmergencyContact contact) {
-                                        // Successfully sent to at least one contact
-                                        if (progressDialog.isShowing()) {
-                                            progressDialog.dismiss();
-                                            isDialogShowing = false;
-                                            Toast.makeText(requireContext(), "Emergency alert sent successfully", Toast.LENGTH_SHORT).show();
-                                        }
-                                    }
-
-                                    @Override
-                                    public void onSMSError(EmergencyContact contact, String errorMessage) {
-                                        // Error sending SMS
-                                        if (progressDialog.isShowing()) {
-                                            progressDialog.dismiss();
-                                            isDialogShowing = false;
-                                            Toast.makeText(requireContext(), "Error sending SMS: " + errorMessage, Toast.LENGTH_SHORT).show();
-                                        }
-                                    }
-                                });
-                            }
-
-                            @Override
-                            public void onError(String errorMessage) {
-                                // Error saving alert to Firebase
-                                progressDialog.dismiss();
-                                isDialogShowing = false;
-                                Toast.makeText(requireContext(), "Error creating alert: " + errorMessage, Toast.LENGTH_SHORT).show();
-                            }
-                        });
-                    }
-
-                    @Override
-                    public void onLocationError(String errorMessage) {
-                        // Error getting location
-                        progressDialog.dismiss();
-                        isDialogShowing = false;
-                        Toast.makeText(requireContext(), "Error getting location: " + errorMessage, Toast.LENGTH_SHORT).show();
-                    }
-                });
+            @Override
+            public void onAlertPersisted(EmergencyAlert alert) {
+                // Alert record saved in the background, nothing to show
+            }
+
+            @Override
+            public void onPersistError(String errorMessage) {
+                // Contacts have already been messaged; only the alert record failed to save
+                if (isAdded()) {
+                    Toast.makeText(requireContext(), "Error saving alert: " + errorMessage, Toast.LENGTH_SHORT).show();
+                }
             }
 
             @Override
             public void onError(String errorMessage) {
-                // Error getting contacts
-                progressDialog.dismiss();
-                isDialogShowing = false;
-                Toast.makeText(requireContext(), "Error getting contacts: " + errorMessage, Toast.LENGTH_SHORT).show();
+                // No contacts, or contacts could not be loaded
+                if (isAdded()) {
+                    dismissProgress(dialog);
+                    Toast.makeText(requireContext(), errorMessage, Toast.LENGTH_LONG).show();
+                }
             }
         });
     }
-}
\ No newline at end of file
+
+    // Returns false if the dialog was already gone, e.g. a later callback of an alert whose
+    // dialog was dismissed by the first one
+    private boolean dismissProgress(AlertDialog dialog) {
+        if (dialog == null || dialog != progressDialog) {
+            return false;
+        }
+        progressDialog = null;
+        isDialogShowing = false;
+        if (!dialog.isShowing()) {
+            return false;
+        }
+        dialog.dismiss();
+        return true;
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        // Callbacks arriving after this are ignored, so the dialog has to go now
+        dismissProgress(progressDialog);
+    }
+}
@@ -0,0 +1,154 @@
+package com.example.mysafepoint.utils;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Turns a photo into an upload-sized JPEG: decoded with inSampleSize so the full image is
+// never in memory, rotated upright, scaled so the long edge is at most maxLongEdge and
+// re-encoded at the highest quality that fits maxBytes. Re-encoding writes no EXIF, so
+// camera metadata (including GPS) is stripped. Blocking; call from a background thread.
+public class ImageCompressor {
+    public static final int DEFAULT_MAX_LONG_EDGE = 1600;
+    public static final int DEFAULT_MAX_BYTES = 400 * 1024;
+
+    private static final int START_QUALITY = 85;
+    private static final int MIN_QUALITY = 40;
+    private static final int QUALITY_STEP = 10;
+
+    // Compress the image at the given content or file URI into destination
+    public static void compress(Context context, Uri source, File destination, int maxLongEdge, int maxBytes) throws IOException {
+        compress(decode(context, source, maxLongEdge), destination, maxBytes);
+    }
+
+    // Decode the image at source upright with its long edge at most maxLongEdge, e.g. for
+    // a preview, without ever holding the full-resolution bitmap
+    public static Bitmap decode(Context context, Uri source, int maxLongEdge) throws IOException {
+        // Read only the dimensions first
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        try (InputStream in = open(context, source)) {
+            BitmapFactory.decodeStream(in, null, bounds);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Not an image: " + source);
+        }
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSizeFor(Math.max(bounds.outWidth, bounds.outHeight), maxLongEdge);
+        Bitmap bitmap;
+        try (InputStream in = open(context, source)) {
+            bitmap = BitmapFactory.decodeStream(in, null, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Could not decode image: " + source);
+        }
+
+        int orientation;
+        try (InputStream in = open(context, source)) {
+            orientation = new ExifInterface(in).getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+        }
+        return transform(bitmap, orientation, maxLongEdge);
+    }
+
+    // Compress an in-memory bitmap into destination. The bitmap is recycled.
+    public static void compress(Bitmap bitmap, File destination, int maxLongEdge, int maxBytes) throws IOException {
+        compress(transform(bitmap, ExifInterface.ORIENTATION_NORMAL, maxLongEdge), destination, maxBytes);
+    }
+
+    private static void compress(Bitmap bitmap, File destination, int maxBytes) throws IOException {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(maxBytes);
+            int quality = START_QUALITY;
+            while (true) {
+                buffer.reset();
+                bitmap.compress(Bitmap.CompressFormat.JPEG, quality, buffer);
+                if (buffer.size() <= maxBytes || quality - QUALITY_STEP < MIN_QUALITY) {
+                    break;
+                }
+                quality -= QUALITY_STEP;
+            }
+
+            try (OutputStream out = new FileOutputStream(destination)) {
+                buffer.writeTo(out);
+            }
+        } finally {
+            bitmap.recycle();
+        }
+    }
+
+    // Largest power of two that keeps the long edge at or above the target
+    static int sampleSizeFor(int longEdge, int maxLongEdge) {
+        int sampleSize = 1;
+        while (longEdge / (sampleSize * 2) >= maxLongEdge) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    // Apply the EXIF orientation and the final scale in a single pass
+    private static Bitmap transform(Bitmap bitmap, int orientation, int maxLongEdge) {
+        Matrix matrix = new Matrix();
+        int longEdge = Math.max(bitmap.getWidth(), bitmap.getHeight());
+        if (longEdge > maxLongEdge) {
+            float scale = (float) maxLongEdge / longEdge;
+            matrix.postScale(scale, scale);
+        }
+
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.postRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.postRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.postRotate(270);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.postScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.postRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.postRotate(270);
+                matrix.postScale(-1, 1);
+                break;
+            default:
+                break;
+        }
+
+        if (matrix.isIdentity()) {
+            return bitmap;
+        }
+        Bitmap transformed = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (transformed != bitmap) {
+            bitmap.recycle();
+        }
+        return transformed;
+    }
+
+    private static InputStream open(Context context, Uri source) throws IOException {
+        InputStream in = context.getContentResolver().openInputStream(source);
+        if (in == null) {
+            throw new IOException("Could not open " + source);
+        }
+        return in;
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.mysafepoint.services;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.mysafepoint.utils.ImageCompressor;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.storage.FirebaseStorage;
+import com.google.firebase.storage.StorageMetadata;
+import com.google.firebase.storage.StorageReference;
+import com.google.firebase.storage.UploadTask;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// Uploads evidence photos for a Firestore document without blocking the UI. The image is
+// compressed on a background thread into app storage, uploaded as a resumable session and,
+// once done, its download URL is written to the document. Each upload is recorded in
+// SharedPreferences together with its session URI, so resumePendingUploads() can pick it
+// up again after the process is killed instead of starting over.
+public class ImageUploadService {
+    private static final String TAG = "ImageUploadService";
+    private static final String PREFS_NAME = "safepoint_uploads";
+    private static final String UPLOAD_DIR = "pending_uploads";
+
+    private static ImageUploadService instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private final FirebaseStorage storage;
+    private final FirebaseFirestore db;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Uploads running in this process, keyed by storage path
+    private final Set<String> activeUploads = Collections.synchronizedSet(new HashSet<>());
+
+    public interface UploadCallback {
+        void onSuccess(String downloadUrl);
+        void onError(String errorMessage);
+
+        default void onProgress(int percent) {
+        }
+    }
+
+    // What is being uploaded and where the result goes
+    private static class PendingUpload {
+        String storagePath;
+        String filePath;
+        String collection;
+        String documentId;
+        String field;
+        String sessionUri;
+        // Set once the file is uploaded and only the document still needs updating
+        String downloadUrl;
+
+        JSONObject toJson() throws JSONException {
+            return new JSONObject()
+                    .put("storagePath", storagePath)
+                    .put("filePath", filePath)
+                    .put("collection", collection)
+                    .put("documentId", documentId)
+                    .put("field", field)
+                    .put("sessionUri", sessionUri)
+                    .put("downloadUrl", downloadUrl);
+        }
+
+        static PendingUpload fromJson(JSONObject json) {
+            PendingUpload upload = new PendingUpload();
+            upload.storagePath = json.optString("storagePath");
+            upload.filePath = json.optString("filePath");
+            upload.collection = json.optString("collection");
+            upload.documentId = json.optString("documentId");
+            upload.field = json.optString("field");
+            upload.sessionUri = json.isNull("sessionUri") ? null : json.optString("sessionUri", null);
+            upload.downloadUrl = json.isNull("downloadUrl") ? null : json.optString("downloadUrl", null);
+            return upload;
+        }
+    }
+
+    private ImageUploadService(Context context) {
+        this.context = context.getApplicationContext();
+        prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        storage = FirebaseStorage.getInstance();
+        db = FirebaseFirestore.getInstance();
+    }
+
+    public static synchronized ImageUploadService getInstance(Context context) {
+        if (instance == null) {
+            instance = new ImageUploadService(context);
+        }
+        return instance;
+    }
+
+    // Compress and upload the image at source, then set field on collection/documentId to
+    // its download URL. Callbacks arrive on the main thread.
+    public void uploadImage(final Uri source, String storagePath, String collection, String documentId,
+                            String field, final UploadCallback callback) {
+        final PendingUpload upload = newUpload(storagePath, collection, documentId, field);
+        executor.execute(() -> {
+            try {
+                ImageCompressor.compress(context, source, new File(upload.filePath),
+                        ImageCompressor.DEFAULT_MAX_LONG_EDGE, ImageCompressor.DEFAULT_MAX_BYTES);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error preparing image", e);
+                postError(callback, "Error preparing image: " + e.getMessage());
+                return;
+            }
+            start(upload, callback);
+        });
+    }
+
+    // Same as above for an image that is already in memory; the bitmap is recycled
+    public void uploadImage(final Bitmap bitmap, String storagePath, String collection, String documentId,
+                            String field, final UploadCallback callback) {
+        final PendingUpload upload = newUpload(storagePath, collection, documentId, field);
+        executor.execute(() -> {
+            try {
+                ImageCompressor.compress(bitmap, new File(upload.filePath),
+                        ImageCompressor.DEFAULT_MAX_LONG_EDGE, ImageCompressor.DEFAULT_MAX_BYTES);
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Error preparing image", e);
+                postError(callback, "Error preparing image: " + e.getMessage());
+                return;
+            }
+            start(upload, callback);
+        });
+    }
+
+    // Continue uploads interrupted by the process being killed, e.g. when the app starts
+    public void resumePendingUploads() {
+        executor.execute(() -> {
+            for (Map.Entry<String, ?> entry : prefs.getAll().entrySet()) {
+                if (activeUploads.contains(entry.getKey())) {
+                    continue;
+                }
+                try {
+                    PendingUpload upload = PendingUpload.fromJson(new JSONObject((String) entry.getValue()));
+                    if (upload.downloadUrl != null) {
+                        attachToDocument(upload, null);
+                        continue;
+                    }
+                    if (!new File(upload.filePath).exists()) {
+                        prefs.edit().remove(entry.getKey()).apply();
+                        continue;
+                    }
+                    Log.d(TAG, "Resuming upload of " + upload.storagePath);
+                    start(upload, null);
+                } catch (JSONException | ClassCastException e) {
+                    Log.w(TAG, "Dropping unreadable upload record " + entry.getKey(), e);
+                    prefs.edit().remove(entry.getKey()).apply();
+                }
+            }
+        });
+    }
+
+    private PendingUpload newUpload(String storagePath, String collection, String documentId, String field) {
+        File directory = new File(context.getFilesDir(), UPLOAD_DIR);
+        directory.mkdirs();
+
+        PendingUpload upload = new PendingUpload();
+        upload.storagePath = storagePath;
+        upload.filePath = new File(directory, storagePath.replace('/', '_')).getAbsolutePath();
+        upload.collection = collection;
+        upload.documentId = documentId;
+        upload.field = field;
+        return upload;
+    }
+
+    // Runs on the executor
+    private void start(final PendingUpload upload, final UploadCallback callback) {
+        activeUploads.add(upload.storagePath);
+        save(upload);
+
+        StorageReference reference = storage.getReference().child(upload.storagePath);
+        Uri file = Uri.fromFile(new File(upload.filePath));
+        StorageMetadata metadata = new StorageMetadata.Builder().setContentType("image/jpeg").build();
+        UploadTask task = upload.sessionUri != null
+                ? reference.putFile(file, metadata, Uri.parse(upload.sessionUri))
+                : reference.putFile(file, metadata);
+
+        task.addOnProgressListener(executor, snapshot -> {
+            // Remember the session as soon as it exists so a restart can resume it
+            if (upload.sessionUri == null && snapshot.getUploadSessionUri() != null) {
+                upload.sessionUri = snapshot.getUploadSessionUri().toString();
+                save(upload);
+            }
+            if (callback != null && snapshot.getTotalByteCount() > 0) {
+                final int percent = (int) (100 * snapshot.getBytesTransferred() / snapshot.getTotalByteCount());
+                mainHandler.post(() -> callback.onProgress(percent));
+            }
+        }).continueWithTask(executor, uploadTask -> {
+            if (!uploadTask.isSuccessful()) {
+                throw uploadTask.getException();
+            }
+            return reference.getDownloadUrl();
+        }).addOnCompleteListener(executor, urlTask -> {
+            activeUploads.remove(upload.storagePath);
+            if (!urlTask.isSuccessful()) {
+                Log.w(TAG, "Upload of " + upload.storagePath + " failed", urlTask.getException());
+                // The record stays, so the upload resumes on the next resumePendingUploads()
+                if (callback != null) {
+                    postError(callback, urlTask.getException() != null ? urlTask.getException().getMessage() : "Upload failed");
+                }
+                return;
+            }
+
+            upload.downloadUrl = urlTask.getResult().toString();
+            save(upload);
+            new File(upload.filePath).delete();
+            attachToDocument(upload, callback);
+        });
+    }
+
+    // update() rather than a merge: the document may still be waiting in the outbox, and
+    // writing the field first would create it, after which the outbox, which only creates,
+    // would skip the report itself. If the document is not there yet, the record stays and
+    // the next resumePendingUploads() tries again.
+    private void attachToDocument(final PendingUpload upload, final UploadCallback callback) {
+        activeUploads.add(upload.storagePath);
+        db.collection(upload.collection).document(upload.documentId)
+                .update(upload.field, upload.downloadUrl)
+                .addOnCompleteListener(executor, task -> {
+                    activeUploads.remove(upload.storagePath);
+                    if (!task.isSuccessful()) {
+                        Log.w(TAG, "Error attaching image to " + upload.documentId, task.getException());
+                        if (callback != null) {
+                            postError(callback, "Image uploaded but not yet attached to the report");
+                        }
+                        return;
+                    }
+                    prefs.edit().remove(upload.storagePath).apply();
+                    if (callback != null) {
+                        mainHandler.post(() -> callback.onSuccess(upload.downloadUrl));
+                    }
+                });
+    }
+
+    private void save(PendingUpload upload) {
+        try {
+            prefs.edit().putString(upload.storagePath, upload.toJson().toString()).apply();
+        } catch (JSONException e) {
+            Log.e(TAG, "Could not record upload " + upload.storagePath, e);
+        }
+    }
+
+    private void postError(final UploadCallback callback, final String errorMessage) {
+        mainHandler.post(() -> callback.onError(errorMessage));
+    }
+}
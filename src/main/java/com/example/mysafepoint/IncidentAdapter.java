@@ -1,11 +1,18 @@
 package com.example.mysafepoint.adapters;
 
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.cardview.widget.CardView;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.AsyncDifferConfig;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.mysafepoint.R;
@@ -14,21 +21,208 @@ import com.example.mysafepoint.utils.Constants;
 import com.google.android.material.chip.Chip;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 
-public class IncidentAdapter extends RecyclerView.Adapter<IncidentAdapter.IncidentViewHolder> {
+public class IncidentAdapter extends ListAdapter<IncidentAdapter.IncidentRow, IncidentAdapter.IncidentViewHolder> {
+
+    // Ask for the next page when the bound row is this close to the end of the list
+    private static final int LOAD_MORE_THRESHOLD = 5;
+    private static final int MAX_DESCRIPTION_LENGTH = 100;
+    // Rebind payload when only the selection state of a row changed
+    private static final Object PAYLOAD_SELECTION = new Object();
+
+    // Rows are built and list diffs computed off the main thread, so large lists never
+    // block scrolling. Everything below that is marked "executor only" is confined to it.
+    private static final Executor DIFF_EXECUTOR = Executors.newSingleThreadExecutor();
+
+    private static final DiffUtil.ItemCallback<IncidentRow> DIFF_CALLBACK = new DiffUtil.ItemCallback<IncidentRow>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull IncidentRow oldItem, @NonNull IncidentRow newItem) {
+            return oldItem.id == newItem.id;
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull IncidentRow oldItem, @NonNull IncidentRow newItem) {
+            return oldItem.statusColor == newItem.statusColor
+                    && Objects.equals(oldItem.status, newItem.status)
+                    && Objects.equals(oldItem.incidentType, newItem.incidentType)
+                    && Objects.equals(oldItem.userLine, newItem.userLine)
+                    && Objects.equals(oldItem.timestamp, newItem.timestamp)
+                    && Objects.equals(oldItem.description, newItem.description);
+        }
+    };
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Executor only
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("MMM dd, yyyy HH:mm", Locale.getDefault());
+    // Executor only: the last row built for each report ID shown, which also holds the
+    // stable ID handed out for it. Reports that drop out of the list are forgotten, so this
+    // never grows past the list; one that comes back gets a new ID.
+    private Map<String, IncidentRow> rowCache = new HashMap<>();
+    private long nextStableId;
 
-    private List<IncidentReport> incidentList;
     private IncidentItemClickListener listener;
+    private OnLoadMoreListener loadMoreListener;
+    // Report IDs of the selected rows; while non-empty, a click toggles selection instead
+    private final Set<String> selectedIds = new HashSet<>();
 
     public interface IncidentItemClickListener {
         void onItemClick(IncidentReport incident, int position);
+
+        // Return true if the long press was handled
+        default boolean onItemLongClick(IncidentReport incident, int position) {
+            return false;
+        }
+    }
+
+    public interface OnLoadMoreListener {
+        void onLoadMore();
+    }
+
+    // Everything a row shows, formatted ahead of time so binding only sets text
+    public static class IncidentRow {
+        final long id;
+        final IncidentReport incident;
+        final String incidentType;
+        final String userLine;
+        final String timestamp;
+        final String description;
+        final String status;
+        final int statusColor;
+        // What the row was built from, to tell whether a new report object needs a new row
+        private final String sourceUserName;
+        private final String sourceDescription;
+        private final Date sourceTimestamp;
+
+        IncidentRow(long id, IncidentReport incident, SimpleDateFormat dateFormat) {
+            this.id = id;
+            this.incident = incident;
+            incidentType = incident.getIncidentType();
+            sourceUserName = incident.getUserFullName();
+            userLine = "From: " + sourceUserName;
+            sourceTimestamp = incident.getTimestamp();
+            timestamp = sourceTimestamp != null ? dateFormat.format(sourceTimestamp) : "";
+            sourceDescription = incident.getDescription();
+            description = truncate(sourceDescription);
+            status = incident.getStatus();
+            statusColor = colorForStatus(status);
+        }
+
+        private IncidentRow(IncidentRow row, IncidentReport incident) {
+            id = row.id;
+            this.incident = incident;
+            incidentType = row.incidentType;
+            userLine = row.userLine;
+            timestamp = row.timestamp;
+            description = row.description;
+            status = row.status;
+            statusColor = row.statusColor;
+            sourceUserName = row.sourceUserName;
+            sourceDescription = row.sourceDescription;
+            sourceTimestamp = row.sourceTimestamp;
+        }
+
+        public IncidentReport getIncident() {
+            return incident;
+        }
+
+        boolean isFor(IncidentReport incident) {
+            return Objects.equals(incidentType, incident.getIncidentType())
+                    && Objects.equals(sourceUserName, incident.getUserFullName())
+                    && Objects.equals(sourceTimestamp, incident.getTimestamp())
+                    && Objects.equals(sourceDescription, incident.getDescription())
+                    && Objects.equals(status, incident.getStatus());
+        }
     }
 
-    public IncidentAdapter(List<IncidentReport> incidentList, IncidentItemClickListener listener) {
-        this.incidentList = incidentList;
+    public IncidentAdapter(IncidentItemClickListener listener) {
+        super(new AsyncDifferConfig.Builder<>(DIFF_CALLBACK)
+                .setBackgroundThreadExecutor(DIFF_EXECUTOR)
+                .build());
         this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    public void setOnLoadMoreListener(OnLoadMoreListener loadMoreListener) {
+        this.loadMoreListener = loadMoreListener;
+    }
+
+    // Show a new list; only the rows that differ from the current list are rebound.
+    // The list is copied so later changes by the caller do not race the row builder.
+    public void setIncidents(List<IncidentReport> incidents) {
+        final List<IncidentReport> snapshot = new ArrayList<>(incidents);
+        DIFF_EXECUTOR.execute(() -> {
+            final List<IncidentRow> rows = buildRows(snapshot);
+            mainHandler.post(() -> submitList(rows));
+        });
+    }
+
+    // Executor only. Rows for reports that have not changed are reused, so an update to a
+    // long list only formats the rows that actually changed.
+    private List<IncidentRow> buildRows(List<IncidentReport> incidents) {
+        List<IncidentRow> rows = new ArrayList<>(incidents.size());
+        Map<String, IncidentRow> cache = new HashMap<>(incidents.size() * 2);
+        for (IncidentReport incident : incidents) {
+            String reportId = incident.getReportId();
+            IncidentRow row = rowCache.get(reportId);
+            if (row == null) {
+                row = new IncidentRow(nextStableId++, incident, dateFormat);
+            } else if (!row.isFor(incident)) {
+                row = new IncidentRow(row.id, incident, dateFormat);
+            } else if (row.incident != incident) {
+                // Same content from a newer snapshot; keep the text, point at the new object
+                row = new IncidentRow(row, incident);
+            }
+            rows.add(row);
+            cache.put(reportId, row);
+        }
+        rowCache = cache;
+        return rows;
+    }
+
+    public boolean isSelectionMode() {
+        return !selectedIds.isEmpty();
+    }
+
+    public void toggleSelection(int position) {
+        String reportId = getItem(position).incident.getReportId();
+        if (!selectedIds.remove(reportId)) {
+            selectedIds.add(reportId);
+        }
+        notifyItemChanged(position, PAYLOAD_SELECTION);
+    }
+
+    // Select every row currently shown
+    public void selectAll() {
+        for (IncidentRow row : getCurrentList()) {
+            selectedIds.add(row.incident.getReportId());
+        }
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+    }
+
+    public void clearSelection() {
+        selectedIds.clear();
+        notifyItemRangeChanged(0, getItemCount(), PAYLOAD_SELECTION);
+    }
+
+    // Selected report IDs; may include rows that are no longer shown
+    public Set<String> getSelectedIds() {
+        return new HashSet<>(selectedIds);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).id;
     }
 
     @NonNull
@@ -39,14 +233,42 @@ public class IncidentAdapter extends RecyclerView.Adapter<IncidentAdapter.Incide
     }
 
     @Override
-    public void onBindViewHolder(@NonNull IncidentViewHolder holder, int position) {
-        IncidentReport incident = incidentList.get(position);
-        holder.bind(incident, position);
+    public void onBindViewHolder(@NonNull IncidentViewHolder holder, int position, @NonNull List<Object> payloads) {
+        if (!payloads.isEmpty() && payloads.get(0) == PAYLOAD_SELECTION) {
+            holder.bindSelection(getItem(position));
+            return;
+        }
+        onBindViewHolder(holder, position);
     }
 
     @Override
-    public int getItemCount() {
-        return incidentList.size();
+    public void onBindViewHolder(@NonNull IncidentViewHolder holder, int position) {
+        holder.bind(getItem(position));
+
+        if (loadMoreListener != null && position >= getItemCount() - LOAD_MORE_THRESHOLD) {
+            loadMoreListener.onLoadMore();
+        }
+    }
+
+    private static String truncate(String description) {
+        if (description == null) {
+            return "";
+        }
+        if (description.length() > MAX_DESCRIPTION_LENGTH) {
+            return description.substring(0, MAX_DESCRIPTION_LENGTH - 3) + "...";
+        }
+        return description;
+    }
+
+    private static int colorForStatus(String status) {
+        if (Constants.INCIDENT_STATUS_PENDING.equals(status)) {
+            return R.color.colorWarning;
+        } else if (Constants.INCIDENT_STATUS_IN_PROGRESS.equals(status)) {
+            return R.color.colorInfo;
+        } else if (Constants.INCIDENT_STATUS_RESOLVED.equals(status)) {
+            return R.color.colorSuccess;
+        }
+        return 0;
     }
 
     class IncidentViewHolder extends RecyclerView.ViewHolder {
@@ -60,41 +282,38 @@ public class IncidentAdapter extends RecyclerView.Adapter<IncidentAdapter.Incide
             tvTimestamp = itemView.findViewById(R.id.tvTimestamp);
             tvDescription = itemView.findViewById(R.id.tvDescription);
             chipStatus = itemView.findViewById(R.id.chipStatus);
-        }
-
-        public void bind(IncidentReport incident, int position) {
-            tvIncidentType.setText(incident.getIncidentType());
-            tvUserName.setText("From: " + incident.getUserFullName());
-
-            // Format timestamp
-            SimpleDateFormat sdf = new SimpleDateFormat("MMM dd, yyyy HH:mm", Locale.getDefault());
-            tvTimestamp.setText(sdf.format(incident.getTimestamp()));
 
-            // Set description (truncate if too long)
-            String description = incident.getDescription();
-            if (description.length() > 100) {
-                description = description.substring(0, 97) + "...";
-            }
-            tvDescription.setText(description);
-
-            // Set status chip
-            String status = incident.getStatus();
-            chipStatus.setText(status);
-
-            if (Constants.INCIDENT_STATUS_PENDING.equals(status)) {
-                chipStatus.setChipBackgroundColorResource(R.color.colorWarning);
-            } else if (Constants.INCIDENT_STATUS_IN_PROGRESS.equals(status)) {
-                chipStatus.setChipBackgroundColorResource(R.color.colorInfo);
-            } else if (Constants.INCIDENT_STATUS_RESOLVED.equals(status)) {
-                chipStatus.setChipBackgroundColorResource(R.color.colorSuccess);
-            }
-
-            // Set click listener
+            // One listener per holder; the row is looked up when clicked, so it is always
+            // the one currently shown even after items have moved
             itemView.setOnClickListener(v -> {
-                if (listener != null) {
-                    listener.onItemClick(incident, position);
+                int position = getBindingAdapterPosition();
+                if (listener != null && position != RecyclerView.NO_POSITION) {
+                    listener.onItemClick(getItem(position).incident, position);
                 }
             });
+            itemView.setOnLongClickListener(v -> {
+                int position = getBindingAdapterPosition();
+                return listener != null && position != RecyclerView.NO_POSITION
+                        && listener.onItemLongClick(getItem(position).incident, position);
+            });
+        }
+
+        void bind(IncidentRow row) {
+            tvIncidentType.setText(row.incidentType);
+            tvUserName.setText(row.userLine);
+            tvTimestamp.setText(row.timestamp);
+            tvDescription.setText(row.description);
+            chipStatus.setText(row.status);
+            // Unknown statuses get the neutral colour rather than whatever the recycled view had
+            chipStatus.setChipBackgroundColorResource(row.statusColor != 0 ? row.statusColor : R.color.colorGray);
+            bindSelection(row);
+        }
+
+        void bindSelection(IncidentRow row) {
+            boolean selected = selectedIds.contains(row.incident.getReportId());
+            ((CardView) itemView).setCardBackgroundColor(ContextCompat.getColor(itemView.getContext(),
+                    selected ? R.color.colorLightGray : R.color.white));
+            itemView.setActivated(selected);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,158 @@
+package com.example.mysafepoint.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.android.gms.maps.model.LatLngBounds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Grid clustering of incident points for the map. Points visible on screen are copied out
+// of the spatial index and bucketed into fixed-size screen cells (in Web Mercator space at
+// the current zoom), so the number of markers is bounded by the size of the screen rather
+// than by the number of incidents. Clustering runs on a background thread, outside the
+// index's lock so stream updates on the main thread never wait for it; only the newest
+// request is delivered.
+public class IncidentClusterer {
+    // Cell size in dp; the map's world is 256dp wide at zoom 0
+    public static final int DEFAULT_CELL_SIZE_DP = 64;
+    private static final double WORLD_SIZE_DP = 256;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final AtomicInteger generation = new AtomicInteger();
+
+    private final SpatialIncidentIndex index;
+
+    public interface ClusterCallback {
+        void onClustersReady(List<Cluster> clusters);
+    }
+
+    public static class Cluster {
+        // Stable while the camera stays at the same zoom, so markers can be moved in place
+        public final String key;
+        public final double latitude;
+        public final double longitude;
+        public final int size;
+        // Set only for single-incident clusters
+        public final String incidentId;
+
+        Cluster(String key, double latitude, double longitude, int size, String incidentId) {
+            this.key = key;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.size = size;
+            this.incidentId = incidentId;
+        }
+    }
+
+    public IncidentClusterer(SpatialIncidentIndex index) {
+        this.index = index;
+    }
+
+    // Cluster the points inside the visible bounds. The callback runs on the main thread,
+    // and is skipped if a newer request was made in the meantime.
+    public void cluster(final LatLngBounds bounds, final float zoom, final int cellSizeDp, final ClusterCallback callback) {
+        final int requestGeneration = generation.incrementAndGet();
+
+        executor.execute(() -> {
+            if (requestGeneration != generation.get()) {
+                return;
+            }
+            final List<Cluster> clusters = computeClusters(index, bounds, zoom, cellSizeDp);
+            mainHandler.post(() -> {
+                if (requestGeneration == generation.get()) {
+                    callback.onClustersReady(clusters);
+                }
+            });
+        });
+    }
+
+    public void shutdown() {
+        generation.incrementAndGet();
+        executor.shutdownNow();
+    }
+
+    static List<Cluster> computeClusters(SpatialIncidentIndex index, LatLngBounds bounds, float zoom, int cellSizeDp) {
+        // Whole zoom levels keep cell keys stable across small pinch adjustments
+        CellAccumulator cells = new CellAccumulator(WORLD_SIZE_DP * Math.pow(2, Math.floor(zoom)) / cellSizeDp);
+        SpatialIncidentIndex.Points points = index.snapshotInBounds(bounds.southwest.latitude,
+                bounds.southwest.longitude, bounds.northeast.latitude, bounds.northeast.longitude);
+        for (int i = 0; i < points.size; i++) {
+            cells.visit(points.ids[i], points.latitudes[i], points.longitudes[i]);
+        }
+        return cells.toClusters();
+    }
+
+    // Per-cell sums in parallel arrays, indexed through the cell map
+    private static class CellAccumulator {
+        private final double cellsPerWorld;
+        private final Map<Long, Integer> cellIndex = new HashMap<>();
+        private int capacity = 64;
+        private long[] cells = new long[capacity];
+        private double[] sumLat = new double[capacity];
+        private double[] sumLng = new double[capacity];
+        private int[] counts = new int[capacity];
+        private String[] firstIds = new String[capacity];
+        private int cellCount = 0;
+
+        CellAccumulator(double cellsPerWorld) {
+            this.cellsPerWorld = cellsPerWorld;
+        }
+
+        void visit(String id, double latitude, double longitude) {
+            long cellX = (long) (mercatorX(longitude) * cellsPerWorld);
+            long cellY = (long) (mercatorY(latitude) * cellsPerWorld);
+            long cell = (cellX << 32) | (cellY & 0xffffffffL);
+
+            Integer index = cellIndex.get(cell);
+            if (index == null) {
+                if (cellCount == capacity) {
+                    capacity *= 2;
+                    cells = Arrays.copyOf(cells, capacity);
+                    sumLat = Arrays.copyOf(sumLat, capacity);
+                    sumLng = Arrays.copyOf(sumLng, capacity);
+                    counts = Arrays.copyOf(counts, capacity);
+                    firstIds = Arrays.copyOf(firstIds, capacity);
+                }
+                index = cellCount++;
+                cellIndex.put(cell, index);
+                cells[index] = cell;
+                firstIds[index] = id;
+            }
+            sumLat[index] += latitude;
+            sumLng[index] += longitude;
+            counts[index]++;
+        }
+
+        List<Cluster> toClusters() {
+            List<Cluster> clusters = new ArrayList<>(cellCount);
+            for (int c = 0; c < cellCount; c++) {
+                if (counts[c] == 1) {
+                    clusters.add(new Cluster("incident:" + firstIds[c], sumLat[c], sumLng[c], 1, firstIds[c]));
+                } else {
+                    clusters.add(new Cluster("cell:" + (cells[c] >> 32) + ":" + (int) cells[c],
+                            sumLat[c] / counts[c], sumLng[c] / counts[c], counts[c], null));
+                }
+            }
+            return clusters;
+        }
+    }
+
+    // Web Mercator projection to [0, 1)
+    private static double mercatorX(double longitude) {
+        return (longitude + 180) / 360;
+    }
+
+    private static double mercatorY(double latitude) {
+        double sin = Math.sin(Math.toRadians(Math.max(-85.05112878, Math.min(85.05112878, latitude))));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+}
@@ -20,8 +20,10 @@ import com.example.mysafepoint.services.FirebaseIncidentService;
 import com.example.mysafepoint.utils.Constants;
 import com.google.android.material.chip.Chip;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
+import com.google.firebase.firestore.ListenerRegistration;
 
 import java.text.SimpleDateFormat;
+import java.util.List;
 import java.util.Locale;
 
 public class IncidentDetailsActivity extends AppCompatActivity {
@@ -35,6 +37,8 @@ public class IncidentDetailsActivity extends AppCompatActivity {
     private FirebaseIncidentService incidentService;
     private String incidentId;
     private IncidentReport currentIncident;
+    // Keeps the shown incident current while the screen is visible
+    private ListenerRegistration incidentListener;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -73,53 +77,57 @@ public class IncidentDetailsActivity extends AppCompatActivity {
             return;
         }
 
-        // Load incident details
-        loadIncidentDetails();
+        progressBar.setVisibility(View.VISIBLE);
 
         // Setup buttons
-        btnViewMap.setOnClickListener(v -> openMap());
-        btnUpdateStatus.setOnClickListener(v -> showUpdateStatusDialog());
-        btnCallUser.setOnClickListener(v -> callUser());
+        // Nothing to act on until the incident has loaded
+        btnViewMap.setOnClickListener(v -> {
+            if (currentIncident != null) {
+                openMap();
+            }
+        });
+        btnUpdateStatus.setOnClickListener(v -> {
+            if (currentIncident != null) {
+                showUpdateStatusDialog();
+            }
+        });
+        btnCallUser.setOnClickListener(v -> {
+            if (currentIncident != null) {
+                callUser();
+            }
+        });
     }
 
-    private void loadIncidentDetails() {
-        progressBar.setVisibility(View.VISIBLE);
-
-        incidentService.getAllIncidents(new FirebaseIncidentService.IncidentsCallback() {
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // A cached copy paints at once and is then replaced by the live document
+        incidentListener = incidentService.listenToIncident(incidentId, new FirebaseIncidentService.IncidentCallback() {
             @Override
-            public void onSuccess(List<IncidentReport> incidents) {
-                for (IncidentReport incident : incidents) {
-                    if (incidentId.equals(incident.getReportId())) {
-                        currentIncident = incident;
-                        break;
-                    }
-                }
-
-                if (currentIncident != null) {
-                    runOnUiThread(() -> {
-                        displayIncidentDetails();
-                        progressBar.setVisibility(View.GONE);
-                    });
-                } else {
-                    runOnUiThread(() -> {
-                        Toast.makeText(IncidentDetailsActivity.this, "Incident not found", Toast.LENGTH_SHORT).show();
-                        progressBar.setVisibility(View.GONE);
-                        finish();
-                    });
-                }
+            public void onSuccess(IncidentReport incident) {
+                currentIncident = incident;
+                displayIncidentDetails();
+                progressBar.setVisibility(View.GONE);
             }
 
             @Override
             public void onError(String errorMessage) {
-                runOnUiThread(() -> {
-                    Toast.makeText(IncidentDetailsActivity.this, "Error loading incident: " + errorMessage, Toast.LENGTH_SHORT).show();
-                    progressBar.setVisibility(View.GONE);
-                    finish();
-                });
+                Toast.makeText(IncidentDetailsActivity.this, "Error loading incident: " + errorMessage, Toast.LENGTH_SHORT).show();
+                progressBar.setVisibility(View.GONE);
+                finish();
             }
         });
     }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        if (incidentListener != null) {
+            incidentListener.remove();
+            incidentListener = null;
+        }
+    }
+
     private void displayIncidentDetails() {
         tvIncidentType.setText(currentIncident.getIncidentType());
         tvUserName.setText(currentIncident.getUserFullName());
@@ -199,26 +207,39 @@ public class IncidentDetailsActivity extends AppCompatActivity {
             return; // No change
         }
 
-        progressBar.setVisibility(View.VISIBLE);
+        // Shown straight away; put back if the server rejects it
+        incidentService.updateIncidentStatusOptimistic(currentIncident, newStatus, new FirebaseIncidentService.StatusUpdateListener() {
+            private IncidentReport applied;
 
-        incidentService.updateIncidentStatus(incidentId, newStatus, new FirebaseIncidentService.IncidentCallback() {
             @Override
-            public void onSuccess(IncidentReport incident) {
-                currentIncident = incident;
+            public void onApplied(List<IncidentReport> incidents) {
+                if (incidents.isEmpty()) {
+                    return;
+                }
+                applied = incidents.get(0);
+                currentIncident = applied;
+                displayIncidentDetails();
+            }
 
-                runOnUiThread(() -> {
-                    displayIncidentDetails();
-                    Toast.makeText(IncidentDetailsActivity.this, "Status updated successfully", Toast.LENGTH_SHORT).show();
-                    progressBar.setVisibility(View.GONE);
-                });
+            @Override
+            public void onCommitted(List<IncidentReport> incidents) {
+                if (isFinishing()) {
+                    return;
+                }
+                Toast.makeText(IncidentDetailsActivity.this, "Status updated successfully", Toast.LENGTH_SHORT).show();
             }
 
             @Override
-            public void onError(String errorMessage) {
-                runOnUiThread(() -> {
-                    Toast.makeText(IncidentDetailsActivity.this, "Error updating status: " + errorMessage, Toast.LENGTH_SHORT).show();
-                    progressBar.setVisibility(View.GONE);
-                });
+            public void onRolledBack(List<IncidentReport> incidents, String errorMessage) {
+                if (isFinishing()) {
+                    return;
+                }
+                // Unless a reload has replaced it since
+                if (currentIncident == applied) {
+                    currentIncident = incidents.get(0);
+                    displayIncidentDetails();
+                }
+                Toast.makeText(IncidentDetailsActivity.this, "Error updating status: " + errorMessage, Toast.LENGTH_SHORT).show();
             }
         });
     }
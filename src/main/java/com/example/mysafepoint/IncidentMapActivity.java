@@ -0,0 +1,242 @@
+package com.example.mysafepoint.activities;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.MenuItem;
+import android.widget.Toast;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+
+import com.example.mysafepoint.R;
+import com.example.mysafepoint.models.IncidentReport;
+import com.example.mysafepoint.services.FirebaseIncidentService;
+import com.example.mysafepoint.utils.IncidentClusterer;
+import com.example.mysafepoint.utils.MarkerRegistry;
+import com.example.mysafepoint.utils.SpatialIncidentIndex;
+import com.google.android.gms.maps.CameraUpdateFactory;
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.OnMapReadyCallback;
+import com.google.android.gms.maps.SupportMapFragment;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.BitmapDescriptorFactory;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.HashSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Admin map of all incidents. Incidents are clustered on a grid off the main thread each
+// time the camera settles, so only a screenful of markers is ever on the map.
+public class IncidentMapActivity extends AppCompatActivity implements OnMapReadyCallback {
+
+    private Toolbar toolbar;
+    private GoogleMap mMap;
+
+    private FirebaseIncidentService incidentService;
+    private ListenerRegistration incidentStream;
+
+    private MarkerRegistry markerRegistry;
+    // All incidents with a location, keyed by report ID, plus their positions indexed
+    // by area; both are kept in step with the stream
+    private final Map<String, IncidentReport> incidents = new HashMap<>();
+    private final SpatialIncidentIndex incidentIndex = new SpatialIncidentIndex();
+    private final IncidentClusterer clusterer = new IncidentClusterer(incidentIndex);
+
+    private BitmapDescriptor incidentIcon;
+    private BitmapDescriptor clusterIcon;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_incident_map);
+
+        // Setup toolbar
+        toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        if (getSupportActionBar() != null) {
+            getSupportActionBar().setTitle("Incident Map");
+            getSupportActionBar().setDisplayHomeAsUpEnabled(true);
+        }
+
+        incidentService = new FirebaseIncidentService();
+
+        SupportMapFragment mapFragment = (SupportMapFragment) getSupportFragmentManager().findFragmentById(R.id.map);
+        if (mapFragment != null) {
+            mapFragment.getMapAsync(this);
+        }
+    }
+
+    @Override
+    public void onMapReady(GoogleMap googleMap) {
+        mMap = googleMap;
+        markerRegistry = new MarkerRegistry(mMap);
+        incidentIcon = BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED);
+        clusterIcon = BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_ORANGE);
+
+        // Recluster only once the camera settles, never during a pan or zoom
+        mMap.setOnCameraIdleListener(this::refreshClusters);
+        mMap.setOnMarkerClickListener(this::onMarkerClick);
+
+        startIncidentStream();
+    }
+
+    private void startIncidentStream() {
+        if (incidentStream != null || mMap == null) {
+            return;
+        }
+
+        incidentStream = incidentService.listenToIncidents(null, 0, new FirebaseIncidentService.IncidentStreamListener() {
+            @Override
+            public void onInitial(List<IncidentReport> loaded, DocumentSnapshot last, boolean hasMore) {
+                incidents.clear();
+                incidentIndex.clear();
+                for (IncidentReport incident : loaded) {
+                    putIncident(incident);
+                }
+
+                // Frame the newest incident the first time the map is shown
+                if (!loaded.isEmpty() && mMap.getCameraPosition().zoom < 5) {
+                    IncidentReport newest = loaded.get(0);
+                    mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(
+                            new LatLng(newest.getLatitude(), newest.getLongitude()), 11));
+                } else {
+                    refreshClusters();
+                }
+            }
+
+            @Override
+            public void onChanges(List<IncidentReport> added, List<IncidentReport> modified, List<IncidentReport> removed) {
+                for (IncidentReport incident : removed) {
+                    removeIncident(incident.getReportId());
+                }
+                for (IncidentReport incident : modified) {
+                    putIncident(incident);
+                }
+                for (IncidentReport incident : added) {
+                    putIncident(incident);
+                }
+                refreshClusters();
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                Toast.makeText(IncidentMapActivity.this, "Failed to load incidents: " + errorMessage, Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void stopIncidentStream() {
+        if (incidentStream != null) {
+            incidentStream.remove();
+            incidentStream = null;
+        }
+    }
+
+    private void putIncident(IncidentReport incident) {
+        if (incident.getReportId() == null) {
+            return;
+        }
+        // Reports saved without a fix have 0,0 and are left off the map
+        if (incident.getLatitude() == 0 && incident.getLongitude() == 0) {
+            removeIncident(incident.getReportId());
+            return;
+        }
+        incidents.put(incident.getReportId(), incident);
+        incidentIndex.put(incident.getReportId(), incident.getLatitude(), incident.getLongitude());
+    }
+
+    private void removeIncident(String reportId) {
+        incidents.remove(reportId);
+        incidentIndex.remove(reportId);
+    }
+
+    private void refreshClusters() {
+        if (mMap == null) {
+            return;
+        }
+
+        clusterer.cluster(mMap.getProjection().getVisibleRegion().latLngBounds, mMap.getCameraPosition().zoom,
+                IncidentClusterer.DEFAULT_CELL_SIZE_DP, this::showClusters);
+    }
+
+    // Move markers that are still needed, add new ones and remove the rest
+    private void showClusters(List<IncidentClusterer.Cluster> clusters) {
+        if (mMap == null || isFinishing()) {
+            return;
+        }
+
+        Set<String> keys = new HashSet<>();
+        for (IncidentClusterer.Cluster cluster : clusters) {
+            keys.add(cluster.key);
+
+            LatLng position = new LatLng(cluster.latitude, cluster.longitude);
+            Marker marker;
+            if (cluster.incidentId != null) {
+                IncidentReport incident = incidents.get(cluster.incidentId);
+                String title = incident != null ? incident.getIncidentType() : "Incident";
+                String snippet = incident != null ? incident.getStatus() : null;
+                marker = markerRegistry.put(cluster.key, position, title, snippet, incidentIcon);
+            } else {
+                marker = markerRegistry.put(cluster.key, position, cluster.size + " incidents", "Tap to zoom in", clusterIcon);
+            }
+            if (marker != null) {
+                // Remember what the marker stands for when it is tapped
+                marker.setTag(cluster);
+            }
+        }
+        markerRegistry.retainOnly(keys);
+    }
+
+    private boolean onMarkerClick(Marker marker) {
+        if (!(marker.getTag() instanceof IncidentClusterer.Cluster)) {
+            return false;
+        }
+        IncidentClusterer.Cluster cluster = (IncidentClusterer.Cluster) marker.getTag();
+
+        if (cluster.incidentId != null) {
+            // Open incident details activity
+            Intent intent = new Intent(this, IncidentDetailsActivity.class);
+            intent.putExtra("incidentId", cluster.incidentId);
+            startActivity(intent);
+        } else {
+            mMap.animateCamera(CameraUpdateFactory.newLatLngZoom(
+                    new LatLng(cluster.latitude, cluster.longitude), mMap.getCameraPosition().zoom + 2));
+        }
+        return true;
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        // Keep incidents live while visible
+        startIncidentStream();
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        stopIncidentStream();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        clusterer.shutdown();
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == android.R.id.home) {
+            finish();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+}
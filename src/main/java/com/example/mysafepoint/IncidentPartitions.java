@@ -0,0 +1,151 @@
+package com.example.mysafepoint.utils;
+
+import com.example.mysafepoint.models.IncidentReport;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Loaded incidents kept as one list for "all" plus one per INCIDENT_STATUS_*, each ordered
+// newest first. Changes are applied to every list they affect as they arrive, so showing a
+// status is a lookup instead of a filter over everything. A report object must not be
+// changed once it is in here; a change comes in as a new object through put(). Not
+// thread-safe; use from the main thread.
+public class IncidentPartitions {
+    // Newest first, undated last; ties broken by ID so every incident has one exact position
+    private static final Comparator<IncidentReport> NEWEST_FIRST = (a, b) -> {
+        if (a.getTimestamp() == null || b.getTimestamp() == null) {
+            if (a.getTimestamp() != b.getTimestamp()) {
+                return a.getTimestamp() == null ? 1 : -1;
+            }
+        } else {
+            int byTime = b.getTimestamp().compareTo(a.getTimestamp());
+            if (byTime != 0) {
+                return byTime;
+            }
+        }
+        return compareIds(a.getReportId(), b.getReportId());
+    };
+
+    private final List<IncidentReport> all = new ArrayList<>();
+    private final Map<String, List<IncidentReport>> byStatus = new HashMap<>();
+    private final Map<String, IncidentReport> byId = new HashMap<>();
+
+    public IncidentPartitions() {
+        byStatus.put(Constants.INCIDENT_STATUS_PENDING, new ArrayList<>());
+        byStatus.put(Constants.INCIDENT_STATUS_IN_PROGRESS, new ArrayList<>());
+        byStatus.put(Constants.INCIDENT_STATUS_RESOLVED, new ArrayList<>());
+    }
+
+    // Incidents with the given status, or all of them for null. The list is live and
+    // read-only; copy it before handing it to another thread.
+    public List<IncidentReport> get(String status) {
+        if (status == null) {
+            return Collections.unmodifiableList(all);
+        }
+        List<IncidentReport> partition = byStatus.get(status);
+        return partition != null ? Collections.unmodifiableList(partition) : Collections.emptyList();
+    }
+
+    public IncidentReport find(String reportId) {
+        return byId.get(reportId);
+    }
+
+    public boolean contains(String reportId) {
+        return byId.containsKey(reportId);
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    // Add an incident, or replace the one with the same ID, moving it between status lists
+    // if its status changed
+    public void put(IncidentReport incident) {
+        String reportId = incident.getReportId();
+        if (reportId == null) {
+            return;
+        }
+
+        IncidentReport previous = byId.get(reportId);
+        if (previous != null) {
+            if (NEWEST_FIRST.compare(previous, incident) == 0) {
+                // Same position; swap the object in place
+                replace(all, previous, incident);
+                String oldStatus = previous.getStatus();
+                if (equal(oldStatus, incident.getStatus())) {
+                    replace(byStatus.get(oldStatus), previous, incident);
+                } else {
+                    removeFrom(byStatus.get(oldStatus), previous);
+                    insertInto(byStatus.get(incident.getStatus()), incident);
+                }
+                byId.put(reportId, incident);
+                return;
+            }
+            remove(reportId);
+        }
+
+        insertInto(all, incident);
+        insertInto(byStatus.get(incident.getStatus()), incident);
+        byId.put(reportId, incident);
+    }
+
+    public void remove(String reportId) {
+        IncidentReport previous = byId.remove(reportId);
+        if (previous == null) {
+            return;
+        }
+        removeFrom(all, previous);
+        removeFrom(byStatus.get(previous.getStatus()), previous);
+    }
+
+    public void clear() {
+        all.clear();
+        for (List<IncidentReport> partition : byStatus.values()) {
+            partition.clear();
+        }
+        byId.clear();
+    }
+
+    private static void insertInto(List<IncidentReport> list, IncidentReport incident) {
+        if (list == null) {
+            return;
+        }
+        int index = Collections.binarySearch(list, incident, NEWEST_FIRST);
+        list.add(index < 0 ? -index - 1 : index, incident);
+    }
+
+    private static void removeFrom(List<IncidentReport> list, IncidentReport incident) {
+        if (list == null) {
+            return;
+        }
+        int index = Collections.binarySearch(list, incident, NEWEST_FIRST);
+        if (index >= 0) {
+            list.remove(index);
+        }
+    }
+
+    private static void replace(List<IncidentReport> list, IncidentReport previous, IncidentReport incident) {
+        if (list == null) {
+            return;
+        }
+        int index = Collections.binarySearch(list, previous, NEWEST_FIRST);
+        if (index >= 0) {
+            list.set(index, incident);
+        }
+    }
+
+    private static int compareIds(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : 1) : -1;
+        }
+        return a.compareTo(b);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -1,5 +1,7 @@
 package com.example.mysafepoint.models;
 
+import com.example.mysafepoint.utils.GeohashUtils;
+
 import java.io.Serializable;
 import java.util.Date;
 import java.util.HashMap;
@@ -38,6 +40,21 @@ public class IncidentReport implements Serializable {
         this.status = "pending";
     }
 
+    // Copy of another report, so it can be changed without touching objects shared elsewhere
+    public IncidentReport(IncidentReport other) {
+        this.reportId = other.reportId;
+        this.userId = other.userId;
+        this.userFullName = other.userFullName;
+        this.userPhoneNumber = other.userPhoneNumber;
+        this.incidentType = other.incidentType;
+        this.description = other.description;
+        this.location = other.location;
+        this.latitude = other.latitude;
+        this.longitude = other.longitude;
+        this.timestamp = other.timestamp;
+        this.status = other.status;
+    }
+
     // Convert IncidentReport object to Map for Firebase
     public Map<String, Object> toMap() {
         Map<String, Object> map = new HashMap<>();
@@ -50,6 +67,7 @@ public class IncidentReport implements Serializable {
         map.put("location", location);
         map.put("latitude", latitude);
         map.put("longitude", longitude);
+        map.put("geohash", getGeohash());
         map.put("timestamp", timestamp);
         map.put("status", status);
         return map;
@@ -128,6 +146,16 @@ public class IncidentReport implements Serializable {
         this.longitude = longitude;
     }
 
+    // Derived from latitude/longitude and stored so nearby documents can be found with
+    // geohash prefix queries
+    public String getGeohash() {
+        return GeohashUtils.encode(latitude, longitude, GeohashUtils.PRECISION_STORED);
+    }
+
+    public void setGeohash(String geohash) {
+        // Always recomputed from the coordinates
+    }
+
     public Date getTimestamp() {
         return timestamp;
     }
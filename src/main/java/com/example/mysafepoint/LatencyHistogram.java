@@ -0,0 +1,81 @@
+package com.example.mysafepoint.utils;
+
+import java.util.Locale;
+
+// Fixed-bucket latency histogram for measuring app-level operations on a device.
+// Recording is cheap (no allocation) so it can sit on hot paths like the SOS flow.
+public class LatencyHistogram {
+    // Upper bounds of each bucket in milliseconds; the last bucket holds everything above
+    private static final long[] BUCKET_BOUNDS_MS = {10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final String name;
+    private final long[] counts = new long[BUCKET_BOUNDS_MS.length + 1];
+    private long totalCount;
+    private long totalMs;
+    private long maxMs;
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public synchronized void record(long latencyMs) {
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS_MS.length && latencyMs > BUCKET_BOUNDS_MS[bucket]) {
+            bucket++;
+        }
+        counts[bucket]++;
+        totalCount++;
+        totalMs += latencyMs;
+        if (latencyMs > maxMs) {
+            maxMs = latencyMs;
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public synchronized long getCount() {
+        return totalCount;
+    }
+
+    public synchronized long getMeanMs() {
+        return totalCount == 0 ? 0 : totalMs / totalCount;
+    }
+
+    public synchronized long getMaxMs() {
+        return maxMs;
+    }
+
+    // Upper bound of the bucket holding the given percentile (0-100), or the max if it
+    // falls in the overflow bucket
+    public synchronized long getPercentileMs(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(totalCount * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return i < BUCKET_BOUNDS_MS.length ? Math.min(BUCKET_BOUNDS_MS[i], maxMs) : maxMs;
+            }
+        }
+        return maxMs;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        totalCount = 0;
+        totalMs = 0;
+        maxMs = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.US, "%s: n=%d mean=%dms p50<=%dms p90<=%dms p99<=%dms max=%dms",
+                name, totalCount, getMeanMs(), getPercentileMs(50), getPercentileMs(90), getPercentileMs(99), maxMs);
+    }
+}
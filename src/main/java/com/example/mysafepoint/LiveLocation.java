@@ -0,0 +1,104 @@
+package com.example.mysafepoint.models;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class LiveLocation implements Serializable {
+    private String userId;
+    private String userName;
+    // User IDs the owner chose to share with; the security rules let only them read this
+    private List<String> viewers;
+    private double latitude;
+    private double longitude;
+    private float accuracy;
+    private Date updatedAt;
+
+    // Empty constructor needed for Firebase
+    public LiveLocation() {
+    }
+
+    public LiveLocation(String userId, String userName, List<String> viewers,
+                        double latitude, double longitude, float accuracy) {
+        this.userId = userId;
+        this.userName = userName;
+        this.viewers = new ArrayList<>(viewers);
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.accuracy = accuracy;
+        this.updatedAt = new Date();
+    }
+
+    // Convert LiveLocation object to Map for Firebase
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("userId", userId);
+        map.put("userName", userName);
+        map.put("viewers", viewers);
+        map.put("latitude", latitude);
+        map.put("longitude", longitude);
+        map.put("accuracy", accuracy);
+        map.put("updatedAt", updatedAt);
+        return map;
+    }
+
+    // Getters and Setters
+    public String getUserId() {
+        return userId;
+    }
+
+    public void setUserId(String userId) {
+        this.userId = userId;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public void setUserName(String userName) {
+        this.userName = userName;
+    }
+
+    public List<String> getViewers() {
+        return viewers;
+    }
+
+    public void setViewers(List<String> viewers) {
+        this.viewers = viewers;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(double latitude) {
+        this.latitude = latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(double longitude) {
+        this.longitude = longitude;
+    }
+
+    public float getAccuracy() {
+        return accuracy;
+    }
+
+    public void setAccuracy(float accuracy) {
+        this.accuracy = accuracy;
+    }
+
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+
+    public void setUpdatedAt(Date updatedAt) {
+        this.updatedAt = updatedAt;
+    }
+}
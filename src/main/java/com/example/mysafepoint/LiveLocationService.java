@@ -0,0 +1,213 @@
+package com.example.mysafepoint.services;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.mysafepoint.models.LiveLocation;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Live location sharing. Sharing is off until the user turns it on and picks who may see
+// them; their position is then published to locations/{userId} together with those
+// viewers' user IDs, and firestore.rules only lets the owner and the listed viewers read
+// it. The map listens to the documents shared with the current user. Writes are
+// throttled by distance and time and coalesced so that at most one write is in flight
+// and later fixes simply replace the pending one.
+public class LiveLocationService {
+    private static final String TAG = "LiveLocationService";
+    private static final String LOCATIONS_COLLECTION = "locations";
+
+    // Publish when moved further than this...
+    private static final float MIN_DISTANCE_METERS = 50;
+    // ...or when the last write is older than this
+    private static final long MAX_INTERVAL_MS = 2 * 60 * 1000;
+    // Never write more often than this, however fast the user moves
+    private static final long MIN_INTERVAL_MS = 15 * 1000;
+    // Locations not updated for this long are no longer shown; the sharer has stopped
+    // moving the app or lost connection, and an old position is misleading
+    public static final long FRESHNESS_WINDOW_MS = 15 * 60 * 1000;
+
+    private static LiveLocationService instance;
+
+    private final FirebaseFirestore db;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Who the current user shares with; null while not sharing
+    private List<String> viewers;
+    private LiveLocation lastPublished;
+    private long lastPublishTime;
+    private LiveLocation pending;
+    private boolean writeInFlight;
+    private boolean flushScheduled;
+
+    private LiveLocationService() {
+        db = FirebaseFirestore.getInstance();
+    }
+
+    public static synchronized LiveLocationService getInstance() {
+        if (instance == null) {
+            instance = new LiveLocationService();
+        }
+        return instance;
+    }
+
+    public interface SharedLocationsListener {
+        // Latest location per sharer's user ID, for sharers that changed. A null value
+        // means that user stopped sharing with the current user.
+        void onLocationsChanged(Map<String, LiveLocation> changed);
+        void onError(String errorMessage);
+    }
+
+    // Start (or change who gets) the current user's location. Takes effect from the next
+    // publish(); an empty list is the same as stopSharing().
+    public synchronized void startSharing(String userId, List<String> viewerIds) {
+        if (viewerIds == null || viewerIds.isEmpty()) {
+            stopSharing(userId);
+            return;
+        }
+        boolean changed = viewers == null || !viewers.equals(viewerIds);
+        viewers = new ArrayList<>(viewerIds);
+        if (changed) {
+            // Write the new audience with the next fix, whatever the throttle says
+            lastPublished = null;
+        }
+    }
+
+    // Stop publishing and delete the published location, so nobody can read it any more
+    public synchronized void stopSharing(String userId) {
+        viewers = null;
+        pending = null;
+        lastPublished = null;
+        if (userId == null) {
+            return;
+        }
+        db.collection(LOCATIONS_COLLECTION)
+                .document(userId)
+                .delete()
+                .addOnFailureListener(e -> Log.w(TAG, "Error removing shared location", e));
+    }
+
+    public synchronized boolean isSharing() {
+        return viewers != null;
+    }
+
+    // Offer a new position for the current user. Cheap to call on every fix: most calls
+    // are dropped by the throttle and only the newest pending fix is ever written.
+    // Does nothing unless sharing has been turned on.
+    public synchronized void publish(String userId, String userName,
+                                     double latitude, double longitude, float accuracy) {
+        if (userId == null || viewers == null) {
+            return;
+        }
+        LiveLocation location = new LiveLocation(userId, userName, viewers, latitude, longitude, accuracy);
+
+        if (!isWorthPublishing(location)) {
+            return;
+        }
+        pending = location;
+        flush();
+    }
+
+    private boolean isWorthPublishing(LiveLocation location) {
+        if (lastPublished == null) {
+            return true;
+        }
+        if (SystemClock.elapsedRealtime() - lastPublishTime >= MAX_INTERVAL_MS) {
+            return true;
+        }
+        float[] distance = new float[1];
+        Location.distanceBetween(lastPublished.getLatitude(), lastPublished.getLongitude(),
+                location.getLatitude(), location.getLongitude(), distance);
+        return distance[0] >= MIN_DISTANCE_METERS;
+    }
+
+    private synchronized void flush() {
+        if (pending == null || writeInFlight || viewers == null) {
+            return;
+        }
+
+        long wait = lastPublishTime + MIN_INTERVAL_MS - SystemClock.elapsedRealtime();
+        if (lastPublished != null && wait > 0) {
+            if (!flushScheduled) {
+                flushScheduled = true;
+                handler.postDelayed(() -> {
+                    synchronized (LiveLocationService.this) {
+                        flushScheduled = false;
+                    }
+                    flush();
+                }, wait);
+            }
+            return;
+        }
+
+        final LiveLocation location = pending;
+        pending = null;
+        writeInFlight = true;
+        lastPublishTime = SystemClock.elapsedRealtime();
+
+        db.collection(LOCATIONS_COLLECTION)
+                .document(location.getUserId())
+                .set(location.toMap())
+                .addOnCompleteListener(task -> {
+                    synchronized (LiveLocationService.this) {
+                        writeInFlight = false;
+                        if (!task.isSuccessful()) {
+                            Log.w(TAG, "Error publishing location", task.getException());
+                        } else if (location.getViewers().equals(viewers)) {
+                            // Not if sharing was stopped or changed while this was in flight:
+                            // the delete or the new audience still has to be written
+                            lastPublished = location;
+                        }
+                    }
+                    // A newer fix may have been queued while this write was running
+                    flush();
+                });
+    }
+
+    // Listen to the locations other users share with this one. The query matches what the
+    // security rules allow, so it never asks for anything it may not read. Locations older
+    // than FRESHNESS_WINDOW_MS are reported as gone.
+    public ListenerRegistration listenToSharedWithMe(String userId, final SharedLocationsListener listener) {
+        return db.collection(LOCATIONS_COLLECTION)
+                .whereArrayContains("viewers", userId)
+                .addSnapshotListener((snapshot, e) -> {
+                    if (e != null) {
+                        Log.w(TAG, "Shared location listener failed", e);
+                        listener.onError(e.getMessage());
+                        return;
+                    }
+                    if (snapshot == null) {
+                        return;
+                    }
+
+                    Map<String, LiveLocation> changed = new HashMap<>();
+                    for (DocumentChange change : snapshot.getDocumentChanges()) {
+                        String sharerId = change.getDocument().getId();
+                        if (change.getType() == DocumentChange.Type.REMOVED) {
+                            changed.put(sharerId, null);
+                            continue;
+                        }
+                        LiveLocation location = change.getDocument().toObject(LiveLocation.class);
+                        changed.put(sharerId, isFresh(location) ? location : null);
+                    }
+                    if (!changed.isEmpty()) {
+                        listener.onLocationsChanged(changed);
+                    }
+                });
+    }
+
+    public static boolean isFresh(LiveLocation location) {
+        Date updatedAt = location.getUpdatedAt();
+        return updatedAt != null && System.currentTimeMillis() - updatedAt.getTime() <= FRESHNESS_WINDOW_MS;
+    }
+}
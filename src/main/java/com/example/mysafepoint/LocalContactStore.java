@@ -0,0 +1,264 @@
+package com.example.mysafepoint.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.mysafepoint.models.EmergencyContact;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// On-device copy of each user's emergency contacts. Reads are served from memory,
+// backed by SQLite so the list survives restarts and is available without a network.
+// Disk reads and writes happen on a background thread, never on the caller's.
+public class LocalContactStore {
+    private static final String TAG = "LocalContactStore";
+    private static final String DATABASE_NAME = "safepoint_contacts.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_CONTACTS = "emergency_contacts";
+    private static final String TABLE_SYNC_STATE = "contact_sync_state";
+
+    private static LocalContactStore instance;
+
+    private final DatabaseHelper dbHelper;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Map<String, List<EmergencyContact>> memoryCache = new ConcurrentHashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public interface ContactsListener {
+        // contacts is null if the user's contacts have never been synced to this device
+        void onContactsLoaded(List<EmergencyContact> contacts);
+    }
+
+    // A change to one user's list, applied to a copy
+    private interface ContactsEdit {
+        void apply(List<EmergencyContact> contacts);
+    }
+
+    private LocalContactStore(Context context) {
+        dbHelper = new DatabaseHelper(context.getApplicationContext());
+    }
+
+    public static synchronized LocalContactStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new LocalContactStore(context);
+        }
+        return instance;
+    }
+
+    // Warm the memory cache from disk in the background, e.g. when a screen opens,
+    // so that the SOS path never touches disk
+    public void preload(String userId) {
+        if (userId == null || memoryCache.containsKey(userId)) {
+            return;
+        }
+        diskExecutor.execute(() -> {
+            List<EmergencyContact> contacts = readFromDisk(userId);
+            if (contacts != null) {
+                memoryCache.putIfAbsent(userId, contacts);
+            }
+        });
+    }
+
+    // Contacts held in memory, or an empty list while they are still being read from disk
+    // or were never synced. Never touches disk, so it is safe on the main thread; use
+    // loadContacts() to wait for the disk copy.
+    public List<EmergencyContact> getContacts(String userId) {
+        List<EmergencyContact> contacts = userId != null ? memoryCache.get(userId) : null;
+        return contacts != null ? copyOf(contacts) : new ArrayList<>();
+    }
+
+    // Contacts for a user, straight from memory if loaded, otherwise read on the disk
+    // thread. The listener runs on the main thread.
+    public void loadContacts(String userId, ContactsListener listener) {
+        List<EmergencyContact> cached = userId != null ? memoryCache.get(userId) : null;
+        if (cached != null || userId == null) {
+            listener.onContactsLoaded(cached != null ? copyOf(cached) : null);
+            return;
+        }
+        diskExecutor.execute(() -> {
+            // A preload queued earlier may have loaded it in the meantime
+            List<EmergencyContact> contacts = memoryCache.get(userId);
+            if (contacts == null) {
+                contacts = readFromDisk(userId);
+                if (contacts != null) {
+                    memoryCache.putIfAbsent(userId, contacts);
+                }
+            }
+            final List<EmergencyContact> result = contacts != null ? copyOf(contacts) : null;
+            mainHandler.post(() -> listener.onContactsLoaded(result));
+        });
+    }
+
+    // Replace a user's contacts with the server's list
+    public void replaceContacts(String userId, List<EmergencyContact> contacts) {
+        final List<EmergencyContact> snapshot = copyOf(contacts);
+        memoryCache.put(userId, snapshot);
+        diskExecutor.execute(() -> writeToDisk(userId, snapshot));
+    }
+
+    // Add or update a single contact
+    public void putContact(String userId, EmergencyContact contact) {
+        final EmergencyContact stored = copyOf(contact);
+        edit(userId, contacts -> {
+            for (int i = 0; i < contacts.size(); i++) {
+                if (contacts.get(i).getContactId().equals(stored.getContactId())) {
+                    contacts.set(i, stored);
+                    return;
+                }
+            }
+            contacts.add(stored);
+        });
+    }
+
+    public void removeContact(String userId, String contactId) {
+        edit(userId, contacts -> {
+            for (int i = 0; i < contacts.size(); i++) {
+                if (contacts.get(i).getContactId().equals(contactId)) {
+                    contacts.remove(i);
+                    return;
+                }
+            }
+        });
+    }
+
+    // Apply a change in memory right away if the list is loaded, otherwise on the disk
+    // thread on top of the stored list. A user that was never synced is left alone: a
+    // partial list would hide the contacts that are only on the server.
+    private void edit(String userId, ContactsEdit edit) {
+        List<EmergencyContact> cached = memoryCache.get(userId);
+        if (cached != null) {
+            List<EmergencyContact> contacts = copyOf(cached);
+            edit.apply(contacts);
+            replaceContacts(userId, contacts);
+            return;
+        }
+        diskExecutor.execute(() -> {
+            List<EmergencyContact> loaded = memoryCache.get(userId);
+            List<EmergencyContact> contacts = loaded != null ? copyOf(loaded) : readFromDisk(userId);
+            if (contacts == null) {
+                return;
+            }
+            edit.apply(contacts);
+            memoryCache.put(userId, contacts);
+            writeToDisk(userId, contacts);
+        });
+    }
+
+    // Remove everything, e.g. on logout
+    public void clear() {
+        memoryCache.clear();
+        diskExecutor.execute(() -> {
+            SQLiteDatabase db = dbHelper.getWritableDatabase();
+            db.delete(TABLE_CONTACTS, null, null);
+            db.delete(TABLE_SYNC_STATE, null, null);
+        });
+    }
+
+    private List<EmergencyContact> readFromDisk(String userId) {
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        String[] args = {userId};
+
+        try (Cursor syncCursor = db.query(TABLE_SYNC_STATE, new String[]{"user_id"}, "user_id = ?", args, null, null, null)) {
+            if (!syncCursor.moveToFirst()) {
+                return null;
+            }
+        }
+
+        List<EmergencyContact> contacts = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE_CONTACTS,
+                new String[]{"contact_id", "name", "phone_number", "relationship"},
+                "user_id = ?", args, null, null, "position ASC")) {
+            while (cursor.moveToNext()) {
+                contacts.add(new EmergencyContact(
+                        cursor.getString(0),
+                        cursor.getString(1),
+                        cursor.getString(2),
+                        cursor.getString(3)
+                ));
+            }
+        }
+        return contacts;
+    }
+
+    private void writeToDisk(String userId, List<EmergencyContact> contacts) {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_CONTACTS, "user_id = ?", new String[]{userId});
+            for (int i = 0; i < contacts.size(); i++) {
+                EmergencyContact contact = contacts.get(i);
+                ContentValues values = new ContentValues();
+                values.put("user_id", userId);
+                values.put("contact_id", contact.getContactId());
+                values.put("name", contact.getName());
+                values.put("phone_number", contact.getPhoneNumber());
+                values.put("relationship", contact.getRelationship());
+                values.put("position", i);
+                db.insert(TABLE_CONTACTS, null, values);
+            }
+
+            ContentValues syncValues = new ContentValues();
+            syncValues.put("user_id", userId);
+            syncValues.put("synced_at", System.currentTimeMillis());
+            db.insertWithOnConflict(TABLE_SYNC_STATE, null, syncValues, SQLiteDatabase.CONFLICT_REPLACE);
+
+            db.setTransactionSuccessful();
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing contacts to disk", e);
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static List<EmergencyContact> copyOf(List<EmergencyContact> contacts) {
+        List<EmergencyContact> copy = new ArrayList<>(contacts.size());
+        for (EmergencyContact contact : contacts) {
+            copy.add(copyOf(contact));
+        }
+        return copy;
+    }
+
+    private static EmergencyContact copyOf(EmergencyContact contact) {
+        return new EmergencyContact(contact.getContactId(), contact.getName(), contact.getPhoneNumber(), contact.getRelationship());
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_CONTACTS + " ("
+                    + "user_id TEXT NOT NULL, "
+                    + "contact_id TEXT NOT NULL, "
+                    + "name TEXT, "
+                    + "phone_number TEXT, "
+                    + "relationship TEXT, "
+                    + "position INTEGER NOT NULL, "
+                    + "PRIMARY KEY (user_id, contact_id))");
+            db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                    + "user_id TEXT PRIMARY KEY, "
+                    + "synced_at INTEGER NOT NULL)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_CONTACTS);
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNC_STATE);
+            onCreate(db);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.mysafepoint.services;
+
+import android.content.Context;
+import android.location.Location;
+import android.util.Log;
+
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationServices;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+// Process-wide owner of the fused location subscription. Screens subscribe and
+// unsubscribe freely; there is at most one tracking request and at most one one-shot
+// fix in flight at a time, however many screens ask. The tracking request stops when the
+// last subscriber leaves.
+public class LocationBroker {
+    private static final String TAG = "LocationBroker";
+
+    private static LocationBroker instance;
+
+    private final FusedLocationProviderClient fusedLocationClient;
+
+    private final Set<LocationStrategy.Listener> subscribers = new LinkedHashSet<>();
+    private LocationStrategy trackingStrategy;
+
+    private final List<LocationStrategy.Listener> singleFixListeners = new ArrayList<>();
+    private LocationStrategy singleFixStrategy;
+
+    private Location lastLocation;
+
+    private LocationBroker(Context context) {
+        fusedLocationClient = LocationServices.getFusedLocationProviderClient(context.getApplicationContext());
+    }
+
+    public static synchronized LocationBroker getInstance(Context context) {
+        if (instance == null) {
+            instance = new LocationBroker(context);
+        }
+        return instance;
+    }
+
+    // Receive every tracking update until unsubscribe(). A recent fix, if any, is
+    // delivered straight away.
+    public synchronized void subscribe(LocationStrategy.Listener listener) throws SecurityException {
+        if (!subscribers.add(listener)) {
+            return;
+        }
+        if (isRecent(lastLocation)) {
+            listener.onLocation(lastLocation);
+        }
+        if (trackingStrategy == null) {
+            trackingStrategy = LocationStrategy.backgroundTracking();
+            try {
+                trackingStrategy.start(fusedLocationClient, trackingListener);
+            } catch (SecurityException e) {
+                trackingStrategy = null;
+                subscribers.remove(listener);
+                throw e;
+            }
+            Log.d(TAG, "Tracking started");
+        }
+    }
+
+    public synchronized void unsubscribe(LocationStrategy.Listener listener) {
+        subscribers.remove(listener);
+        if (subscribers.isEmpty() && trackingStrategy != null) {
+            trackingStrategy.stop();
+            trackingStrategy = null;
+            Log.d(TAG, "Tracking stopped, no subscribers left");
+        }
+    }
+
+    // One location for the caller. Served from the tracking stream when it is recent
+    // enough; concurrent requests share a single fast fix.
+    public synchronized void requestSingleFix(LocationStrategy.Listener listener) throws SecurityException {
+        if (trackingStrategy != null && isRecent(lastLocation)) {
+            listener.onLocation(lastLocation);
+            return;
+        }
+
+        singleFixListeners.add(listener);
+        if (singleFixStrategy != null) {
+            return;
+        }
+
+        singleFixStrategy = LocationStrategy.fastFix();
+        try {
+            singleFixStrategy.start(fusedLocationClient, singleFixListener);
+        } catch (SecurityException e) {
+            singleFixStrategy = null;
+            singleFixListeners.clear();
+            throw e;
+        }
+    }
+
+    public synchronized int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    private boolean isRecent(Location location) {
+        return location != null
+                && LocationStrategy.ageMillis(location) <= LocationStrategy.FAST_MAX_AGE_MS
+                && location.hasAccuracy() && location.getAccuracy() <= LocationStrategy.FAST_MAX_ACCURACY_M;
+    }
+
+    private final LocationStrategy.Listener trackingListener = new LocationStrategy.Listener() {
+        @Override
+        public void onLocation(Location location) {
+            List<LocationStrategy.Listener> targets;
+            synchronized (LocationBroker.this) {
+                lastLocation = location;
+                targets = new ArrayList<>(subscribers);
+            }
+            for (LocationStrategy.Listener target : targets) {
+                target.onLocation(location);
+            }
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            List<LocationStrategy.Listener> targets;
+            synchronized (LocationBroker.this) {
+                targets = new ArrayList<>(subscribers);
+            }
+            for (LocationStrategy.Listener target : targets) {
+                target.onError(errorMessage);
+            }
+        }
+    };
+
+    private final LocationStrategy.Listener singleFixListener = new LocationStrategy.Listener() {
+        @Override
+        public void onLocation(Location location) {
+            for (LocationStrategy.Listener target : drainSingleFixListeners(location)) {
+                target.onLocation(location);
+            }
+        }
+
+        @Override
+        public void onError(String errorMessage) {
+            for (LocationStrategy.Listener target : drainSingleFixListeners(null)) {
+                target.onError(errorMessage);
+            }
+        }
+    };
+
+    private synchronized List<LocationStrategy.Listener> drainSingleFixListeners(Location location) {
+        if (location != null) {
+            lastLocation = location;
+        }
+        List<LocationStrategy.Listener> targets = new ArrayList<>(singleFixListeners);
+        singleFixListeners.clear();
+        singleFixStrategy = null;
+        return targets;
+    }
+}
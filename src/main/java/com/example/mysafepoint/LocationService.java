@@ -4,27 +4,14 @@ import android.Manifest;
 import android.app.Activity;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.location.Address;
-import android.location.Geocoder;
 import android.location.Location;
 import android.util.Log;
 
-import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import com.google.android.gms.location.FusedLocationProviderClient;
-import com.google.android.gms.location.LocationCallback;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
-import com.google.android.gms.location.Priority;
-import com.google.android.gms.tasks.OnCompleteListener;
-import com.google.android.gms.tasks.Task;
-
-import java.io.IOException;
-import java.util.List;
-import java.util.Locale;
 
 public class LocationService {
     private static final String TAG = "LocationService";
@@ -32,25 +19,28 @@ public class LocationService {
 
     private Context context;
     private FusedLocationProviderClient fusedLocationClient;
-    private LocationRequest locationRequest;
-    private LocationCallback locationCallback;
+    // Location work is shared with every other LocationService through the broker
+    private LocationBroker locationBroker;
+    private LocationStrategy.Listener trackingListener;
 
     public LocationService(Context context) {
         this.context = context;
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
-        createLocationRequest();
+        locationBroker = LocationBroker.getInstance(context);
     }
 
+    // Delivery happens in two phases: onFix() as soon as coordinates are known, then
+    // onAddressResolved() and onLocationReceived() once reverse geocoding finishes.
+    // Callers that only need coordinates can act in onFix() without waiting on Geocoder.
     public interface LocationCallback {
         void onLocationReceived(double latitude, double longitude, String address);
         void onLocationError(String errorMessage);
-    }
 
-    private void createLocationRequest() {
-        locationRequest = new LocationRequest.Builder(1000) // Update interval in milliseconds
-                .setPriority(Priority.PRIORITY_HIGH_ACCURACY)
-                .setMinUpdateIntervalMillis(500) // Fastest update interval in milliseconds
-                .build();
+        default void onFix(double latitude, double longitude, float accuracy, long ageMillis) {
+        }
+
+        default void onAddressResolved(String address) {
+        }
     }
 
     public boolean hasLocationPermission() {
@@ -66,123 +56,119 @@ public class LocationService {
         );
     }
 
+    // One-shot location using the fast-fix strategy: a recent last-known fix when good
+    // enough, otherwise a fresh high-accuracy fix. Concurrent requests from different
+    // screens share one fix.
     public void getCurrentLocation(final LocationCallback callback) {
-        if (hasLocationPermission()) {
-            fusedLocationClient.getLastLocation()
-                    .addOnCompleteListener(new OnCompleteListener<Location>() {
-                        @Override
-                        public void onComplete(@NonNull Task<Location> task) {
-                            if (task.isSuccessful() && task.getResult() != null) {
-                                Location location = task.getResult();
-                                double latitude = location.getLatitude();
-                                double longitude = location.getLongitude();
-
-                                // Get address from coordinates
-                                getAddressFromLocation(latitude, longitude, new AddressCallback() {
-                                    @Override
-                                    public void onAddressReceived(String address) {
-                                        callback.onLocationReceived(latitude, longitude, address);
-                                    }
-
-                                    @Override
-                                    public void onAddressError(String errorMessage) {
-                                        // Still return location even if address retrieval fails
-                                        callback.onLocationReceived(latitude, longitude, "Unknown address");
-                                    }
-                                });
-                            } else {
-                                // If last location is null, request location updates
-                                requestLocationUpdates(callback);
-                            }
-                        }
-                    });
-        } else {
+        if (!hasLocationPermission()) {
             callback.onLocationError("Location permission not granted");
+            return;
         }
-    }
 
-    private void requestLocationUpdates(final LocationCallback callback) {
-        if (hasLocationPermission()) {
-            locationCallback = new com.google.android.gms.location.LocationCallback() {
+        try {
+            locationBroker.requestSingleFix(new LocationStrategy.Listener() {
                 @Override
-                public void onLocationResult(LocationResult locationResult) {
-                    if (locationResult == null) {
-                        callback.onLocationError("Could not get location");
-                        return;
-                    }
-
-                    for (Location location : locationResult.getLocations()) {
-                        if (location != null) {
-                            double latitude = location.getLatitude();
-                            double longitude = location.getLongitude();
-
-                            // Get address from coordinates
-                            getAddressFromLocation(latitude, longitude, new AddressCallback() {
-                                @Override
-                                public void onAddressReceived(String address) {
-                                    callback.onLocationReceived(latitude, longitude, address);
-                                }
-
-                                @Override
-                                public void onAddressError(String errorMessage) {
-                                    // Still return location even if address retrieval fails
-                                    callback.onLocationReceived(latitude, longitude, "Unknown address");
-                                }
-                            });
-
-                            // Stop location updates once we get a location
-                            stopLocationUpdates();
-                            return;
-                        }
-                    }
+                public void onLocation(Location location) {
+                    deliverLocation(location, callback);
                 }
-            };
 
-            try {
-                fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, null);
-            } catch (SecurityException e) {
-                Log.e(TAG, "Location permission exception", e);
-                callback.onLocationError("Location permission exception: " + e.getMessage());
-            }
-        } else {
+                @Override
+                public void onError(String errorMessage) {
+                    callback.onLocationError(errorMessage);
+                }
+            });
+        } catch (SecurityException e) {
+            Log.e(TAG, "Location permission exception", e);
+            callback.onLocationError("Location permission exception: " + e.getMessage());
+        }
+    }
+
+    // One-shot location with a specific strategy, bypassing the shared fix
+
+    public void getCurrentLocation(final LocationStrategy strategy, final LocationCallback callback) {
+        if (!hasLocationPermission()) {
             callback.onLocationError("Location permission not granted");
+            return;
+        }
+
+        try {
+            strategy.start(fusedLocationClient, new LocationStrategy.Listener() {
+                @Override
+                public void onLocation(Location location) {
+                    deliverLocation(location, callback);
+                }
+
+                @Override
+                public void onError(String errorMessage) {
+                    callback.onLocationError(errorMessage);
+                }
+            });
+        } catch (SecurityException e) {
+            Log.e(TAG, "Location permission exception", e);
+            callback.onLocationError("Location permission exception: " + e.getMessage());
         }
     }
 
-    private void stopLocationUpdates() {
-        if (locationCallback != null) {
-            fusedLocationClient.removeLocationUpdates(locationCallback);
+    // Continuous, battery-friendly updates until stopTracking() is called. All screens
+    // that track share a single subscription.
+    public void startTracking(final LocationCallback callback) {
+        stopTracking();
+        if (!hasLocationPermission()) {
+            callback.onLocationError("Location permission not granted");
+            return;
+        }
+
+        trackingListener = new LocationStrategy.Listener() {
+            @Override
+            public void onLocation(Location location) {
+                deliverLocation(location, callback);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                callback.onLocationError(errorMessage);
+            }
+        };
+        try {
+            locationBroker.subscribe(trackingListener);
+        } catch (SecurityException e) {
+            Log.e(TAG, "Location permission exception", e);
+            trackingListener = null;
+            callback.onLocationError("Location permission exception: " + e.getMessage());
         }
     }
 
-    private interface AddressCallback {
-        void onAddressReceived(String address);
-        void onAddressError(String errorMessage);
+    public void stopTracking() {
+        if (trackingListener != null) {
+            locationBroker.unsubscribe(trackingListener);
+            trackingListener = null;
+        }
     }
 
-    private void getAddressFromLocation(double latitude, double longitude, final AddressCallback callback) {
-        Geocoder geocoder = new Geocoder(context, Locale.getDefault());
-        try {
-            List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
-            if (addresses != null && !addresses.isEmpty()) {
-                Address address = addresses.get(0);
-                StringBuilder sb = new StringBuilder();
-
-                // Add each address line if available
-                for (int i = 0; i <= address.getMaxAddressLineIndex(); i++) {
-                    sb.append(address.getAddressLine(i));
-                    if (i < address.getMaxAddressLineIndex()) {
-                        sb.append(", ");
-                    }
-                }
+    // Report the fix right away, then the address once it has been looked up
+    private void deliverLocation(Location location, final LocationCallback callback) {
+        final double latitude = location.getLatitude();
+        final double longitude = location.getLongitude();
+        callback.onFix(latitude, longitude, location.getAccuracy(), LocationStrategy.ageMillis(location));
+
+        // Get address from coordinates
+        getAddressFromLocation(latitude, longitude, new ReverseGeocoder.AddressCallback() {
+            @Override
+            public void onAddressReceived(String address) {
+                callback.onAddressResolved(address);
+                callback.onLocationReceived(latitude, longitude, address);
+            }
 
-                callback.onAddressReceived(sb.toString());
-            } else {
-                callback.onAddressError("No address found for the location");
+            @Override
+            public void onAddressError(String errorMessage) {
+                // Still return location even if address retrieval fails
+                callback.onLocationReceived(latitude, longitude, "Unknown address");
             }
-        } catch (IOException e) {
-            Log.e(TAG, "Error getting address from location", e);
-            callback.onAddressError("Error getting address: " + e.getMessage());
-        }
+        });
+    }
+
+    private void getAddressFromLocation(double latitude, double longitude, final ReverseGeocoder.AddressCallback callback) {
+        // Geocoder blocks, so the lookup runs off this thread and is cached by area
+        ReverseGeocoder.getInstance(context).getAddress(latitude, longitude, callback);
     }
 }
\ No newline at end of file
@@ -0,0 +1,369 @@
+package com.example.mysafepoint.services;
+
+import android.location.Location;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.mysafepoint.utils.LatencyHistogram;
+import com.google.android.gms.location.CurrentLocationRequest;
+import com.google.android.gms.location.FusedLocationProviderClient;
+import com.google.android.gms.location.LocationCallback;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.location.LocationResult;
+import com.google.android.gms.location.Priority;
+import com.google.android.gms.tasks.CancellationTokenSource;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+// How LocationService obtains a location. Each mode trades accuracy against latency and
+// battery:
+//  - fastFix: reuse a recent last-known fix, otherwise fall back to a short fresh request
+//  - sosFix: any last-known fix right away however old, then a precise fix as a second
+//    location if the first was not recent and accurate enough
+//  - preciseFix: ask for a fresh high-accuracy fix, bounded by a timeout; if none comes,
+//    whatever last-known fix exists is delivered instead, however old
+//  - backgroundTracking: batched balanced-power updates for continuous tracking
+// Every mode keeps its own metrics (time to fix, fix sources, time the GPS was requested).
+public abstract class LocationStrategy {
+    private static final String TAG = "LocationStrategy";
+
+    // Defaults used by LocationService
+    public static final long FAST_MAX_AGE_MS = 2 * 60 * 1000;
+    public static final float FAST_MAX_ACCURACY_M = 100;
+    // Fast mode gives the fresh fix only this long before settling for the last-known one
+    public static final long FAST_FALLBACK_TIMEOUT_MS = 3 * 1000;
+    public static final long PRECISE_TIMEOUT_MS = 10 * 1000;
+    public static final long TRACKING_INTERVAL_MS = 30 * 1000;
+    public static final long TRACKING_MAX_DELAY_MS = 2 * 60 * 1000;
+
+    private static final Metrics fastFixMetrics = new Metrics("fast_fix");
+    private static final Metrics sosFixMetrics = new Metrics("sos_fix");
+    private static final Metrics preciseFixMetrics = new Metrics("precise_fix");
+    private static final Metrics trackingMetrics = new Metrics("background_tracking");
+
+    public interface Listener {
+        void onLocation(Location location);
+        void onError(String errorMessage);
+    }
+
+    // Start acquiring. One-shot modes call the listener once; tracking keeps calling it
+    // until stop().
+    public abstract void start(FusedLocationProviderClient client, Listener listener) throws SecurityException;
+
+    public abstract void stop();
+
+    public abstract Metrics getMetrics();
+
+    public static LocationStrategy fastFix() {
+        return new FastFix(FAST_MAX_AGE_MS, FAST_MAX_ACCURACY_M, FAST_FALLBACK_TIMEOUT_MS, false, fastFixMetrics);
+    }
+
+    public static LocationStrategy fastFix(long maxAgeMs, float maxAccuracyMeters, long fallbackTimeoutMs) {
+        return new FastFix(maxAgeMs, maxAccuracyMeters, fallbackTimeoutMs, false, fastFixMetrics);
+    }
+
+    // The listener may be called twice: first with an old last-known fix, then with the
+    // precise one
+    public static LocationStrategy sosFix() {
+        return new FastFix(FAST_MAX_AGE_MS, FAST_MAX_ACCURACY_M, PRECISE_TIMEOUT_MS, true, sosFixMetrics);
+    }
+
+    public static LocationStrategy preciseFix() {
+        return new PreciseFix(PRECISE_TIMEOUT_MS, preciseFixMetrics);
+    }
+
+    public static LocationStrategy preciseFix(long timeoutMs) {
+        return new PreciseFix(timeoutMs, preciseFixMetrics);
+    }
+
+    public static LocationStrategy backgroundTracking() {
+        return new BackgroundTracking(TRACKING_INTERVAL_MS, TRACKING_MAX_DELAY_MS);
+    }
+
+    public static LocationStrategy backgroundTracking(long intervalMs, long maxDelayMs) {
+        return new BackgroundTracking(intervalMs, maxDelayMs);
+    }
+
+    public static String getAllMetrics() {
+        return fastFixMetrics + "\n" + sosFixMetrics + "\n" + preciseFixMetrics + "\n" + trackingMetrics;
+    }
+
+    static long ageMillis(Location location) {
+        return (SystemClock.elapsedRealtimeNanos() - location.getElapsedRealtimeNanos()) / 1000000;
+    }
+
+    public static class Metrics {
+        private final String name;
+        private final LatencyHistogram timeToFix;
+        // Fixes served from the last known location, without powering up the GPS
+        private final AtomicLong cachedFixes = new AtomicLong();
+        // Fixes that needed a fresh request to the location provider
+        private final AtomicLong freshFixes = new AtomicLong();
+        // Fresh requests that failed and were answered with an old or inaccurate last-known fix
+        private final AtomicLong staleFixes = new AtomicLong();
+        private final AtomicLong failures = new AtomicLong();
+        // Total time fresh location requests were outstanding, the main battery cost
+        private final AtomicLong activeRequestMs = new AtomicLong();
+
+        Metrics(String name) {
+            this.name = name;
+            this.timeToFix = new LatencyHistogram(name + "_time_to_fix");
+        }
+
+        public LatencyHistogram getTimeToFix() {
+            return timeToFix;
+        }
+
+        public long getCachedFixes() {
+            return cachedFixes.get();
+        }
+
+        public long getFreshFixes() {
+            return freshFixes.get();
+        }
+
+        public long getStaleFixes() {
+            return staleFixes.get();
+        }
+
+        public long getFailures() {
+            return failures.get();
+        }
+
+        public long getActiveRequestMs() {
+            return activeRequestMs.get();
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: cached=%d fresh=%d stale=%d failed=%d activeRequest=%dms, %s",
+                    name, getCachedFixes(), getFreshFixes(), getStaleFixes(), getFailures(), getActiveRequestMs(), timeToFix);
+        }
+    }
+
+    // Last known fix if it is recent and accurate enough, otherwise a precise fix. A last
+    // known fix that was not good enough is kept as the precise fix's fallback, or with
+    // staleFirst delivered straight away ahead of the precise fix.
+    private static class FastFix extends LocationStrategy {
+        private final long maxAgeMs;
+        private final float maxAccuracyMeters;
+        private final boolean staleFirst;
+        private final Metrics metrics;
+        private final PreciseFix fallback;
+        private boolean stopped;
+
+        FastFix(long maxAgeMs, float maxAccuracyMeters, long fallbackTimeoutMs, boolean staleFirst, Metrics metrics) {
+            this.maxAgeMs = maxAgeMs;
+            this.maxAccuracyMeters = maxAccuracyMeters;
+            this.staleFirst = staleFirst;
+            this.metrics = metrics;
+            this.fallback = new PreciseFix(fallbackTimeoutMs, metrics);
+        }
+
+        @Override
+        public void start(final FusedLocationProviderClient client, final Listener listener) throws SecurityException {
+            final long startTime = SystemClock.elapsedRealtime();
+            client.getLastLocation()
+                    .addOnCompleteListener(task -> {
+                        if (stopped) {
+                            return;
+                        }
+                        Location location = task.isSuccessful() ? task.getResult() : null;
+                        if (location != null && ageMillis(location) <= maxAgeMs
+                                && location.hasAccuracy() && location.getAccuracy() <= maxAccuracyMeters) {
+                            metrics.cachedFixes.incrementAndGet();
+                            metrics.timeToFix.record(SystemClock.elapsedRealtime() - startTime);
+                            listener.onLocation(location);
+                            return;
+                        }
+
+                        boolean delivered = staleFirst && location != null;
+                        if (delivered) {
+                            metrics.staleFixes.incrementAndGet();
+                            metrics.timeToFix.record(SystemClock.elapsedRealtime() - startTime);
+                            listener.onLocation(location);
+                        }
+                        try {
+                            // Once a fix has gone out, only a fresh one is worth a second call
+                            fallback.start(client, listener, location, !delivered);
+                        } catch (SecurityException e) {
+                            Log.e(TAG, "Location permission exception", e);
+                            metrics.failures.incrementAndGet();
+                            listener.onError("Location permission exception: " + e.getMessage());
+                        }
+                    });
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+            fallback.stop();
+        }
+
+        @Override
+        public Metrics getMetrics() {
+            return metrics;
+        }
+    }
+
+    // A fresh high-accuracy fix. If none arrives before the timeout, the last known fix is
+    // delivered however old or inaccurate it is; an error only when there is none at all,
+    // or when the caller already has the last known fix.
+    private static class PreciseFix extends LocationStrategy {
+        private final long timeoutMs;
+        private final Metrics metrics;
+        private CancellationTokenSource cancellationSource;
+
+        PreciseFix(long timeoutMs, Metrics metrics) {
+            this.timeoutMs = timeoutMs;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public void start(FusedLocationProviderClient client, final Listener listener) throws SecurityException {
+            start(client, listener, null, true);
+        }
+
+        // lastKnown is the fallback already read by the caller, if any. Without
+        // fallBackToLastKnown, a missing fresh fix is an error.
+        void start(final FusedLocationProviderClient client, final Listener listener, final Location lastKnown,
+                   final boolean fallBackToLastKnown) throws SecurityException {
+            final long startTime = SystemClock.elapsedRealtime();
+            cancellationSource = new CancellationTokenSource();
+            final CancellationTokenSource source = cancellationSource;
+
+            CurrentLocationRequest request = new CurrentLocationRequest.Builder()
+                    .setPriority(Priority.PRIORITY_HIGH_ACCURACY)
+                    .setDurationMillis(timeoutMs)
+                    .build();
+
+            client.getCurrentLocation(request, cancellationSource.getToken())
+                    .addOnCompleteListener(task -> {
+                        long elapsed = SystemClock.elapsedRealtime() - startTime;
+                        metrics.activeRequestMs.addAndGet(elapsed);
+                        if (task.isCanceled()) {
+                            return;
+                        }
+
+                        Location location = task.isSuccessful() ? task.getResult() : null;
+                        if (location != null) {
+                            metrics.freshFixes.incrementAndGet();
+                            metrics.timeToFix.record(elapsed);
+                            listener.onLocation(location);
+                        } else {
+                            String errorMessage = task.getException() != null
+                                    ? task.getException().getMessage()
+                                    : "Could not get location within " + (timeoutMs / 1000) + "s";
+                            if (fallBackToLastKnown) {
+                                deliverLastKnown(client, listener, lastKnown, source, errorMessage);
+                            } else {
+                                metrics.failures.incrementAndGet();
+                                listener.onError(errorMessage);
+                            }
+                        }
+                    });
+        }
+
+        private void deliverLastKnown(FusedLocationProviderClient client, final Listener listener, Location lastKnown,
+                                      final CancellationTokenSource source, final String errorMessage) {
+            if (lastKnown != null) {
+                metrics.staleFixes.incrementAndGet();
+                listener.onLocation(lastKnown);
+                return;
+            }
+            // Read again: the request that just ended may have left a fix behind
+            try {
+                client.getLastLocation()
+                        .addOnCompleteListener(task -> {
+                            if (source.getToken().isCancellationRequested()) {
+                                return;
+                            }
+                            Location location = task.isSuccessful() ? task.getResult() : null;
+                            if (location != null) {
+                                metrics.staleFixes.incrementAndGet();
+                                listener.onLocation(location);
+                            } else {
+                                metrics.failures.incrementAndGet();
+                                listener.onError(errorMessage);
+                            }
+                        });
+            } catch (SecurityException e) {
+                Log.e(TAG, "Location permission exception", e);
+                metrics.failures.incrementAndGet();
+                listener.onError(errorMessage);
+            }
+        }
+
+        @Override
+        public void stop() {
+            if (cancellationSource != null) {
+                cancellationSource.cancel();
+            }
+        }
+
+        @Override
+        public Metrics getMetrics() {
+            return metrics;
+        }
+    }
+
+    // Balanced-power updates that the provider may batch, for tracking over time
+    private static class BackgroundTracking extends LocationStrategy {
+        private final long intervalMs;
+        private final long maxDelayMs;
+        private FusedLocationProviderClient client;
+        private LocationCallback updatesCallback;
+        private long startTime;
+        private boolean awaitingFirstFix;
+
+        BackgroundTracking(long intervalMs, long maxDelayMs) {
+            this.intervalMs = intervalMs;
+            this.maxDelayMs = maxDelayMs;
+        }
+
+        @Override
+        public void start(FusedLocationProviderClient client, final Listener listener) throws SecurityException {
+            this.client = client;
+            this.startTime = SystemClock.elapsedRealtime();
+            this.awaitingFirstFix = true;
+
+            LocationRequest request = new LocationRequest.Builder(Priority.PRIORITY_BALANCED_POWER_ACCURACY, intervalMs)
+                    .setMinUpdateIntervalMillis(intervalMs / 2)
+                    .setMaxUpdateDelayMillis(maxDelayMs)
+                    .build();
+
+            updatesCallback = new LocationCallback() {
+                @Override
+                public void onLocationResult(@NonNull LocationResult locationResult) {
+                    for (Location location : locationResult.getLocations()) {
+                        if (awaitingFirstFix) {
+                            awaitingFirstFix = false;
+                            trackingMetrics.timeToFix.record(SystemClock.elapsedRealtime() - startTime);
+                        }
+                        trackingMetrics.freshFixes.incrementAndGet();
+                        listener.onLocation(location);
+                    }
+                }
+            };
+            client.requestLocationUpdates(request, updatesCallback, Looper.getMainLooper());
+        }
+
+        @Override
+        public void stop() {
+            if (client != null && updatesCallback != null) {
+                client.removeLocationUpdates(updatesCallback);
+                trackingMetrics.activeRequestMs.addAndGet(SystemClock.elapsedRealtime() - startTime);
+                updatesCallback = null;
+            }
+        }
+
+        @Override
+        public Metrics getMetrics() {
+            return trackingMetrics;
+        }
+    }
+}
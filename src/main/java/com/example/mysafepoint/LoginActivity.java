@@ -15,6 +15,7 @@ import com.example.mysafepoint.R;
 import com.example.mysafepoint.services.FirebaseAuthService;
 import com.example.mysafepoint.utils.Constants;
 import com.example.mysafepoint.utils.SharedPrefManager;
+import com.example.mysafepoint.utils.StartupTrace;
 import com.google.android.material.textfield.TextInputEditText;
 
 public class LoginActivity extends AppCompatActivity {
@@ -30,6 +31,8 @@ public class LoginActivity extends AppCompatActivity {
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_login);
+        // Ends the startup trace if the app was cold started onto this screen
+        StartupTrace.endWhenDrawn(this);
 
         // Initialize views
         etEmail = findViewById(R.id.etEmail);
@@ -3,6 +3,7 @@ package com.example.mysafepoint.fragments;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
+import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,40 +12,70 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.widget.SwitchCompat;
 import androidx.fragment.app.Fragment;
 
 import com.example.mysafepoint.R;
 import com.example.mysafepoint.models.EmergencyContact;
+import com.example.mysafepoint.models.LiveLocation;
+import com.example.mysafepoint.models.User;
 import com.example.mysafepoint.services.FirebaseUserService;
+import com.example.mysafepoint.services.LiveLocationService;
 import com.example.mysafepoint.services.LocationService;
 import com.example.mysafepoint.utils.Constants;
+import com.example.mysafepoint.utils.MarkerRegistry;
 import com.example.mysafepoint.utils.PermissionUtils;
 import com.example.mysafepoint.utils.SharedPrefManager;
+import com.example.mysafepoint.utils.ValidationUtils;
 import com.google.android.gms.maps.CameraUpdateFactory;
 import com.google.android.gms.maps.GoogleMap;
 import com.google.android.gms.maps.OnMapReadyCallback;
 import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.LatLng;
-import com.google.android.gms.maps.model.MarkerOptions;
+import com.google.android.material.dialog.MaterialAlertDialogBuilder;
+import com.google.firebase.firestore.ListenerRegistration;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class MapFragment extends Fragment implements OnMapReadyCallback {
 
+    private static final String USER_MARKER_KEY = "user";
+    // How often markers are re-checked, so locations that stop updating disappear
+    private static final long FRESHNESS_CHECK_MS = 60 * 1000;
+
     private TextView tvNoMap;
+    private SwitchCompat switchShareLocation;
     private GoogleMap mMap;
     private SupportMapFragment mapFragment;
 
     private LocationService locationService;
     private FirebaseUserService userService;
+    private LiveLocationService liveLocationService;
     private SharedPrefManager prefManager;
 
     private String userId;
     private String userName;
 
-    private Handler locationUpdateHandler;
-    private static final int LOCATION_UPDATE_INTERVAL = 30000; // 30 seconds
+    // Markers are kept across location updates and moved in place
+    private MarkerRegistry markerRegistry;
+    // Latest location of everyone sharing with this user, keyed by their user ID
+    private final Map<String, LiveLocation> sharedLocations = new HashMap<>();
+    private ListenerRegistration sharedSubscription;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final Runnable freshnessCheck = new Runnable() {
+        @Override
+        public void run() {
+            updateSharedMarkers();
+            handler.postDelayed(this, FRESHNESS_CHECK_MS);
+        }
+    };
 
     @Nullable
     @Override
@@ -53,17 +84,25 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
 
         // Initialize views
         tvNoMap = view.findViewById(R.id.tvNoMap);
+        switchShareLocation = view.findViewById(R.id.switchShareLocation);
 
         // Initialize services
         locationService = new LocationService(requireContext());
-        userService = new FirebaseUserService();
+        userService = new FirebaseUserService(requireContext());
+        liveLocationService = LiveLocationService.getInstance();
         prefManager = SharedPrefManager.getInstance(requireContext());
-        locationUpdateHandler = new Handler(Looper.getMainLooper());
 
         // Get user data
         userId = prefManager.getString(Constants.KEY_USER_ID);
         userName = prefManager.getString(Constants.KEY_USER_NAME);
 
+        // Sharing is off unless the user turned it on and chose who may see them
+        List<String> viewers = getSavedViewers();
+        if (!viewers.isEmpty()) {
+            liveLocationService.startSharing(userId, viewers);
+        }
+        setSharingSwitch(!viewers.isEmpty());
+
         // Check location permission
         if (PermissionUtils.hasLocationPermission(requireContext())) {
             // Initialize map
@@ -83,6 +122,7 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
     @Override
     public void onMapReady(GoogleMap googleMap) {
         mMap = googleMap;
+        markerRegistry = new MarkerRegistry(mMap);
 
         // Enable my location button if permission granted
         if (PermissionUtils.hasLocationPermission(requireContext())) {
@@ -92,8 +132,8 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
                 // Start updating location
                 startLocationUpdates();
 
-                // Load emergency contacts
-                loadEmergencyContacts();
+                // Show the people sharing with this user
+                startSharedUpdates();
             } catch (SecurityException e) {
                 Toast.makeText(requireContext(), "Location permission required", Toast.LENGTH_SHORT).show();
             }
@@ -101,44 +141,18 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
     }
 
     private void startLocationUpdates() {
-        // Get initial location
-        updateUserLocation();
-
-        // Schedule periodic updates
-        locationUpdateHandler.postDelayed(new Runnable() {
+        // Shared, battery-friendly updates; the subscription is released in onPause()
+        locationService.startTracking(new LocationService.LocationCallback() {
             @Override
-            public void run() {
-                updateUserLocation();
-                locationUpdateHandler.postDelayed(this, LOCATION_UPDATE_INTERVAL);
+            public void onFix(double latitude, double longitude, float accuracy, long ageMillis) {
+                // Share our position if turned on; the service drops fixes that are too
+                // close in time or distance to the last one written
+                liveLocationService.publish(userId, userName, latitude, longitude, accuracy);
             }
-        }, LOCATION_UPDATE_INTERVAL);
-    }
 
-    private void updateUserLocation() {
-        locationService.getCurrentLocation(new LocationService.LocationCallback() {
             @Override
             public void onLocationReceived(double latitude, double longitude, String address) {
-                if (mMap != null && isAdded()) {
-                    LatLng userLocation = new LatLng(latitude, longitude);
-
-                    // Clear previous marker if exists
-                    mMap.clear();
-
-                    // Add marker for user
-                    mMap.addMarker(new MarkerOptions()
-                            .position(userLocation)
-                            .title("You are here")
-                            .snippet(address)
-                            .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED)));
-
-                    // Move camera to user location (only on first update)
-                    if (mMap.getCameraPosition().zoom < 10) {
-                        mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(userLocation, 15));
-                    }
-
-                    // Reload contacts after updating user location
-                    loadEmergencyContacts();
-                }
+                updateUserLocation(latitude, longitude, address);
             }
 
             @Override
@@ -150,52 +164,207 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
         });
     }
 
-    private void loadEmergencyContacts() {
+    private void updateUserLocation(double latitude, double longitude, String address) {
+        if (mMap == null || !isAdded()) {
+            return;
+        }
+
+        LatLng userLocation = new LatLng(latitude, longitude);
+
+        // Move the user's marker in place
+        markerRegistry.put(USER_MARKER_KEY, userLocation, "You are here", address,
+                BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_RED));
+
+        // Move camera to user location (only on first update)
+        if (mMap.getCameraPosition().zoom < 10) {
+            mMap.moveCamera(CameraUpdateFactory.newLatLngZoom(userLocation, 15));
+        }
+    }
+
+    private List<String> getSavedViewers() {
+        String saved = prefManager.getString(Constants.KEY_LOCATION_VIEWERS);
+        if (TextUtils.isEmpty(saved)) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(Arrays.asList(saved.split(",")));
+    }
+
+    private void setSharingSwitch(boolean sharing) {
+        switchShareLocation.setOnCheckedChangeListener(null);
+        switchShareLocation.setChecked(sharing);
+        switchShareLocation.setOnCheckedChangeListener((button, isChecked) -> {
+            if (isChecked) {
+                chooseViewers();
+            } else {
+                stopSharing();
+            }
+        });
+    }
+
+    // Offer the emergency contacts that have an account; only those ticked can see the
+    // user's location
+    private void chooseViewers() {
         userService.getEmergencyContacts(userId, new FirebaseUserService.EmergencyContactsCallback() {
             @Override
             public void onSuccess(List<EmergencyContact> contacts) {
-                // In a real app, you would get the actual locations of the contacts from Firebase
-                // For this example, we'll just add markers with fake positions around the user
-                if (mMap != null && isAdded()) {
-                    // Add markers for contacts (example locations)
-                    for (int i = 0; i < contacts.size(); i++) {
-                        EmergencyContact contact = contacts.get(i);
-
-                        // Get user location from map (center)
-                        LatLng userLocation = mMap.getCameraPosition().target;
-
-                        // Create a fake location nearby for the contact (for demonstration)
-                        double offsetLat = (Math.random() - 0.5) * 0.01; // Random offset within ~1km
-                        double offsetLng = (Math.random() - 0.5) * 0.01;
-                        LatLng contactLocation = new LatLng(
-                                userLocation.latitude + offsetLat,
-                                userLocation.longitude + offsetLng
-                        );
-
-                        // Add marker
-                        mMap.addMarker(new MarkerOptions()
-                                .position(contactLocation)
-                                .title(contact.getName())
-                                .snippet(contact.getRelationship())
-                                .icon(BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_BLUE)));
+                List<String> phoneNumbers = new ArrayList<>();
+                for (EmergencyContact contact : contacts) {
+                    phoneNumbers.add(contact.getPhoneNumber());
+                }
+                userService.findUsersByPhone(phoneNumbers, new FirebaseUserService.PhoneLookupCallback() {
+                    @Override
+                    public void onSuccess(Map<String, User> usersByPhone) {
+                        if (isAdded()) {
+                            showViewerChoice(contacts, usersByPhone);
+                        }
+                    }
+
+                    @Override
+                    public void onError(String errorMessage) {
+                        onChoiceFailed("Error looking up contacts: " + errorMessage);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                onChoiceFailed("Error loading contacts: " + errorMessage);
+            }
+        });
+    }
+
+    private void showViewerChoice(List<EmergencyContact> contacts, Map<String, User> usersByPhone) {
+        final List<String> viewerIds = new ArrayList<>();
+        List<String> labels = new ArrayList<>();
+        for (EmergencyContact contact : contacts) {
+            User account = usersByPhone.get(ValidationUtils.normalizePhone(contact.getPhoneNumber()));
+            if (account == null || account.getUserId().equals(userId) || viewerIds.contains(account.getUserId())) {
+                continue;
+            }
+            viewerIds.add(account.getUserId());
+            // Show the account's own name too, so the user can tell it is the right person
+            labels.add(contact.getName() + " (" + account.getFullName() + ")");
+        }
+        if (viewerIds.isEmpty()) {
+            onChoiceFailed(getString(R.string.no_contacts_on_app));
+            return;
+        }
+
+        List<String> current = getSavedViewers();
+        final boolean[] checked = new boolean[viewerIds.size()];
+        for (int i = 0; i < checked.length; i++) {
+            checked[i] = current.contains(viewerIds.get(i));
+        }
+
+        new MaterialAlertDialogBuilder(requireContext())
+                .setTitle(R.string.share_location_with)
+                .setMultiChoiceItems(labels.toArray(new String[0]), checked, (dialog, which, isChecked) -> checked[which] = isChecked)
+                .setPositiveButton(R.string.action_confirm, (dialog, which) -> {
+                    List<String> chosen = new ArrayList<>();
+                    for (int i = 0; i < checked.length; i++) {
+                        if (checked[i]) {
+                            chosen.add(viewerIds.get(i));
+                        }
+                    }
+                    if (chosen.isEmpty()) {
+                        stopSharing();
+                        return;
+                    }
+                    prefManager.saveString(Constants.KEY_LOCATION_VIEWERS, TextUtils.join(",", chosen));
+                    liveLocationService.startSharing(userId, chosen);
+                    setSharingSwitch(true);
+                })
+                .setNegativeButton(R.string.action_cancel, null)
+                // Backing out keeps whatever was shared before
+                .setOnDismissListener(dialog -> setSharingSwitch(liveLocationService.isSharing()))
+                .show();
+    }
+
+    private void onChoiceFailed(String message) {
+        if (!isAdded()) {
+            return;
+        }
+        Toast.makeText(requireContext(), message, Toast.LENGTH_LONG).show();
+        setSharingSwitch(liveLocationService.isSharing());
+    }
+
+    private void stopSharing() {
+        prefManager.remove(Constants.KEY_LOCATION_VIEWERS);
+        liveLocationService.stopSharing(userId);
+        setSharingSwitch(false);
+    }
+
+    // Listen to the locations shared with this user
+    private void startSharedUpdates() {
+        if (sharedSubscription != null || userId == null) {
+            return;
+        }
+
+        sharedSubscription = liveLocationService.listenToSharedWithMe(userId, new LiveLocationService.SharedLocationsListener() {
+            @Override
+            public void onLocationsChanged(Map<String, LiveLocation> changed) {
+                for (Map.Entry<String, LiveLocation> entry : changed.entrySet()) {
+                    if (entry.getValue() == null) {
+                        sharedLocations.remove(entry.getKey());
+                    } else {
+                        sharedLocations.put(entry.getKey(), entry.getValue());
                     }
                 }
+                if (mMap != null && isAdded()) {
+                    updateSharedMarkers();
+                }
             }
 
             @Override
             public void onError(String errorMessage) {
                 if (isAdded()) {
-                    Toast.makeText(requireContext(), "Error loading contacts: " + errorMessage, Toast.LENGTH_SHORT).show();
+                    Toast.makeText(requireContext(), "Error loading shared locations: " + errorMessage, Toast.LENGTH_SHORT).show();
                 }
             }
         });
+        handler.postDelayed(freshnessCheck, FRESHNESS_CHECK_MS);
+    }
+
+    private void stopSharedUpdates() {
+        handler.removeCallbacks(freshnessCheck);
+        if (sharedSubscription != null) {
+            sharedSubscription.remove();
+            sharedSubscription = null;
+        }
+    }
+
+    // Add markers for people sharing with this user, move existing ones and remove the
+    // rest, including anyone whose location has not been updated recently
+    private void updateSharedMarkers() {
+        if (markerRegistry == null) {
+            return;
+        }
+
+        Set<String> keys = new HashSet<>();
+        keys.add(USER_MARKER_KEY);
+
+        for (Map.Entry<String, LiveLocation> entry : sharedLocations.entrySet()) {
+            LiveLocation location = entry.getValue();
+            if (!LiveLocationService.isFresh(location)) {
+                continue;
+            }
+
+            String key = "shared:" + entry.getKey();
+            keys.add(key);
+            markerRegistry.put(key, new LatLng(location.getLatitude(), location.getLongitude()),
+                    location.getUserName(), "Sharing their location",
+                    BitmapDescriptorFactory.defaultMarker(BitmapDescriptorFactory.HUE_BLUE));
+        }
+
+        markerRegistry.retainOnly(keys);
     }
 
     @Override
     public void onPause() {
         super.onPause();
         // Stop location updates
-        locationUpdateHandler.removeCallbacksAndMessages(null);
+        locationService.stopTracking();
+        stopSharedUpdates();
     }
 
     @Override
@@ -204,6 +373,7 @@ public class MapFragment extends Fragment implements OnMapReadyCallback {
         // Resume location updates
         if (mMap != null && PermissionUtils.hasLocationPermission(requireContext())) {
             startLocationUpdates();
+            startSharedUpdates();
         }
     }
 }
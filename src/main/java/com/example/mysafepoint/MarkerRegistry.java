@@ -0,0 +1,91 @@
+package com.example.mysafepoint.utils;
+
+import com.google.android.gms.maps.GoogleMap;
+import com.google.android.gms.maps.model.BitmapDescriptor;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.Marker;
+import com.google.android.gms.maps.model.MarkerOptions;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+// Map markers keyed by a stable ID (user, contact, ...). Updating a key moves the existing
+// Marker in place instead of clearing the map and adding everything again.
+public class MarkerRegistry {
+    private final GoogleMap map;
+    private final Map<String, Marker> markers = new HashMap<>();
+
+    public MarkerRegistry(GoogleMap map) {
+        this.map = map;
+    }
+
+    // Add a marker for the key, or move and relabel the existing one
+    public Marker put(String key, LatLng position, String title, String snippet, BitmapDescriptor icon) {
+        Marker marker = markers.get(key);
+        if (marker == null) {
+            marker = map.addMarker(new MarkerOptions()
+                    .position(position)
+                    .title(title)
+                    .snippet(snippet)
+                    .icon(icon));
+            if (marker != null) {
+                markers.put(key, marker);
+            }
+            return marker;
+        }
+
+        if (!marker.getPosition().equals(position)) {
+            marker.setPosition(position);
+        }
+        if (!Objects.equals(marker.getTitle(), title)) {
+            marker.setTitle(title);
+        }
+        if (!Objects.equals(marker.getSnippet(), snippet)) {
+            marker.setSnippet(snippet);
+        }
+        return marker;
+    }
+
+    public Marker get(String key) {
+        return markers.get(key);
+    }
+
+    public boolean contains(String key) {
+        return markers.containsKey(key);
+    }
+
+    public void remove(String key) {
+        Marker marker = markers.remove(key);
+        if (marker != null) {
+            marker.remove();
+        }
+    }
+
+    // Remove every marker whose key is not in the given set
+    public void retainOnly(Collection<String> keys) {
+        List<String> stale = new ArrayList<>();
+        for (String key : markers.keySet()) {
+            if (!keys.contains(key)) {
+                stale.add(key);
+            }
+        }
+        for (String key : stale) {
+            remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Marker marker : markers.values()) {
+            marker.remove();
+        }
+        markers.clear();
+    }
+
+    public int size() {
+        return markers.size();
+    }
+}
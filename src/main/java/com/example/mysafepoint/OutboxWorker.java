@@ -0,0 +1,28 @@
+package com.example.mysafepoint.services;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+// Drains the WriteOutbox once WorkManager sees a network connection. A failed pass is
+// retried with WorkManager's exponential backoff. Once the reports are on the server,
+// photos that could not be attached to them yet are tried again.
+public class OutboxWorker extends Worker {
+
+    public OutboxWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        boolean drained = WriteOutbox.getInstance(getApplicationContext()).drain();
+        if (!drained) {
+            return Result.retry();
+        }
+        ImageUploadService.getInstance(getApplicationContext()).resumePendingUploads();
+        return Result.success();
+    }
+}
@@ -2,10 +2,12 @@ package com.example.mysafepoint.fragments;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.text.InputType;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ProgressBar;
 import android.widget.Toast;
 
@@ -18,7 +20,9 @@ import com.example.mysafepoint.activities.LoginActivity;
 import com.example.mysafepoint.models.User;
 import com.example.mysafepoint.services.FirebaseAuthService;
 import com.example.mysafepoint.services.FirebaseUserService;
+import com.example.mysafepoint.services.LiveLocationService;
 import com.example.mysafepoint.utils.Constants;
+import com.example.mysafepoint.utils.LocalContactStore;
 import com.example.mysafepoint.utils.SharedPrefManager;
 import com.example.mysafepoint.utils.ValidationUtils;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
@@ -30,7 +34,7 @@ public class ProfileFragment extends Fragment {
 
     private CircleImageView ivProfileImage;
     private TextInputEditText etFullName, etEmail, etPhone, etNIC;
-    private Button btnUpdateProfile, btnLogout;
+    private Button btnUpdateProfile, btnVerifyPhone, btnLogout;
     private ProgressBar progressBar;
 
     private FirebaseAuthService authService;
@@ -52,6 +56,7 @@ public class ProfileFragment extends Fragment {
         etPhone = view.findViewById(R.id.etPhone);
         etNIC = view.findViewById(R.id.etNIC);
         btnUpdateProfile = view.findViewById(R.id.btnUpdateProfile);
+        btnVerifyPhone = view.findViewById(R.id.btnVerifyPhone);
         btnLogout = view.findViewById(R.id.btnLogout);
         progressBar = view.findViewById(R.id.progressBar);
 
@@ -69,6 +74,9 @@ public class ProfileFragment extends Fragment {
         // Setup update button
         btnUpdateProfile.setOnClickListener(v -> updateProfile());
 
+        // Only a verified number lets contacts find this account to share locations with
+        btnVerifyPhone.setOnClickListener(v -> verifyPhone());
+
         // Setup logout button
         btnLogout.setOnClickListener(v -> showLogoutConfirmation());
 
@@ -90,6 +98,7 @@ public class ProfileFragment extends Fragment {
                         etEmail.setText(user.getEmail());
                         etPhone.setText(user.getPhoneNumber());
                         etNIC.setText(user.getNic());
+                        updateVerifyButton();
 
                         progressBar.setVisibility(View.GONE);
                     });
@@ -160,6 +169,7 @@ public class ProfileFragment extends Fragment {
                         Toast.makeText(requireContext(), "Profile updated successfully", Toast.LENGTH_SHORT).show();
                         progressBar.setVisibility(View.GONE);
                         btnUpdateProfile.setEnabled(true);
+                        updateVerifyButton();
                     });
                 }
             }
@@ -177,6 +187,88 @@ public class ProfileFragment extends Fragment {
         });
     }
 
+    // Offer verification while the profile's number differs from the one verified on the account
+    private void updateVerifyButton() {
+        String phone = currentUser != null ? ValidationUtils.normalizePhone(currentUser.getPhoneNumber()) : null;
+        boolean unverified = phone != null && !phone.isEmpty() && !phone.equals(authService.getVerifiedPhoneNumber());
+        btnVerifyPhone.setVisibility(unverified ? View.VISIBLE : View.GONE);
+        btnVerifyPhone.setEnabled(true);
+    }
+
+    private void verifyPhone() {
+        final String phone = ValidationUtils.normalizePhone(currentUser.getPhoneNumber());
+        progressBar.setVisibility(View.VISIBLE);
+        btnVerifyPhone.setEnabled(false);
+
+        authService.verifyPhoneNumber(requireActivity(), phone, new FirebaseAuthService.PhoneVerificationCallback() {
+            @Override
+            public void onCodeSent(String verificationId) {
+                if (isAdded()) {
+                    progressBar.setVisibility(View.GONE);
+                    showCodeDialog(phone, verificationId, this);
+                }
+            }
+
+            @Override
+            public void onVerified(String phoneNumber) {
+                listVerifiedPhone(phoneNumber);
+                if (isAdded()) {
+                    Toast.makeText(requireContext(), "Phone number verified", Toast.LENGTH_SHORT).show();
+                    progressBar.setVisibility(View.GONE);
+                    updateVerifyButton();
+                }
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                if (isAdded()) {
+                    Toast.makeText(requireContext(), "Could not verify phone number: " + errorMessage, Toast.LENGTH_LONG).show();
+                    progressBar.setVisibility(View.GONE);
+                    btnVerifyPhone.setEnabled(true);
+                }
+            }
+        });
+    }
+
+    private void showCodeDialog(String phone, final String verificationId,
+                                final FirebaseAuthService.PhoneVerificationCallback callback) {
+        final EditText etCode = new EditText(requireContext());
+        etCode.setInputType(InputType.TYPE_CLASS_NUMBER);
+        etCode.setHint("6-digit code");
+
+        new MaterialAlertDialogBuilder(requireContext())
+                .setTitle("Verify Phone Number")
+                .setMessage("Enter the code sent to " + phone)
+                .setView(etCode)
+                .setPositiveButton("Verify", (dialog, which) -> {
+                    progressBar.setVisibility(View.VISIBLE);
+                    authService.confirmPhoneCode(verificationId, etCode.getText().toString().trim(), callback);
+                })
+                .setNegativeButton("Cancel", (dialog, which) -> btnVerifyPhone.setEnabled(true))
+                .setCancelable(false)
+                .show();
+    }
+
+    // List the newly verified number in the phone directory, replacing any earlier listing
+    private void listVerifiedPhone(String phoneNumber) {
+        final String normalized = ValidationUtils.normalizePhone(phoneNumber);
+        User user = new User();
+        user.setUserId(userId);
+        user.setFullName(prefManager.getString(Constants.KEY_USER_NAME));
+        user.setPhoneNumber(normalized);
+        userService.listPhoneNumber(user, prefManager.getString(Constants.KEY_LISTED_PHONE), new FirebaseUserService.UserCallback() {
+            @Override
+            public void onSuccess(User listed) {
+                prefManager.saveString(Constants.KEY_LISTED_PHONE, normalized);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                // Tried again next time the dashboard opens
+            }
+        });
+    }
+
     private void showLogoutConfirmation() {
         new MaterialAlertDialogBuilder(requireContext())
                 .setTitle("Logout")
@@ -187,11 +279,15 @@ public class ProfileFragment extends Fragment {
     }
 
     private void logout() {
+        // Take down the shared location while still signed in, so it cannot outlive the session
+        LiveLocationService.getInstance().stopSharing(prefManager.getString(Constants.KEY_USER_ID));
+
         // Logout from Firebase
         authService.logoutUser();
 
-        // Clear shared preferences
+        // Clear shared preferences and locally stored contacts
         prefManager.clear();
+        LocalContactStore.getInstance(requireContext()).clear();
 
         // Navigate to login screen
         Intent intent = new Intent(requireContext(), LoginActivity.class);
@@ -1,39 +1,63 @@
 package com.example.mysafepoint.fragments;
 
+import android.content.ActivityNotFoundException;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.ImageView;
 import android.widget.ProgressBar;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.content.FileProvider;
 import androidx.fragment.app.Fragment;
 
 import com.example.mysafepoint.R;
 import com.example.mysafepoint.models.IncidentReport;
 import com.example.mysafepoint.services.FirebaseIncidentService;
+import com.example.mysafepoint.services.ImageUploadService;
 import com.example.mysafepoint.services.LocationService;
 import com.example.mysafepoint.utils.Constants;
+import com.example.mysafepoint.utils.ImageCompressor;
 import com.example.mysafepoint.utils.PermissionUtils;
 import com.example.mysafepoint.utils.SharedPrefManager;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
-import java.util.UUID;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class ReportFragment extends Fragment {
+    private static final String TAG = "ReportFragment";
+    private static final String KEY_IMAGE_URI = "image_uri";
+    private static final String KEY_CAPTURE_PATH = "capture_path";
+    private static final String KEY_PENDING_CAPTURE_PATH = "pending_capture_path";
+    // Under cache/, served to the camera app through the FileProvider in the manifest
+    private static final String CAPTURE_DIR = "camera";
+    // Long edge of the bitmap decoded for the on-screen preview
+    private static final int PREVIEW_LONG_EDGE = 720;
 
     private RadioGroup rgIncidentType;
     private RadioButton rbAssault, rbRobbery, rbKidnap, rbOther;
     private TextView tvCurrentLocation;
     private EditText etDescription;
     private Button btnSubmitReport;
+    private Button btnAddPhoto;
+    private ImageView ivIncidentImage;
     private ProgressBar progressBar;
 
     private FirebaseIncidentService incidentService;
@@ -47,6 +71,43 @@ public class ReportFragment extends Fragment {
     private double currentLatitude;
     private double currentLongitude;
 
+    private Uri selectedImageUri;
+    // The camera writes the full-resolution photo here rather than returning a thumbnail
+    private File pendingCaptureFile;
+    // File behind selectedImageUri when it came from the camera, deleted once compressed
+    private File captureFile;
+    private final ExecutorService previewExecutor = Executors.newSingleThreadExecutor();
+
+    private final ActivityResultLauncher<Uri> takePicture = registerForActivityResult(
+            new ActivityResultContracts.TakePicture(), this::onPictureTaken);
+    private final ActivityResultLauncher<String> pickImage = registerForActivityResult(
+            new ActivityResultContracts.GetContent(), this::onImagePicked);
+
+    @Override
+    public void onCreate(@Nullable Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        // The camera app may outlive this fragment; remember where it was asked to write
+        if (savedInstanceState != null) {
+            selectedImageUri = savedInstanceState.getParcelable(KEY_IMAGE_URI);
+            captureFile = fileOrNull(savedInstanceState.getString(KEY_CAPTURE_PATH));
+            pendingCaptureFile = fileOrNull(savedInstanceState.getString(KEY_PENDING_CAPTURE_PATH));
+        }
+    }
+
+    @Override
+    public void onSaveInstanceState(@NonNull Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putParcelable(KEY_IMAGE_URI, selectedImageUri);
+        outState.putString(KEY_CAPTURE_PATH, captureFile != null ? captureFile.getAbsolutePath() : null);
+        outState.putString(KEY_PENDING_CAPTURE_PATH, pendingCaptureFile != null ? pendingCaptureFile.getAbsolutePath() : null);
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        previewExecutor.shutdownNow();
+    }
+
     @Nullable
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, @Nullable ViewGroup container, @Nullable Bundle savedInstanceState) {
@@ -61,10 +122,12 @@ public class ReportFragment extends Fragment {
         tvCurrentLocation = view.findViewById(R.id.tvCurrentLocation);
         etDescription = view.findViewById(R.id.etDescription);
         btnSubmitReport = view.findViewById(R.id.btnSubmitReport);
+        btnAddPhoto = view.findViewById(R.id.btnAddPhoto);
+        ivIncidentImage = view.findViewById(R.id.ivIncidentImage);
         progressBar = view.findViewById(R.id.progressBar);
 
         // Initialize services
-        incidentService = new FirebaseIncidentService();
+        incidentService = new FirebaseIncidentService(requireContext());
         locationService = new LocationService(requireContext());
         prefManager = SharedPrefManager.getInstance(requireContext());
 
@@ -83,6 +146,10 @@ public class ReportFragment extends Fragment {
 
         // Set submit button click listener
         btnSubmitReport.setOnClickListener(v -> submitReport());
+        btnAddPhoto.setOnClickListener(v -> showPhotoOptions());
+        if (selectedImageUri != null) {
+            showSelectedImage(selectedImageUri);
+        }
 
         return view;
     }
@@ -124,6 +191,126 @@ public class ReportFragment extends Fragment {
         });
     }
 
+    private void showPhotoOptions() {
+        String[] options = {"Take Photo", "Choose from Gallery"};
+        new MaterialAlertDialogBuilder(requireContext())
+                .setTitle("Add Photo")
+                .setItems(options, (dialog, which) -> {
+                    if (which == 0) {
+                        openCamera();
+                    } else {
+                        pickImage.launch("image/*");
+                    }
+                })
+                .show();
+    }
+
+    private void openCamera() {
+        File directory = new File(requireContext().getCacheDir(), CAPTURE_DIR);
+        directory.mkdirs();
+        deleteFile(pendingCaptureFile);
+        pendingCaptureFile = new File(directory, "capture_" + System.currentTimeMillis() + ".jpg");
+        Uri outputUri = FileProvider.getUriForFile(requireContext(),
+                requireContext().getPackageName() + ".fileprovider", pendingCaptureFile);
+        try {
+            takePicture.launch(outputUri);
+        } catch (ActivityNotFoundException e) {
+            pendingCaptureFile = null;
+            Toast.makeText(requireContext(), "No camera app available", Toast.LENGTH_SHORT).show();
+        }
+    }
+
+    private void onPictureTaken(Boolean saved) {
+        File capture = pendingCaptureFile;
+        pendingCaptureFile = null;
+        if (capture == null) {
+            return;
+        }
+        if (saved == null || !saved || capture.length() == 0) {
+            // Cancelled; whatever was selected before stays selected
+            deleteFile(capture);
+            return;
+        }
+        deleteFile(captureFile);
+        captureFile = capture;
+        showSelectedImage(Uri.fromFile(capture));
+    }
+
+    private void onImagePicked(Uri uri) {
+        if (uri == null) {
+            return;
+        }
+        deleteFile(captureFile);
+        captureFile = null;
+        showSelectedImage(uri);
+    }
+
+    private void showSelectedImage(final Uri imageUri) {
+        selectedImageUri = imageUri;
+        ivIncidentImage.setVisibility(View.VISIBLE);
+        btnAddPhoto.setText("Change Photo");
+
+        // A downsampled decode in the background, never the full image on the main thread
+        final Context appContext = requireContext().getApplicationContext();
+        final ImageView imageView = ivIncidentImage;
+        previewExecutor.execute(() -> {
+            try {
+                final Bitmap preview = ImageCompressor.decode(appContext, imageUri, PREVIEW_LONG_EDGE);
+                imageView.post(() -> {
+                    if (imageUri.equals(selectedImageUri)) {
+                        imageView.setImageBitmap(preview);
+                    }
+                });
+            } catch (IOException | RuntimeException e) {
+                Log.w(TAG, "Could not load preview for " + imageUri, e);
+            }
+        });
+    }
+
+    private void clearPhoto() {
+        selectedImageUri = null;
+        captureFile = null;
+        ivIncidentImage.setImageDrawable(null);
+        ivIncidentImage.setVisibility(View.GONE);
+        btnAddPhoto.setText("Add Photo");
+    }
+
+    // Runs once the report has its ID. The report does not wait for the photo: it is
+    // compressed and uploaded in the background and added to the report when done.
+    private void uploadPhoto(final IncidentReport report) {
+        final Uri imageUri = selectedImageUri;
+        // The upload owns the camera file from here and it is deleted once compressed
+        final File capture = captureFile;
+        clearPhoto();
+
+        final Context appContext = requireContext().getApplicationContext();
+        incidentService.uploadIncidentImage(report, imageUri, new ImageUploadService.UploadCallback() {
+            @Override
+            public void onSuccess(String downloadUrl) {
+                deleteFile(capture);
+                Log.d(TAG, "Photo attached to report " + report.getReportId());
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                // Either callback means compression is over, so the original can go
+                deleteFile(capture);
+                Log.w(TAG, "Photo upload for report " + report.getReportId() + " failed: " + errorMessage);
+                Toast.makeText(appContext, "The photo will be added to your report once it can be uploaded", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private static File fileOrNull(String path) {
+        return path != null ? new File(path) : null;
+    }
+
+    private static void deleteFile(File file) {
+        if (file != null) {
+            file.delete();
+        }
+    }
+
     private void submitReport() {
         // Validate inputs
         if (rgIncidentType.getCheckedRadioButtonId() == -1) {
@@ -164,7 +351,7 @@ public class ReportFragment extends Fragment {
 
         // Create incident report
         IncidentReport report = new IncidentReport(
-                UUID.randomUUID().toString(), // Temporary ID, will be replaced by Firebase
+                null, // ID is allocated by FirebaseIncidentService
                 userId,
                 userName,
                 userPhone,
@@ -175,7 +362,7 @@ public class ReportFragment extends Fragment {
                 currentLongitude
         );
 
-        // Submit to Firebase
+        // Submit to Firebase; reportIncident() sets the report ID before it returns
         incidentService.reportIncident(report, new FirebaseIncidentService.IncidentCallback() {
             @Override
             public void onSuccess(IncidentReport incident) {
@@ -198,6 +385,28 @@ public class ReportFragment extends Fragment {
                 }
             }
 
+            @Override
+            public void onQueued(IncidentReport incident, String reason) {
+                if (getActivity() != null) {
+                    getActivity().runOnUiThread(() -> {
+                        progressBar.setVisibility(View.GONE);
+                        btnSubmitReport.setEnabled(true);
+
+                        // Clear form
+                        rgIncidentType.clearCheck();
+                        etDescription.setText("");
+
+                        // The report is safe on the device and goes out as soon as it can be sent
+                        String why = reason != null && !reason.isEmpty() ? " (" + reason + ")" : "";
+                        new MaterialAlertDialogBuilder(requireContext())
+                                .setTitle("Report Saved")
+                                .setMessage("Your incident report could not be sent yet" + why + ". It has been saved on this device and will be submitted automatically.")
+                                .setPositiveButton("OK", null)
+                                .show();
+                    });
+                }
+            }
+
             @Override
             public void onError(String errorMessage) {
                 if (getActivity() != null) {
@@ -209,5 +418,9 @@ public class ReportFragment extends Fragment {
                 }
             }
         });
+
+        if (selectedImageUri != null) {
+            uploadPhoto(report);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,159 @@
+package com.example.mysafepoint.services;
+
+import android.content.Context;
+import android.location.Address;
+import android.location.Geocoder;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.example.mysafepoint.utils.GeohashUtils;
+import com.example.mysafepoint.utils.LatencyHistogram;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Turns coordinates into a street address without blocking the caller. Geocoder runs on a
+// background thread and results are cached per geohash cell, so repeat fixes in the same
+// area get their address straight away.
+public class ReverseGeocoder {
+    private static final String TAG = "ReverseGeocoder";
+    private static final int CACHE_SIZE = 256;
+
+    private static ReverseGeocoder instance;
+
+    private final Geocoder geocoder;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<String, String> addressCache = new LruCache<>(CACHE_SIZE);
+    // Callbacks waiting on a lookup already in flight for the same cell
+    private final Map<String, List<AddressCallback>> pendingLookups = new HashMap<>();
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final LatencyHistogram lookupLatency = new LatencyHistogram("geocoder_lookup");
+
+    public interface AddressCallback {
+        void onAddressReceived(String address);
+        void onAddressError(String errorMessage);
+    }
+
+    private ReverseGeocoder(Context context) {
+        geocoder = new Geocoder(context.getApplicationContext(), Locale.getDefault());
+    }
+
+    public static synchronized ReverseGeocoder getInstance(Context context) {
+        if (instance == null) {
+            instance = new ReverseGeocoder(context);
+        }
+        return instance;
+    }
+
+    // Cached addresses are delivered synchronously; lookups are delivered on the main thread
+    public void getAddress(double latitude, double longitude, final AddressCallback callback) {
+        final String cell = GeohashUtils.encode(latitude, longitude, GeohashUtils.PRECISION_STREET);
+
+        String cached = addressCache.get(cell);
+        if (cached != null) {
+            cacheHits.incrementAndGet();
+            callback.onAddressReceived(cached);
+            return;
+        }
+        cacheMisses.incrementAndGet();
+
+        synchronized (pendingLookups) {
+            List<AddressCallback> waiting = pendingLookups.get(cell);
+            if (waiting != null) {
+                waiting.add(callback);
+                return;
+            }
+            waiting = new ArrayList<>();
+            waiting.add(callback);
+            pendingLookups.put(cell, waiting);
+        }
+
+        executor.execute(() -> {
+            long startTime = SystemClock.elapsedRealtime();
+            String address = null;
+            String error = null;
+            try {
+                List<Address> addresses = geocoder.getFromLocation(latitude, longitude, 1);
+                if (addresses != null && !addresses.isEmpty()) {
+                    address = formatAddress(addresses.get(0));
+                    addressCache.put(cell, address);
+                } else {
+                    error = "No address found for the location";
+                }
+            } catch (IOException | RuntimeException e) {
+                // IllegalArgumentException for out-of-range coordinates; the waiting
+                // callbacks below must still be released
+                Log.e(TAG, "Error getting address from location", e);
+                error = "Error getting address: " + e.getMessage();
+            }
+            lookupLatency.record(SystemClock.elapsedRealtime() - startTime);
+
+            final List<AddressCallback> callbacks;
+            synchronized (pendingLookups) {
+                callbacks = pendingLookups.remove(cell);
+            }
+
+            final String result = address;
+            final String errorMessage = error;
+            mainHandler.post(() -> {
+                for (AddressCallback waiting : callbacks) {
+                    if (result != null) {
+                        waiting.onAddressReceived(result);
+                    } else {
+                        waiting.onAddressError(errorMessage);
+                    }
+                }
+            });
+        });
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    public double getHitRatio() {
+        long hits = cacheHits.get();
+        long total = hits + cacheMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public LatencyHistogram getLookupLatency() {
+        return lookupLatency;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "hits=%d misses=%d hitRatio=%.2f, %s",
+                getCacheHits(), getCacheMisses(), getHitRatio(), lookupLatency);
+    }
+
+    private static String formatAddress(Address address) {
+        StringBuilder sb = new StringBuilder();
+
+        // Add each address line if available
+        for (int i = 0; i <= address.getMaxAddressLineIndex(); i++) {
+            sb.append(address.getAddressLine(i));
+            if (i < address.getMaxAddressLineIndex()) {
+                sb.append(", ");
+            }
+        }
+        return sb.toString();
+    }
+}
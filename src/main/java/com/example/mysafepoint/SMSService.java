@@ -4,22 +4,17 @@ import android.Manifest;
 import android.app.Activity;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.telephony.SmsManager;
-import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import com.example.mysafepoint.models.EmergencyAlert;
 import com.example.mysafepoint.models.EmergencyContact;
+import com.example.mysafepoint.utils.AlertMessageTemplate;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.List;
-import java.util.Locale;
 
 public class SMSService {
-    private static final String TAG = "SMSService";
     private static final int SMS_PERMISSION_REQUEST_CODE = 1002;
 
     private Context context;
@@ -28,9 +23,15 @@ public class SMSService {
         this.context = context;
     }
 
+    // onSMSSent() fires once the network has accepted every part of the message, and
+    // onSMSDelivered() once the carrier reports it reached the handset. Both arrive on
+    // the main thread; failed sends are retried before onSMSError() is reported.
     public interface SMSCallback {
         void onSMSSent(EmergencyContact contact);
         void onSMSError(EmergencyContact contact, String errorMessage);
+
+        default void onSMSDelivered(EmergencyContact contact, long latencyMs) {
+        }
     }
 
     public boolean hasSMSPermission() {
@@ -46,6 +47,14 @@ public class SMSService {
     }
 
     public void sendEmergencyAlertSMS(EmergencyAlert alert, List<EmergencyContact> contacts, final SMSCallback callback) {
+        sendEmergencyAlertSMS(new AlertMessageTemplate(alert.getUserFullName(), alert.getIncidentType()),
+                alert, contacts, callback);
+    }
+
+    // Send with a template compiled ahead of time, so only the coordinates and address
+    // remain to be filled in once the fix arrives
+    public void sendEmergencyAlertSMS(AlertMessageTemplate template, EmergencyAlert alert,
+                                      List<EmergencyContact> contacts, final SMSCallback callback) {
         if (!hasSMSPermission()) {
             for (EmergencyContact contact : contacts) {
                 callback.onSMSError(contact, "SMS permission not granted");
@@ -53,40 +62,23 @@ public class SMSService {
             return;
         }
 
-        SimpleDateFormat sdf = new SimpleDateFormat("MMM dd, yyyy HH:mm:ss", Locale.getDefault());
-        String timestamp = sdf.format(alert.getTimestamp() != null ? alert.getTimestamp() : new Date());
-
-        String message = String.format(
-                "EMERGENCY ALERT from %s\n" +
-                        "Incident Type: %s\n" +
-                        "Location: %s\n" +
-                        "Time: %s\n" +
-                        "Map Link: https://maps.google.com/?q=%s,%s",
-                alert.getUserFullName(),
-                alert.getIncidentType(),
-                alert.getLocation(),
-                timestamp,
-                alert.getLatitude(),
-                alert.getLongitude()
-        );
-
-        SmsManager smsManager = SmsManager.getDefault();
+        long alertTime = alert.getTimestamp() != null ? alert.getTimestamp().getTime() : System.currentTimeMillis();
+        String message;
+        if (alert.isLocationUnavailable()) {
+            message = template.renderWithoutLocation(alertTime);
+        } else if (alert.getLocationTime() != null
+                && alertTime - alert.getLocationTime().getTime() > LocationStrategy.FAST_MAX_AGE_MS) {
+            // Only an old last-known fix was found; say when it was taken
+            message = template.render(alert.getLatitude(), alert.getLongitude(), alert.getLocation(),
+                    alert.getLocationTime().getTime(), true);
+        } else {
+            message = template.render(alert.getLatitude(), alert.getLongitude(), alert.getLocation(), alertTime);
+        }
 
+        // Sending, splitting and retries happen on the dispatcher's worker thread
+        SmsDispatcher dispatcher = SmsDispatcher.getInstance(context);
         for (EmergencyContact contact : contacts) {
-            try {
-                smsManager.sendTextMessage(
-                        contact.getPhoneNumber(),
-                        null,
-                        message,
-                        null,
-                        null
-                );
-                Log.d(TAG, "SMS sent to " + contact.getName());
-                callback.onSMSSent(contact);
-            } catch (Exception e) {
-                Log.e(TAG, "Error sending SMS to " + contact.getName(), e);
-                callback.onSMSError(contact, "Error sending SMS: " + e.getMessage());
-            }
+            dispatcher.send(contact, message, callback);
         }
     }
 }
\ No newline at end of file
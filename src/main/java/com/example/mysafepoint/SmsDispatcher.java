@@ -0,0 +1,541 @@
+package com.example.mysafepoint.services;
+
+import android.app.Activity;
+import android.app.PendingIntent;
+import android.content.BroadcastReceiver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.telephony.SmsManager;
+import android.telephony.SmsMessage;
+import android.util.Log;
+
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import com.example.mysafepoint.models.EmergencyContact;
+import com.example.mysafepoint.utils.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+// Sends SMS on a dedicated worker thread and follows each message through the radio.
+// A contact counts as "sent" only once every part has been accepted by the network
+// (sent intent with RESULT_OK), and as "delivered" once every delivery report is in.
+//
+// Every send is recorded in SQLite until the network has accepted it, and results come
+// in through SmsResultReceiver, so neither is lost if the process dies. Sends the radio
+// rejected are retried with exponential backoff through SmsRetryWorker. A send the radio
+// never answers is not retried: it may already have gone out, and a second SOS text is
+// worse than a late report.
+public class SmsDispatcher {
+    private static final String TAG = "SmsDispatcher";
+    static final String ACTION_SMS_SENT = "com.example.mysafepoint.SMS_SENT";
+    static final String ACTION_SMS_DELIVERED = "com.example.mysafepoint.SMS_DELIVERED";
+    private static final String EXTRA_SEND_ID = "sendId";
+    private static final String EXTRA_ATTEMPT = "attempt";
+    // Status report PDU attached to a delivery broadcast, and its format ("3gpp"/"3gpp2")
+    private static final String EXTRA_PDU = "pdu";
+    private static final String EXTRA_FORMAT = "format";
+
+    // What a delivery report says about its part
+    private static final int DELIVERY_DONE = 0;
+    // The message centre is still trying; a later report will follow
+    private static final int DELIVERY_PENDING = 1;
+    private static final int DELIVERY_FAILED = 2;
+
+    private static final String DATABASE_NAME = "safepoint_sms.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String TABLE_SENDS = "sms_sends";
+    private static final String RETRY_WORK_PREFIX = "sms-retry-";
+
+    // Waiting for its next attempt
+    private static final int STATE_WAITING = 0;
+    // Handed to the radio, result not in yet
+    private static final int STATE_SENDING = 1;
+
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long INITIAL_BACKOFF_MS = 2000;
+    // Give up waiting for the radio to report on a send after this
+    private static final long SENT_WINDOW_MS = 10 * 60 * 1000;
+    // Not every carrier sends delivery reports; stop waiting for them after this
+    private static final long DELIVERY_WINDOW_MS = 10 * 60 * 1000;
+
+    private static final LatencyHistogram sentLatency = new LatencyHistogram("sms_sent");
+    private static final LatencyHistogram deliveryLatency = new LatencyHistogram("sms_delivered");
+
+    private static SmsDispatcher instance;
+
+    private final Context context;
+    private final DatabaseHelper dbHelper;
+    private final Handler worker;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // Only touched on the worker thread
+    private final Map<Long, Send> sends = new HashMap<>();
+    // IDs for sends that could not be recorded; negative so they never clash with rows
+    private long nextUnrecordedId = -1;
+    // Latest end-to-end delivery time per phone number
+    private final Map<String, Long> lastDeliveryLatencyMs = new ConcurrentHashMap<>();
+
+    // One message to one contact, across all of its attempts
+    private static class Send {
+        final long id;
+        final EmergencyContact contact;
+        final String message;
+        // Wall-clock time, so latencies survive a restart
+        final long createdAt;
+        // Null for sends picked up again after a restart
+        final SMSService.SMSCallback callback;
+        ArrayList<String> parts;
+        int attempt;
+        int partsSent;
+        int partsDelivered;
+        boolean sent;
+        // The current attempt has failed and a retry is pending
+        boolean failed;
+        Runnable timeout;
+
+        Send(long id, EmergencyContact contact, String message, long createdAt, SMSService.SMSCallback callback) {
+            this.id = id;
+            this.contact = contact;
+            this.message = message;
+            this.createdAt = createdAt;
+            this.callback = callback;
+        }
+    }
+
+    private SmsDispatcher(Context context) {
+        this.context = context.getApplicationContext();
+        dbHelper = new DatabaseHelper(this.context);
+
+        HandlerThread thread = new HandlerThread("sms-dispatch");
+        thread.start();
+        worker = new Handler(thread.getLooper());
+
+        // Runs before any result or retry posted after it
+        worker.post(this::restore);
+    }
+
+    public static synchronized SmsDispatcher getInstance(Context context) {
+        if (instance == null) {
+            instance = new SmsDispatcher(context);
+        }
+        return instance;
+    }
+
+    // Queue a message for one contact. Callbacks arrive on the main thread.
+    public void send(final EmergencyContact contact, final String message, final SMSService.SMSCallback callback) {
+        worker.post(() -> {
+            long createdAt = System.currentTimeMillis();
+            long id = insert(contact, message, createdAt);
+            if (id == -1) {
+                // Could not record it; sending unrecorded still beats not sending
+                Log.w(TAG, "Could not record SMS to " + contact.getName());
+                id = nextUnrecordedId--;
+            }
+            Send send = new Send(id, contact, message, createdAt, callback);
+            sends.put(send.id, send);
+            attempt(send);
+        });
+    }
+
+    // Called by SmsResultReceiver with the result code of the broadcast. The result is
+    // applied and recorded before pendingResult is finished, so the process is kept alive
+    // until then.
+    void onResult(Intent intent, final int resultCode, final BroadcastReceiver.PendingResult pendingResult) {
+        final long sendId = intent.getLongExtra(EXTRA_SEND_ID, -1);
+        final int attempt = intent.getIntExtra(EXTRA_ATTEMPT, -1);
+        final boolean sentResult = ACTION_SMS_SENT.equals(intent.getAction());
+        final int delivery = sentResult ? DELIVERY_DONE : deliveryStatus(intent);
+        worker.post(() -> {
+            try {
+                if (sentResult) {
+                    onPartSent(sendId, attempt, resultCode);
+                } else {
+                    onPartDelivered(sendId, attempt, delivery);
+                }
+            } finally {
+                pendingResult.finish();
+            }
+        });
+    }
+
+    // Called by SmsRetryWorker. Only retries the attempt it was scheduled after, so the
+    // in-process backoff and the worker never both send.
+    void retry(final long sendId, final int afterAttempt) {
+        worker.post(() -> {
+            Send send = sends.get(sendId);
+            if (send != null && send.failed && send.attempt == afterAttempt) {
+                attempt(send);
+            }
+        });
+    }
+
+    private void attempt(Send send) {
+        send.attempt++;
+        send.failed = false;
+        send.partsSent = 0;
+        send.partsDelivered = 0;
+
+        try {
+            SmsManager smsManager = smsManager();
+            if (send.parts == null) {
+                send.parts = smsManager.divideMessage(send.message);
+            }
+            // Recorded before handing over, so a restart never sends it a second time
+            updateState(send, STATE_SENDING);
+
+            if (send.parts.size() == 1) {
+                smsManager.sendTextMessage(send.contact.getPhoneNumber(), null, send.parts.get(0),
+                        pendingIntent(ACTION_SMS_SENT, send, 0), pendingIntent(ACTION_SMS_DELIVERED, send, 0));
+            } else {
+                ArrayList<PendingIntent> sentIntents = new ArrayList<>();
+                ArrayList<PendingIntent> deliveryIntents = new ArrayList<>();
+                for (int i = 0; i < send.parts.size(); i++) {
+                    sentIntents.add(pendingIntent(ACTION_SMS_SENT, send, i));
+                    deliveryIntents.add(pendingIntent(ACTION_SMS_DELIVERED, send, i));
+                }
+                smsManager.sendMultipartTextMessage(send.contact.getPhoneNumber(), null, send.parts,
+                        sentIntents, deliveryIntents);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error sending SMS to " + send.contact.getName(), e);
+            retryOrFail(send, "Error sending SMS: " + e.getMessage());
+            return;
+        }
+
+        armSentWindow(send, SENT_WINDOW_MS);
+    }
+
+    private void armSentWindow(final Send send, long delayMs) {
+        final int attempt = send.attempt;
+        send.timeout = () -> {
+            if (sends.get(send.id) == send && send.attempt == attempt && !send.sent && !send.failed) {
+                // It may have gone out without a report; resending could text the contact twice
+                fail(send, "No response from the network, the message may not have been sent");
+            }
+        };
+        worker.postDelayed(send.timeout, delayMs);
+    }
+
+    private void onPartSent(long sendId, int attempt, int resultCode) {
+        Send send = sends.get(sendId);
+        // Results from an attempt that has already been retried are ignored
+        if (send == null || send.attempt != attempt || send.sent || send.failed) {
+            return;
+        }
+
+        if (resultCode != Activity.RESULT_OK) {
+            retryOrFail(send, describeError(resultCode));
+            return;
+        }
+
+        send.partsSent++;
+        if (send.partsSent < send.parts.size()) {
+            updatePartsSent(send);
+            return;
+        }
+
+        send.sent = true;
+        worker.removeCallbacks(send.timeout);
+        // Nothing left to resend; only delivery reports are still expected
+        delete(send.id);
+        sentLatency.record(System.currentTimeMillis() - send.createdAt);
+        Log.d(TAG, "SMS sent to " + send.contact.getName() + " after " + send.attempt + " attempt(s)");
+
+        final Send done = send;
+        worker.postDelayed(() -> {
+            if (sends.get(done.id) == done) {
+                sends.remove(done.id);
+            }
+        }, DELIVERY_WINDOW_MS);
+        if (done.callback != null) {
+            mainHandler.post(() -> done.callback.onSMSSent(done.contact));
+        }
+    }
+
+    private void onPartDelivered(long sendId, int attempt, int delivery) {
+        Send send = sends.get(sendId);
+        if (send == null || send.attempt != attempt || delivery == DELIVERY_PENDING) {
+            return;
+        }
+        if (delivery == DELIVERY_FAILED) {
+            // Accepted by the network but never reached the phone; not resent, since
+            // other parts may have arrived
+            sends.remove(send.id);
+            Log.w(TAG, "SMS to " + send.contact.getName() + " was not delivered");
+            final Send undelivered = send;
+            if (undelivered.callback != null) {
+                mainHandler.post(() -> undelivered.callback.onSMSError(undelivered.contact,
+                        "The message could not be delivered"));
+            }
+            return;
+        }
+
+        send.partsDelivered++;
+        if (send.partsDelivered == send.parts.size()) {
+            sends.remove(send.id);
+            final long latencyMs = System.currentTimeMillis() - send.createdAt;
+            deliveryLatency.record(latencyMs);
+            lastDeliveryLatencyMs.put(send.contact.getPhoneNumber(), latencyMs);
+
+            final Send done = send;
+            if (done.callback != null) {
+                mainHandler.post(() -> done.callback.onSMSDelivered(done.contact, latencyMs));
+            }
+        }
+    }
+
+    // Only for attempts the radio rejected or never took, which are safe to send again
+    private void retryOrFail(final Send send, final String errorMessage) {
+        send.failed = true;
+        worker.removeCallbacks(send.timeout);
+        if (send.attempt >= MAX_ATTEMPTS) {
+            fail(send, errorMessage);
+            return;
+        }
+
+        long backoff = INITIAL_BACKOFF_MS << (send.attempt - 1);
+        Log.w(TAG, "SMS to " + send.contact.getName() + " failed (" + errorMessage + "), retrying in " + backoff + "ms");
+        updateState(send, STATE_WAITING);
+        // The worker carries the retry across a restart; whichever runs first sends it
+        scheduleRetry(send, backoff, ExistingWorkPolicy.REPLACE);
+        final int attempt = send.attempt;
+        worker.postDelayed(() -> {
+            if (sends.get(send.id) == send && send.failed && send.attempt == attempt) {
+                attempt(send);
+            }
+        }, backoff);
+    }
+
+    private void fail(final Send send, final String errorMessage) {
+        sends.remove(send.id);
+        delete(send.id);
+        Log.e(TAG, "Giving up on SMS to " + send.contact.getName() + ": " + errorMessage);
+        if (send.callback != null) {
+            mainHandler.post(() -> send.callback.onSMSError(send.contact, errorMessage));
+        }
+    }
+
+    private void scheduleRetry(Send send, long delayMs, ExistingWorkPolicy policy) {
+        if (send.id < 0) {
+            return;
+        }
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(SmsRetryWorker.class)
+                .setInitialDelay(delayMs, TimeUnit.MILLISECONDS)
+                .setInputData(new Data.Builder()
+                        .putLong(SmsRetryWorker.KEY_SEND_ID, send.id)
+                        .putInt(SmsRetryWorker.KEY_ATTEMPT, send.attempt)
+                        .build())
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(RETRY_WORK_PREFIX + send.id, policy, request);
+    }
+
+    // Picks up sends left over from a previous run
+    private void restore() {
+        long now = System.currentTimeMillis();
+        try (Cursor cursor = dbHelper.getReadableDatabase().query(TABLE_SENDS,
+                new String[]{"id", "name", "phone", "message", "created_at", "attempt", "state", "parts_sent", "attempted_at"},
+                null, null, null, null, "id ASC")) {
+            while (cursor.moveToNext()) {
+                EmergencyContact contact = new EmergencyContact(null, cursor.getString(1), cursor.getString(2), null);
+                Send send = new Send(cursor.getLong(0), contact, cursor.getString(3), cursor.getLong(4), null);
+                send.attempt = cursor.getInt(5);
+                send.partsSent = cursor.getInt(7);
+                sends.put(send.id, send);
+
+                if (cursor.getInt(6) == STATE_SENDING) {
+                    // Keep waiting for its result; SmsResultReceiver still gets it
+                    send.parts = smsManager().divideMessage(send.message);
+                    armSentWindow(send, Math.max(0, SENT_WINDOW_MS - (now - cursor.getLong(8))));
+                } else {
+                    // Leaves a retry that is already scheduled alone
+                    send.failed = true;
+                    scheduleRetry(send, 0, ExistingWorkPolicy.KEEP);
+                }
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Could not restore pending SMS", e);
+        }
+        if (!sends.isEmpty()) {
+            Log.d(TAG, "Restored " + sends.size() + " pending SMS");
+        }
+    }
+
+    private long insert(EmergencyContact contact, String message, long createdAt) {
+        ContentValues values = new ContentValues();
+        values.put("name", contact.getName());
+        values.put("phone", contact.getPhoneNumber());
+        values.put("message", message);
+        values.put("created_at", createdAt);
+        values.put("attempt", 0);
+        values.put("state", STATE_WAITING);
+        values.put("parts_sent", 0);
+        values.put("attempted_at", 0);
+        try {
+            return dbHelper.getWritableDatabase().insert(TABLE_SENDS, null, values);
+        } catch (Exception e) {
+            Log.e(TAG, "Could not record SMS", e);
+            return -1;
+        }
+    }
+
+    private void updateState(Send send, int state) {
+        ContentValues values = new ContentValues();
+        values.put("attempt", send.attempt);
+        values.put("state", state);
+        values.put("parts_sent", 0);
+        values.put("attempted_at", System.currentTimeMillis());
+        update(send.id, values);
+    }
+
+    private void updatePartsSent(Send send) {
+        ContentValues values = new ContentValues();
+        values.put("parts_sent", send.partsSent);
+        update(send.id, values);
+    }
+
+    private void update(long id, ContentValues values) {
+        if (id < 0) {
+            return;
+        }
+        try {
+            dbHelper.getWritableDatabase().update(TABLE_SENDS, values, "id = ?", new String[]{String.valueOf(id)});
+        } catch (Exception e) {
+            Log.e(TAG, "Could not update SMS " + id, e);
+        }
+    }
+
+    private void delete(long id) {
+        if (id < 0) {
+            return;
+        }
+        try {
+            dbHelper.getWritableDatabase().delete(TABLE_SENDS, "id = ?", new String[]{String.valueOf(id)});
+        } catch (Exception e) {
+            Log.e(TAG, "Could not delete SMS " + id, e);
+        }
+    }
+
+    private PendingIntent pendingIntent(String action, Send send, int part) {
+        // The data URI keeps every intent distinct, also from ones left over from an
+        // earlier process, which would otherwise be reused with their old extras
+        Intent intent = new Intent(context, SmsResultReceiver.class)
+                .setAction(action)
+                .setData(Uri.parse("sms-result://" + send.id + "/" + send.attempt + "/" + part))
+                .putExtra(EXTRA_SEND_ID, send.id)
+                .putExtra(EXTRA_ATTEMPT, send.attempt);
+        int flags = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M ? PendingIntent.FLAG_IMMUTABLE : 0;
+        return PendingIntent.getBroadcast(context, 0, intent, flags);
+    }
+
+    // SmsManager is a system service from Android 12; getDefault() is deprecated there
+    @SuppressWarnings("deprecation")
+    private SmsManager smsManager() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            return context.getSystemService(SmsManager.class);
+        }
+        return SmsManager.getDefault();
+    }
+
+    // Reads the status report in a delivery broadcast. GSM reports carry TP-Status (3GPP TS
+    // 23.040): below 0x20 delivered, 0x20-0x3F still being tried, anything higher failed.
+    // CDMA reports carry the error class in bits 24-25: 0 none, 2 temporary, 3 permanent.
+    @SuppressWarnings("deprecation")
+    private static int deliveryStatus(Intent intent) {
+        byte[] pdu = intent.getByteArrayExtra(EXTRA_PDU);
+        String format = intent.getStringExtra(EXTRA_FORMAT);
+        SmsMessage report = null;
+        if (pdu != null) {
+            report = Build.VERSION.SDK_INT >= Build.VERSION_CODES.M
+                    ? SmsMessage.createFromPdu(pdu, format)
+                    : SmsMessage.createFromPdu(pdu);
+        }
+        if (report == null) {
+            // Without a readable report there is no telling it arrived
+            Log.w(TAG, "Delivery report without a readable status");
+            return DELIVERY_PENDING;
+        }
+
+        int status = report.getStatus();
+        if ("3gpp2".equals(format)) {
+            int errorClass = (status >> 24) & 0x03;
+            if (errorClass == 0) {
+                return DELIVERY_DONE;
+            }
+            return errorClass == 2 ? DELIVERY_PENDING : DELIVERY_FAILED;
+        }
+        if (status < 0x20) {
+            return DELIVERY_DONE;
+        }
+        return status < 0x40 ? DELIVERY_PENDING : DELIVERY_FAILED;
+    }
+
+    private static String describeError(int resultCode) {
+        switch (resultCode) {
+            case SmsManager.RESULT_ERROR_NO_SERVICE:
+                return "No service";
+            case SmsManager.RESULT_ERROR_RADIO_OFF:
+                return "Radio off";
+            case SmsManager.RESULT_ERROR_NULL_PDU:
+                return "Invalid message";
+            default:
+                return "Generic failure (" + resultCode + ")";
+        }
+    }
+
+    // Time from queueing to the last delivery report for the most recent message to this
+    // number, or -1 if none has been delivered yet
+    public long getLastDeliveryLatencyMs(String phoneNumber) {
+        Long latencyMs = lastDeliveryLatencyMs.get(phoneNumber);
+        return latencyMs != null ? latencyMs : -1;
+    }
+
+    public static LatencyHistogram getSentLatency() {
+        return sentLatency;
+    }
+
+    public static LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_SENDS + " ("
+                    + "id INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "name TEXT, "
+                    + "phone TEXT NOT NULL, "
+                    + "message TEXT NOT NULL, "
+                    + "created_at INTEGER NOT NULL, "
+                    + "attempt INTEGER NOT NULL, "
+                    + "state INTEGER NOT NULL, "
+                    + "parts_sent INTEGER NOT NULL, "
+                    + "attempted_at INTEGER NOT NULL)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_SENDS);
+            onCreate(db);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.mysafepoint.services;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+// Receives the sent and delivery reports for SmsDispatcher. Declared in the manifest so
+// reports for messages sent before the process died still arrive. The broadcast stays
+// open until the dispatcher has applied and recorded the result, so a process started
+// just for it is not killed first.
+public class SmsResultReceiver extends BroadcastReceiver {
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        SmsDispatcher.getInstance(context).onResult(intent, getResultCode(), goAsync());
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.mysafepoint.services;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+// Retries an SMS the radio rejected once its backoff has passed. Scheduled through
+// WorkManager so the retry still happens if the process has died in the meantime.
+public class SmsRetryWorker extends Worker {
+    static final String KEY_SEND_ID = "sendId";
+    static final String KEY_ATTEMPT = "attempt";
+
+    public SmsRetryWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    @NonNull
+    @Override
+    public Result doWork() {
+        long sendId = getInputData().getLong(KEY_SEND_ID, -1);
+        int attempt = getInputData().getInt(KEY_ATTEMPT, -1);
+        // The dispatcher reports the outcome itself; this only hands the send back to it
+        SmsDispatcher.getInstance(getApplicationContext()).retry(sendId, attempt);
+        return Result.success();
+    }
+}
@@ -0,0 +1,364 @@
+package com.example.mysafepoint.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// In-memory spatial index of incident positions for radius and bounding-box queries.
+// Points live in parallel primitive arrays and are grouped into cells keyed by their
+// numeric geohash at BUCKET_PRECISION (see GeohashUtils.encodeBits). Cell keys are kept
+// in a sorted array, and since every geohash prefix is a contiguous range of keys, a query
+// picks the precision at which a handful of cells cover the box and binary-searches one
+// key range per cell. Small boxes touch only the fine cells they overlap; large ones
+// never enumerate more than MAX_QUERY_CELLS prefixes.
+//
+// Updates are incremental: put() and remove() are O(1) apart from the ID lookup, which
+// keeps the index in step with a live stream. Cells first seen since the last query are
+// merged into the sorted keys when the next query runs. All methods are synchronized so
+// queries can run on a background thread.
+public class SpatialIncidentIndex {
+    // About 1.2 km x 0.6 km per cell
+    static final int BUCKET_PRECISION = 6;
+    // Most geohash prefixes a single box query enumerates
+    private static final int MAX_QUERY_CELLS = 64;
+    // Above this many new cells the sorted keys are rebuilt instead of merged one by one
+    private static final int MAX_MERGED_CELLS = 64;
+    private static final int NONE = -1;
+    private static final double EARTH_RADIUS_METERS = 6371000;
+
+    // Point slots; removed slots are reused through the free list. Each slot is linked
+    // into the list of its cell.
+    private String[] ids = new String[64];
+    private double[] latitudes = new double[64];
+    private double[] longitudes = new double[64];
+    private int[] slotCells = new int[64];
+    private int[] nextSlots = new int[64];
+    private int[] prevSlots = new int[64];
+    private int slotCount = 0;
+    private int[] freeSlots = new int[16];
+    private int freeCount = 0;
+
+    private final Map<String, Integer> slotById = new HashMap<>();
+
+    // Cells in the order they were first used; a cell left empty keeps its place and is
+    // reused if a point lands in it again
+    private long[] cellKeys = new long[64];
+    private int[] cellHeads = new int[64];
+    private int cellCount = 0;
+    // Open-addressing table from key to cell index + 1 (0 is an empty entry)
+    private int[] cellTable = new int[128];
+    // (key << 32 | cell index) for the first sortedCount cells, in key order
+    private long[] sortedCells = new long[64];
+    private int sortedCount = 0;
+
+    // The visitor runs while the index is locked, so it should be quick
+    public interface PointVisitor {
+        void visit(String id, double latitude, double longitude);
+    }
+
+    // A copy of some of the points, for work that should not hold the index's lock
+    public static class Points implements PointVisitor {
+        public String[] ids = new String[64];
+        public double[] latitudes = new double[64];
+        public double[] longitudes = new double[64];
+        public int size = 0;
+
+        @Override
+        public void visit(String id, double latitude, double longitude) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                latitudes = Arrays.copyOf(latitudes, size * 2);
+                longitudes = Arrays.copyOf(longitudes, size * 2);
+            }
+            ids[size] = id;
+            latitudes[size] = latitude;
+            longitudes[size] = longitude;
+            size++;
+        }
+    }
+
+    // Add a point, or move it if the ID is already indexed
+    public synchronized void put(String id, double latitude, double longitude) {
+        int cell = cellFor(GeohashUtils.encodeBits(latitude, longitude, BUCKET_PRECISION));
+        Integer existing = slotById.get(id);
+        if (existing != null) {
+            int slot = existing;
+            latitudes[slot] = latitude;
+            longitudes[slot] = longitude;
+            if (slotCells[slot] != cell) {
+                unlink(slot);
+                link(slot, cell);
+            }
+            return;
+        }
+
+        int slot = allocateSlot();
+        ids[slot] = id;
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        slotById.put(id, slot);
+        link(slot, cell);
+    }
+
+    public synchronized void remove(String id) {
+        Integer slot = slotById.remove(id);
+        if (slot == null) {
+            return;
+        }
+        unlink(slot);
+        ids[slot] = null;
+        if (freeCount == freeSlots.length) {
+            freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        }
+        freeSlots[freeCount++] = slot;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(ids, 0, slotCount, null);
+        slotCount = 0;
+        freeCount = 0;
+        slotById.clear();
+        cellCount = 0;
+        sortedCount = 0;
+        Arrays.fill(cellTable, 0);
+    }
+
+    public synchronized int size() {
+        return slotById.size();
+    }
+
+    public synchronized boolean contains(String id) {
+        return slotById.containsKey(id);
+    }
+
+    // Visit every point inside the box. west > east means the box crosses the antimeridian.
+    public synchronized void forEachInBounds(double south, double west, double north, double east, PointVisitor visitor) {
+        if (west > east) {
+            forEachInBounds(south, west, north, 180, visitor);
+            forEachInBounds(south, -180, north, east, visitor);
+            return;
+        }
+        sortCells();
+
+        // Start from the bucket cells and step up to shorter prefixes until a few cover the box
+        int precision = BUCKET_PRECISION;
+        int minRow, maxRow, minCol, maxCol;
+        while (true) {
+            minRow = GeohashUtils.row(south, precision);
+            maxRow = GeohashUtils.row(north, precision);
+            minCol = GeohashUtils.column(west, precision);
+            maxCol = GeohashUtils.column(east, precision);
+            if (precision == 1 || (long) (maxRow - minRow + 1) * (maxCol - minCol + 1) <= MAX_QUERY_CELLS) {
+                break;
+            }
+            precision--;
+        }
+
+        int shift = 5 * (BUCKET_PRECISION - precision);
+        for (int r = minRow; r <= maxRow; r++) {
+            for (int c = minCol; c <= maxCol; c++) {
+                long prefix = GeohashUtils.interleave(c, r, precision);
+                long high = (prefix + 1) << shift;
+                for (int i = lowerBound((prefix << shift) << 32); i < sortedCount && (sortedCells[i] >>> 32) < high; i++) {
+                    int cell = (int) sortedCells[i];
+                    for (int slot = cellHeads[cell]; slot != NONE; slot = nextSlots[slot]) {
+                        if (inBox(slot, south, west, north, east)) {
+                            visitor.visit(ids[slot], latitudes[slot], longitudes[slot]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    // Copy out the points inside the box; the lock is only held while copying
+    public Points snapshotInBounds(double south, double west, double north, double east) {
+        Points points = new Points();
+        forEachInBounds(south, west, north, east, points);
+        return points;
+    }
+
+    public List<String> queryBounds(double south, double west, double north, double east) {
+        final List<String> result = new ArrayList<>();
+        forEachInBounds(south, west, north, east, (id, latitude, longitude) -> result.add(id));
+        return result;
+    }
+
+    // IDs of the points within radiusMeters of the given position
+    public List<String> queryRadius(final double latitude, final double longitude, final double radiusMeters) {
+        double latDelta = Math.toDegrees(radiusMeters / EARTH_RADIUS_METERS);
+        double cosLat = Math.cos(Math.toRadians(latitude));
+        double south = Math.max(-90, latitude - latDelta);
+        double north = Math.min(90, latitude + latDelta);
+        // A circle that reaches over a pole covers every longitude
+        boolean coversPole = north >= 90 || south <= -90;
+        double lngDelta = coversPole ? 180 : Math.min(180, latDelta / cosLat);
+
+        double west = wrapLongitude(longitude - lngDelta);
+        double east = wrapLongitude(longitude + lngDelta);
+        if (lngDelta >= 180) {
+            west = -180;
+            east = 180;
+        }
+
+        final List<String> result = new ArrayList<>();
+        forEachInBounds(south, west, north, east, (id, lat, lng) -> {
+            if (distanceMeters(latitude, longitude, lat, lng) <= radiusMeters) {
+                result.add(id);
+            }
+        });
+        return result;
+    }
+
+    // Haversine distance
+    public static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    private boolean inBox(int slot, double south, double west, double north, double east) {
+        double lat = latitudes[slot];
+        double lng = longitudes[slot];
+        return lat >= south && lat <= north && lng >= west && lng <= east;
+    }
+
+    private int allocateSlot() {
+        if (freeCount > 0) {
+            return freeSlots[--freeCount];
+        }
+        if (slotCount == ids.length) {
+            int capacity = slotCount * 2;
+            ids = Arrays.copyOf(ids, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            slotCells = Arrays.copyOf(slotCells, capacity);
+            nextSlots = Arrays.copyOf(nextSlots, capacity);
+            prevSlots = Arrays.copyOf(prevSlots, capacity);
+        }
+        return slotCount++;
+    }
+
+    private void link(int slot, int cell) {
+        int head = cellHeads[cell];
+        slotCells[slot] = cell;
+        prevSlots[slot] = NONE;
+        nextSlots[slot] = head;
+        if (head != NONE) {
+            prevSlots[head] = slot;
+        }
+        cellHeads[cell] = slot;
+    }
+
+    private void unlink(int slot) {
+        int prev = prevSlots[slot];
+        int next = nextSlots[slot];
+        if (prev != NONE) {
+            nextSlots[prev] = next;
+        } else {
+            cellHeads[slotCells[slot]] = next;
+        }
+        if (next != NONE) {
+            prevSlots[next] = prev;
+        }
+    }
+
+    // Index of the cell with this key, created if it is new
+    private int cellFor(long key) {
+        int mask = cellTable.length - 1;
+        int i = hash(key) & mask;
+        while (cellTable[i] != 0) {
+            int cell = cellTable[i] - 1;
+            if (cellKeys[cell] == key) {
+                return cell;
+            }
+            i = (i + 1) & mask;
+        }
+
+        if (cellCount == cellKeys.length) {
+            cellKeys = Arrays.copyOf(cellKeys, cellCount * 2);
+            cellHeads = Arrays.copyOf(cellHeads, cellCount * 2);
+        }
+        int cell = cellCount++;
+        cellKeys[cell] = key;
+        cellHeads[cell] = NONE;
+        cellTable[i] = cell + 1;
+        // Keep the table at most half full
+        if (cellCount * 2 > cellTable.length) {
+            rehash(cellTable.length * 2);
+        }
+        return cell;
+    }
+
+    private void rehash(int capacity) {
+        cellTable = new int[capacity];
+        int mask = capacity - 1;
+        for (int cell = 0; cell < cellCount; cell++) {
+            int i = hash(cellKeys[cell]) & mask;
+            while (cellTable[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            cellTable[i] = cell + 1;
+        }
+    }
+
+    private static int hash(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 32);
+    }
+
+    // Bring the cells added since the last query into the sorted keys
+    private void sortCells() {
+        if (sortedCount == cellCount) {
+            return;
+        }
+        if (sortedCells.length < cellCount) {
+            sortedCells = Arrays.copyOf(sortedCells, cellKeys.length);
+        }
+        if (cellCount - sortedCount > MAX_MERGED_CELLS) {
+            for (int cell = sortedCount; cell < cellCount; cell++) {
+                sortedCells[cell] = (cellKeys[cell] << 32) | cell;
+            }
+            Arrays.sort(sortedCells, 0, cellCount);
+        } else {
+            // A live stream adds a cell now and then; slot each one into place
+            for (int cell = sortedCount; cell < cellCount; cell++) {
+                long entry = (cellKeys[cell] << 32) | cell;
+                int at = lowerBound(entry);
+                System.arraycopy(sortedCells, at, sortedCells, at + 1, cell - at);
+                sortedCells[at] = entry;
+                sortedCount++;
+            }
+        }
+        sortedCount = cellCount;
+    }
+
+    // First position in the sorted cells at or after this (key << 32 | cell) entry
+    private int lowerBound(long entry) {
+        int low = 0;
+        int high = sortedCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortedCells[mid] < entry) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static double wrapLongitude(double longitude) {
+        if (longitude < -180) {
+            return longitude + 360;
+        }
+        if (longitude > 180) {
+            return longitude - 360;
+        }
+        return longitude;
+    }
+}
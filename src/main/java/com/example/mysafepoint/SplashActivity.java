@@ -1,9 +1,10 @@
 package com.example.mysafepoint.activities;
 
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
+import android.os.Trace;
+import android.util.Log;
 import android.view.WindowManager;
 import android.view.animation.AlphaAnimation;
 import android.view.animation.Animation;
@@ -13,16 +14,37 @@ import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.example.mysafepoint.R;
+import com.example.mysafepoint.models.User;
 import com.example.mysafepoint.services.FirebaseAuthService;
+import com.example.mysafepoint.services.FirebaseUserService;
+import com.example.mysafepoint.utils.Constants;
+import com.example.mysafepoint.utils.SharedPrefManager;
+import com.example.mysafepoint.utils.StartupTrace;
 
+// Routes to the right screen as soon as the role is known instead of after a fixed delay.
+// The role saved at login is used straight away and checked against Firestore in the
+// background; without one, the user document is fetched while the splash is showing.
 public class SplashActivity extends AppCompatActivity {
+    private static final String TAG = "SplashActivity";
 
-    private static final int SPLASH_TIMEOUT = 2000; // 2 seconds
     private FirebaseAuthService authService;
+    private SharedPrefManager prefManager;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.begin();
+        Trace.beginSection("SplashActivity.onCreate");
         super.onCreate(savedInstanceState);
+
+        authService = new FirebaseAuthService();
+        prefManager = SharedPrefManager.getInstance(this);
+
+        // Decide before inflating anything; with a cached role the splash layout is never needed
+        if (routeFromCache()) {
+            Trace.endSection();
+            return;
+        }
+
         setContentView(R.layout.activity_splash);
 
         // Make the splash screen fullscreen
@@ -31,10 +53,7 @@ public class SplashActivity extends AppCompatActivity {
                 WindowManager.LayoutParams.FLAG_FULLSCREEN
         );
 
-        // Initialize Firebase Auth Service
-        authService = new FirebaseAuthService();
-
-        // Add fade-in animation for logo and text
+        // Fade in logo and text while the role is being fetched
         ImageView ivLogo = findViewById(R.id.ivLogo);
         TextView tvAppName = findViewById(R.id.tvAppName);
         TextView tvSlogan = findViewById(R.id.tvSlogan);
@@ -46,50 +65,93 @@ public class SplashActivity extends AppCompatActivity {
         tvAppName.startAnimation(fadeIn);
         tvSlogan.startAnimation(fadeIn);
 
-        // Handler to navigate after delay
-        new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
+        fetchRoleAndRoute(authService.getCurrentUserId());
+        Trace.endSection();
+    }
+
+    // Navigate right away if we can; returns false when the role has to be fetched first
+    private boolean routeFromCache() {
+        String userId = authService.getCurrentUserId();
+        if (!authService.isUserLoggedIn() || userId == null) {
+            navigate(LoginActivity.class);
+            return true;
+        }
+
+        // Only trust a role saved for this same account
+        String cachedRole = prefManager.getString(Constants.KEY_USER_TYPE);
+        if (cachedRole == null || !userId.equals(prefManager.getString(Constants.KEY_USER_ID))) {
+            return false;
+        }
+
+        navigate(destinationFor(cachedRole));
+        validateRole(getApplicationContext(), userId, cachedRole);
+        return true;
+    }
+
+    private void fetchRoleAndRoute(final String userId) {
+        new FirebaseUserService().getUserProfile(userId, new FirebaseUserService.UserCallback() {
+            @Override
+            public void onSuccess(User user) {
+                saveRole(prefManager, userId, user);
+                navigate(destinationFor(user.getUserType()));
+            }
+
             @Override
-            public void run() {
-                checkUserLoggedIn();
+            public void onError(String errorMessage) {
+                Log.w(TAG, "Could not load role: " + errorMessage);
+                navigate(LoginActivity.class);
             }
-        }, SPLASH_TIMEOUT);
+        });
     }
 
-    private void checkUserLoggedIn() {
-        if (authService.isUserLoggedIn()) {
-            // Check if the user is an admin or a normal user
-            authService.getCurrentFirebaseUser().getIdToken(false).addOnSuccessListener(result -> {
-                String userId = authService.getCurrentUserId();
-                // Retrieve user from Firestore to check their role
-                if (userId != null) {
-                    authService.getUserById(userId, user -> {
-                        if (user != null && "admin".equals(user.getUserType())) {
-                            // User is an admin, navigate to admin dashboard
-                            startActivity(new Intent(SplashActivity.this, AdminDashboardActivity.class));
-                        } else {
-                            // User is a normal user, navigate to user dashboard
-                            startActivity(new Intent(SplashActivity.this, UserDashboardActivity.class));
-                        }
-                        finish();
-                    }, error -> {
-                        // Error retrieving user, go to login
-                        startActivity(new Intent(SplashActivity.this, LoginActivity.class));
-                        finish();
-                    });
+    // Runs after the splash has finished. If the role has changed since it was cached, the
+    // task is restarted on the right screen; if the account is gone, the user is signed out.
+    private static void validateRole(final Context appContext, final String userId, final String cachedRole) {
+        final SharedPrefManager prefManager = SharedPrefManager.getInstance(appContext);
+        new FirebaseUserService().getUserProfile(userId, new FirebaseUserService.UserCallback() {
+            @Override
+            public void onSuccess(User user) {
+                saveRole(prefManager, userId, user);
+                if (!destinationFor(cachedRole).equals(destinationFor(user.getUserType()))) {
+                    Log.d(TAG, "Role changed to " + user.getUserType() + ", rerouting");
+                    restartAt(appContext, destinationFor(user.getUserType()));
+                }
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                if (FirebaseUserService.USER_NOT_FOUND.equals(errorMessage)) {
+                    new FirebaseAuthService().logoutUser();
+                    prefManager.clear();
+                    restartAt(appContext, LoginActivity.class);
                 } else {
-                    // No user ID, go to login
-                    startActivity(new Intent(SplashActivity.this, LoginActivity.class));
-                    finish();
+                    // Offline or similar: keep going with the cached role
+                    Log.w(TAG, "Could not validate role: " + errorMessage);
                 }
-            }).addOnFailureListener(e -> {
-                // Error getting token, go to login
-                startActivity(new Intent(SplashActivity.this, LoginActivity.class));
-                finish();
-            });
-        } else {
-            // User not logged in, go to login screen
-            startActivity(new Intent(SplashActivity.this, LoginActivity.class));
-            finish();
+            }
+        });
+    }
+
+    private static void saveRole(SharedPrefManager prefManager, String userId, User user) {
+        prefManager.saveString(Constants.KEY_USER_ID, userId);
+        prefManager.saveString(Constants.KEY_USER_TYPE, user.getUserType());
+    }
+
+    private static Class<?> destinationFor(String role) {
+        return Constants.USER_TYPE_ADMIN.equals(role) ? AdminDashboardActivity.class : UserDashboardActivity.class;
+    }
+
+    private void navigate(Class<?> destination) {
+        if (isFinishing()) {
+            return;
         }
+        startActivity(new Intent(this, destination));
+        finish();
+    }
+
+    private static void restartAt(Context context, Class<?> destination) {
+        Intent intent = new Intent(context, destination);
+        intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+        context.startActivity(intent);
     }
-}
\ No newline at end of file
+}
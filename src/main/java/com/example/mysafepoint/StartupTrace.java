@@ -0,0 +1,82 @@
+package com.example.mysafepoint.utils;
+
+import android.app.Activity;
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import android.view.View;
+import android.view.ViewTreeObserver;
+
+// Measures a cold start from process start (or the splash screen on older devices) to the
+// first frame of the screen the user lands on. Shows up as an async "cold_start" slice in
+// system traces, as reportFullyDrawn() in the activity manager's startup metrics, and in
+// the cold_start histogram.
+public class StartupTrace {
+    private static final String TAG = "StartupTrace";
+    private static final String SECTION_NAME = "cold_start";
+    private static final int SECTION_COOKIE = 1;
+
+    private static final LatencyHistogram startupLatency = new LatencyHistogram("cold_start");
+
+    private static long startUptimeMs = -1;
+    private static boolean finished;
+
+    // Call first thing in the launcher activity; only the first call of a process counts
+    public static synchronized void begin() {
+        if (startUptimeMs >= 0) {
+            return;
+        }
+        startUptimeMs = Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+                ? Process.getStartUptimeMillis() : SystemClock.uptimeMillis();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(SECTION_NAME, SECTION_COOKIE);
+        }
+    }
+
+    // Call from onCreate() of every screen a start can end on; the trace ends once that
+    // screen has drawn its first frame. Does nothing outside a cold start.
+    public static void endWhenDrawn(final Activity activity) {
+        synchronized (StartupTrace.class) {
+            if (startUptimeMs < 0 || finished) {
+                return;
+            }
+        }
+
+        final View decorView = activity.getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnDrawListener(new ViewTreeObserver.OnDrawListener() {
+            @Override
+            public void onDraw() {
+                final ViewTreeObserver.OnDrawListener listener = this;
+                // Listeners cannot be removed while being dispatched
+                decorView.post(() -> {
+                    decorView.getViewTreeObserver().removeOnDrawListener(listener);
+                    end(activity);
+                });
+            }
+        });
+    }
+
+    private static void end(Activity activity) {
+        long elapsedMs;
+        synchronized (StartupTrace.class) {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            elapsedMs = SystemClock.uptimeMillis() - startUptimeMs;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(SECTION_NAME, SECTION_COOKIE);
+        }
+        startupLatency.record(elapsedMs);
+        activity.reportFullyDrawn();
+        Log.d(TAG, "Cold start to first frame of " + activity.getClass().getSimpleName() + ": " + elapsedMs + "ms");
+    }
+
+    public static LatencyHistogram getStartupLatency() {
+        return startupLatency;
+    }
+}
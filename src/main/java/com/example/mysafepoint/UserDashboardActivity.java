@@ -15,8 +15,15 @@ import com.example.mysafepoint.fragments.HomeFragment;
 import com.example.mysafepoint.fragments.MapFragment;
 import com.example.mysafepoint.fragments.ProfileFragment;
 import com.example.mysafepoint.fragments.ReportFragment;
+import com.example.mysafepoint.models.User;
+import com.example.mysafepoint.services.FirebaseAuthService;
+import com.example.mysafepoint.services.FirebaseUserService;
+import com.example.mysafepoint.services.ImageUploadService;
 import com.example.mysafepoint.utils.Constants;
 import com.example.mysafepoint.utils.PermissionUtils;
+import com.example.mysafepoint.utils.SharedPrefManager;
+import com.example.mysafepoint.utils.StartupTrace;
+import com.example.mysafepoint.utils.ValidationUtils;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 
@@ -28,6 +35,8 @@ public class UserDashboardActivity extends AppCompatActivity implements BottomNa
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_user_dashboard);
+        // Ends the startup trace if the app was cold started onto this screen
+        StartupTrace.endWhenDrawn(this);
 
         // Initialize views
         bottomNavigationView = findViewById(R.id.bottom_navigation);
@@ -36,6 +45,12 @@ public class UserDashboardActivity extends AppCompatActivity implements BottomNa
         // Check and request required permissions
         requestPermissions();
 
+        // Make sure contacts who have this user's number can find them to share with
+        listPhoneNumber();
+
+        // Finish report photos whose upload was cut short by the app being closed
+        ImageUploadService.getInstance(this).resumePendingUploads();
+
         // Load Home fragment by default
         loadFragment(new HomeFragment());
         bottomNavigationView.setSelectedItemId(R.id.navigation_home);
@@ -55,6 +70,39 @@ public class UserDashboardActivity extends AppCompatActivity implements BottomNa
         }
     }
 
+    // Done once per number; after a number change the old listing is replaced. Only the
+    // number verified on the account is listed (see ProfileFragment), never the one typed
+    // into the profile.
+    private void listPhoneNumber() {
+        final SharedPrefManager prefManager = SharedPrefManager.getInstance(this);
+        String userId = prefManager.getString(Constants.KEY_USER_ID);
+        String phone = new FirebaseAuthService().getVerifiedPhoneNumber();
+        String listedPhone = prefManager.getString(Constants.KEY_LISTED_PHONE);
+        if (userId == null || phone == null) {
+            return;
+        }
+        final String normalized = ValidationUtils.normalizePhone(phone);
+        if (normalized.isEmpty() || normalized.equals(listedPhone)) {
+            return;
+        }
+
+        User user = new User();
+        user.setUserId(userId);
+        user.setFullName(prefManager.getString(Constants.KEY_USER_NAME));
+        user.setPhoneNumber(phone);
+        new FirebaseUserService().listPhoneNumber(user, listedPhone, new FirebaseUserService.UserCallback() {
+            @Override
+            public void onSuccess(User listed) {
+                prefManager.saveString(Constants.KEY_LISTED_PHONE, normalized);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                // Tried again next time the dashboard opens
+            }
+        });
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
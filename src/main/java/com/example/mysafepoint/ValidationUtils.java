@@ -13,6 +13,44 @@ public class ValidationUtils {
         return !TextUtils.isEmpty(phone) && Patterns.PHONE.matcher(phone).matches();
     }
 
+    // Country code assumed for numbers written in national form
+    public static final String DEFAULT_COUNTRY_CODE = "60";
+
+    // E.164 form, e.g. "012-345 6789" and "+60 12-345 6789" both become "+60123456789",
+    // so the same number typed different ways compares equal. A leading 0 is the national
+    // trunk prefix and 00 the international one. Empty if there are no digits.
+    public static String normalizePhone(String phone) {
+        if (phone == null) {
+            return null;
+        }
+        String trimmed = phone.trim();
+        StringBuilder digits = new StringBuilder(trimmed.length());
+        for (int i = 0; i < trimmed.length(); i++) {
+            char c = trimmed.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        if (digits.length() == 0) {
+            return "";
+        }
+
+        if (trimmed.startsWith("+")) {
+            return "+" + digits;
+        }
+        if (digits.length() > 2 && digits.charAt(0) == '0' && digits.charAt(1) == '0') {
+            return "+" + digits.substring(2);
+        }
+        if (digits.charAt(0) == '0') {
+            return "+" + DEFAULT_COUNTRY_CODE + digits.substring(1);
+        }
+        // Already has the country code, just not the "+" (national numbers never start with it)
+        if (digits.indexOf(DEFAULT_COUNTRY_CODE) == 0 && digits.length() >= 11) {
+            return "+" + digits;
+        }
+        return "+" + DEFAULT_COUNTRY_CODE + digits;
+    }
+
     public static boolean isValidPassword(String password) {
         // Password must be at least 6 characters
         return !TextUtils.isEmpty(password) && password.length() >= 6;
@@ -0,0 +1,387 @@
+package com.example.mysafepoint.services;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.net.NetworkInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.work.BackoffPolicy;
+import androidx.work.Constraints;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Write-ahead outbox for Firestore documents that must not be lost when the device is
+// offline (alerts, incident reports). Every write is recorded in SQLite first and then
+// sent, either straight away when online or later by OutboxWorker once WorkManager sees
+// a connection. The worker drains the outbox in the order it was filled.
+//
+// Writes only ever create: each one uses a client-generated document ID and a transaction
+// that skips the document if it already exists. A write sent twice lands once, and a late
+// replay never overwrites changes made since, such as an admin's status or a photo URL.
+public class WriteOutbox {
+    private static final String TAG = "WriteOutbox";
+    private static final String DATABASE_NAME = "safepoint_outbox.db";
+    private static final int DATABASE_VERSION = 1;
+    private static final String TABLE_OUTBOX = "outbox";
+
+    private static final String DRAIN_WORK_NAME = "outbox-drain";
+    private static final long BACKOFF_SECONDS = 10;
+    // How long to wait for the server before telling the caller the write is queued
+    private static final long DIRECT_WRITE_TIMEOUT_MS = 5000;
+    private static final long DRAIN_WRITE_TIMEOUT_SECONDS = 30;
+    private static final String DATE_KEY = "$date";
+    // Whole-number doubles would come back from JSON as integers
+    private static final String DOUBLE_KEY = "$double";
+
+    private static WriteOutbox instance;
+
+    private final Context context;
+    private final DatabaseHelper dbHelper;
+    private final FirebaseFirestore db;
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Writes recorded but not yet acknowledged by the server
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    public interface DeliveryListener {
+        // The server has the document
+        void onDelivered();
+        // The document is safe on the device and will be sent when possible
+        void onQueued(String reason);
+    }
+
+    private WriteOutbox(Context context) {
+        this.context = context.getApplicationContext();
+        dbHelper = new DatabaseHelper(this.context);
+        db = FirebaseFirestore.getInstance();
+
+        // Pick up anything left over from a previous run
+        diskExecutor.execute(() -> {
+            int leftOver = countOnDisk();
+            if (leftOver > 0) {
+                pendingCount.addAndGet(leftOver);
+                scheduleDrain();
+            }
+        });
+    }
+
+    public static synchronized WriteOutbox getInstance(Context context) {
+        if (instance == null) {
+            instance = new WriteOutbox(context);
+        }
+        return instance;
+    }
+
+    // Record a document write and send it. Returns immediately: the disk write happens on a
+    // background thread, and the listener is called on the main thread.
+    public void submit(final String collection, final String documentId, final Map<String, Object> data,
+                       final DeliveryListener listener) {
+        final boolean backlog = pendingCount.getAndIncrement() > 0;
+        diskExecutor.execute(() -> {
+            writeToDisk(collection, documentId, data);
+            if (backlog) {
+                scheduleDrain();
+            }
+        });
+
+        // Earlier writes still waiting do not hold this one back: every write creates its
+        // own document, so sending it ahead of them changes nothing they would write
+        if (!isOnline()) {
+            diskExecutor.execute(this::scheduleDrain);
+            listener.onQueued("No connection");
+            return;
+        }
+
+        // On a poor connection the transaction can retry for a while before failing, so the
+        // caller is told the write is queued if the server has not answered in time
+        final boolean[] reported = {false};
+        final Runnable timeout = () -> {
+            if (!reported[0]) {
+                reported[0] = true;
+                diskExecutor.execute(this::scheduleDrain);
+                listener.onQueued("No response from server");
+            }
+        };
+        mainHandler.postDelayed(timeout, DIRECT_WRITE_TIMEOUT_MS);
+
+        createIfAbsent(collection, documentId, data)
+                .addOnSuccessListener(created -> {
+                    diskExecutor.execute(() -> markDelivered(collection, documentId));
+                    mainHandler.removeCallbacks(timeout);
+                    if (!reported[0]) {
+                        reported[0] = true;
+                        listener.onDelivered();
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    Log.w(TAG, "Direct write to " + collection + " failed, leaving it to the outbox", e);
+                    mainHandler.removeCallbacks(timeout);
+                    diskExecutor.execute(this::scheduleDrain);
+                    if (!reported[0]) {
+                        reported[0] = true;
+                        listener.onQueued(e.getMessage());
+                    }
+                });
+    }
+
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    // Send everything in the outbox in order, stopping at the first failure so later writes
+    // never overtake earlier ones. Blocks; called from OutboxWorker's background thread.
+    // Returns false if something is left to retry.
+    boolean drain() {
+        List<Entry> entries = readFromDisk();
+        for (Entry entry : entries) {
+            try {
+                boolean created = Tasks.await(createIfAbsent(entry.collection, entry.documentId, entry.data),
+                        DRAIN_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (!created) {
+                    Log.d(TAG, entry.collection + "/" + entry.documentId + " was already sent, skipping");
+                }
+            } catch (Exception e) {
+                Log.w(TAG, "Outbox write to " + entry.collection + "/" + entry.documentId + " failed", e);
+                return false;
+            }
+            deleteFromDisk(entry.sequence);
+        }
+        Log.d(TAG, "Outbox drained (" + entries.size() + " writes)");
+        return true;
+    }
+
+    // Resolves to false if the document was already there, in which case it is left as is.
+    // Transactions fail rather than wait while offline, so this never queues inside the SDK.
+    private Task<Boolean> createIfAbsent(String collection, String documentId, final Map<String, Object> data) {
+        final DocumentReference documentRef = db.collection(collection).document(documentId);
+        return db.runTransaction(transaction -> {
+            if (transaction.get(documentRef).exists()) {
+                return false;
+            }
+            transaction.set(documentRef, data);
+            return true;
+        });
+    }
+
+    private void markDelivered(String collection, String documentId) {
+        int deleted = dbHelper.getWritableDatabase().delete(TABLE_OUTBOX,
+                "collection = ? AND document_id = ?", new String[]{collection, documentId});
+        pendingCount.addAndGet(-deleted);
+    }
+
+    private void deleteFromDisk(long sequence) {
+        int deleted = dbHelper.getWritableDatabase().delete(TABLE_OUTBOX,
+                "sequence = ?", new String[]{String.valueOf(sequence)});
+        pendingCount.addAndGet(-deleted);
+    }
+
+    private void writeToDisk(String collection, String documentId, Map<String, Object> data) {
+        ContentValues values = new ContentValues();
+        try {
+            values.put("collection", collection);
+            values.put("document_id", documentId);
+            values.put("payload", toJson(data).toString());
+            values.put("created_at", System.currentTimeMillis());
+        } catch (JSONException e) {
+            Log.e(TAG, "Could not record write to " + collection, e);
+            pendingCount.decrementAndGet();
+            return;
+        }
+
+        SQLiteDatabase database = dbHelper.getWritableDatabase();
+        database.beginTransaction();
+        try {
+            // A newer write of the same document replaces the queued one
+            int previous = database.delete(TABLE_OUTBOX, "collection = ? AND document_id = ?",
+                    new String[]{collection, documentId});
+            database.insert(TABLE_OUTBOX, null, values);
+            database.setTransactionSuccessful();
+            pendingCount.addAndGet(-previous);
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    private List<Entry> readFromDisk() {
+        List<Entry> entries = new ArrayList<>();
+        try (Cursor cursor = dbHelper.getReadableDatabase().query(TABLE_OUTBOX,
+                new String[]{"sequence", "collection", "document_id", "payload"},
+                null, null, null, null, "sequence ASC")) {
+            while (cursor.moveToNext()) {
+                try {
+                    entries.add(new Entry(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                            fromJson(new JSONObject(cursor.getString(3)))));
+                } catch (JSONException e) {
+                    Log.e(TAG, "Dropping unreadable outbox entry " + cursor.getLong(0), e);
+                    deleteFromDisk(cursor.getLong(0));
+                }
+            }
+        }
+        return entries;
+    }
+
+    private int countOnDisk() {
+        try (Cursor cursor = dbHelper.getReadableDatabase().rawQuery("SELECT COUNT(*) FROM " + TABLE_OUTBOX, null)) {
+            return cursor.moveToFirst() ? cursor.getInt(0) : 0;
+        }
+    }
+
+    private void scheduleDrain() {
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(OutboxWorker.class)
+                .setConstraints(new Constraints.Builder()
+                        .setRequiredNetworkType(NetworkType.CONNECTED)
+                        .build())
+                .setBackoffCriteria(BackoffPolicy.EXPONENTIAL, BACKOFF_SECONDS, TimeUnit.SECONDS)
+                .build();
+        // Appending makes sure writes recorded while a drain is running get their own pass
+        WorkManager.getInstance(context).enqueueUniqueWork(DRAIN_WORK_NAME, ExistingWorkPolicy.APPEND_OR_REPLACE, request);
+    }
+
+    @SuppressWarnings("deprecation")
+    private boolean isOnline() {
+        ConnectivityManager connectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (connectivityManager == null) {
+            return false;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            NetworkCapabilities capabilities = connectivityManager.getNetworkCapabilities(connectivityManager.getActiveNetwork());
+            // Validated: the system has reached the internet over it, not just joined a network
+            return capabilities != null
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET)
+                    && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+        }
+        // getActiveNetwork() needs API 23
+        NetworkInfo networkInfo = connectivityManager.getActiveNetworkInfo();
+        return networkInfo != null && networkInfo.isConnected();
+    }
+
+    // Firestore field values as JSON; dates and doubles are tagged so they come back with
+    // their own type
+    private static JSONObject toJson(Map<String, Object> data) throws JSONException {
+        JSONObject json = new JSONObject();
+        for (Map.Entry<String, Object> field : data.entrySet()) {
+            json.put(field.getKey(), toJsonValue(field.getValue()));
+        }
+        return json;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object toJsonValue(Object value) throws JSONException {
+        if (value == null) {
+            return JSONObject.NULL;
+        } else if (value instanceof Date) {
+            return new JSONObject().put(DATE_KEY, ((Date) value).getTime());
+        } else if (value instanceof Double || value instanceof Float) {
+            // As text, which also keeps NaN and infinities that JSON numbers cannot hold
+            return new JSONObject().put(DOUBLE_KEY, value.toString());
+        } else if (value instanceof Map) {
+            return toJson((Map<String, Object>) value);
+        } else if (value instanceof List) {
+            JSONArray array = new JSONArray();
+            for (Object item : (List<Object>) value) {
+                array.put(toJsonValue(item));
+            }
+            return array;
+        }
+        return value;
+    }
+
+    private static Map<String, Object> fromJson(JSONObject json) throws JSONException {
+        Map<String, Object> data = new HashMap<>();
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            data.put(key, fromJsonValue(json.get(key)));
+        }
+        return data;
+    }
+
+    private static Object fromJsonValue(Object value) throws JSONException {
+        if (value == JSONObject.NULL) {
+            return null;
+        } else if (value instanceof JSONObject) {
+            JSONObject object = (JSONObject) value;
+            if (object.length() == 1 && object.has(DATE_KEY)) {
+                return new Date(object.getLong(DATE_KEY));
+            }
+            if (object.length() == 1 && object.has(DOUBLE_KEY)) {
+                return Double.parseDouble(object.getString(DOUBLE_KEY));
+            }
+            return fromJson(object);
+        } else if (value instanceof JSONArray) {
+            JSONArray array = (JSONArray) value;
+            List<Object> list = new ArrayList<>(array.length());
+            for (int i = 0; i < array.length(); i++) {
+                list.add(fromJsonValue(array.get(i)));
+            }
+            return list;
+        }
+        return value;
+    }
+
+    private static class Entry {
+        final long sequence;
+        final String collection;
+        final String documentId;
+        final Map<String, Object> data;
+
+        Entry(long sequence, String collection, String documentId, Map<String, Object> data) {
+            this.sequence = sequence;
+            this.collection = collection;
+            this.documentId = documentId;
+            this.data = data;
+        }
+    }
+
+    private static class DatabaseHelper extends SQLiteOpenHelper {
+        DatabaseHelper(Context context) {
+            super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        }
+
+        @Override
+        public void onCreate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE " + TABLE_OUTBOX + " ("
+                    + "sequence INTEGER PRIMARY KEY AUTOINCREMENT, "
+                    + "collection TEXT NOT NULL, "
+                    + "document_id TEXT NOT NULL, "
+                    + "payload TEXT NOT NULL, "
+                    + "created_at INTEGER NOT NULL)");
+        }
+
+        @Override
+        public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+            db.execSQL("DROP TABLE IF EXISTS " + TABLE_OUTBOX);
+            onCreate(db);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.mysafepoint.utils;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AlertMessageTemplateTest {
+    // 2024-01-01 14:05 UTC
+    private static final long TIME = 1704117900000L;
+    private static final double KL_LAT = 3.139;
+    private static final double KL_LNG = 101.68685;
+    private static final String KL_LINK = "maps.google.com/?q=3.13900,101.68685";
+
+    private TimeZone defaultTimeZone;
+
+    @Before
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    @Test
+    public void rendersHeaderTimeLinkAndAddress() {
+        AlertMessageTemplate template = new AlertMessageTemplate("Ali Ahmad", "Robbery");
+        String message = template.render(KL_LAT, KL_LNG, "Jalan Ampang, Kuala Lumpur", TIME);
+
+        assertEquals("EMERGENCY: Robbery alert from Ali Ahmad\n14:05 " + KL_LINK + "\nJalan Ampang, Kuala Lumpur", message);
+        assertTrue(template.isGsm());
+        assertEquals(1, template.getSegmentCount());
+    }
+
+    @Test
+    public void formatsNegativeCoordinatesWithFiveDecimals() {
+        AlertMessageTemplate template = new AlertMessageTemplate("Ali", "Assault");
+        String message = template.render(-6.2, -106.816666, null, TIME);
+
+        assertTrue(message, message.endsWith("maps.google.com/?q=-6.20000,-106.81667"));
+    }
+
+    @Test
+    public void staleFixIsMarkedWithItsTime() {
+        AlertMessageTemplate template = new AlertMessageTemplate("Ali", "Kidnap");
+        String message = template.render(KL_LAT, KL_LNG, null, TIME, true);
+
+        assertEquals("EMERGENCY: Kidnap alert from Ali\nLast seen 14:05 " + KL_LINK, message);
+    }
+
+    @Test
+    public void withoutLocationSaysSo() {
+        AlertMessageTemplate template = new AlertMessageTemplate("Ali", "Other");
+
+        assertEquals("EMERGENCY: Other alert from Ali\n14:05 location unavailable", template.renderWithoutLocation(TIME));
+    }
+
+    @Test
+    public void accentedLatinStaysInGsm() {
+        AlertMessageTemplate template = new AlertMessageTemplate("José Muñoz", "Robbery");
+        String message = template.render(KL_LAT, KL_LNG, "Müller Straße 5, Zürich", TIME);
+
+        assertTrue(template.isGsm());
+        assertTrue(message, message.startsWith("EMERGENCY: Robbery alert from José Muñoz\n"));
+        assertTrue(message, message.endsWith("\nMüller Straße 5, Zürich"));
+        assertEquals(1, AlertMessageTemplate.segmentsFor(AlertMessageTemplate.encodedLength(message, true), true));
+    }
+
+    @Test
+    public void extensionCharactersCountTwice() {
+        assertEquals(3, AlertMessageTemplate.encodedLength("a€", true));
+        assertEquals(5, AlertMessageTemplate.encodedLength("[x]", true));
+        assertEquals(-1, AlertMessageTemplate.encodedLength("李", true));
+        assertEquals(1, AlertMessageTemplate.encodedLength("李", false));
+    }
+
+    @Test
+    public void addressCharactersOutsideGsmAreDropped() {
+        AlertMessageTemplate template = new AlertMessageTemplate("Ali", "Robbery");
+        String message = template.render(KL_LAT, KL_LNG, "Jalan 李 5", TIME);
+
+        assertTrue(message, message.endsWith("\nJalan  5"));
+        assertTrue(AlertMessageTemplate.encodedLength(message, true) >= 0);
+    }
+
+    @Test
+    public void longAddressNeverAddsASegment() {
+        StringBuilder address = new StringBuilder();
+        for (int i = 0; i < 50; i++) {
+            address.append("Jalan {").append(i).append("} ");
+        }
+        AlertMessageTemplate template = new AlertMessageTemplate("Ali Ahmad", "Robbery");
+        String message = template.render(KL_LAT, KL_LNG, address.toString(), TIME);
+
+        assertEquals(AlertMessageTemplate.GSM_SEGMENT_LENGTH, AlertMessageTemplate.encodedLength(message, true), 1);
+        assertTrue(message.length() <= template.getMaxLength());
+    }
+
+    @Test
+    public void longLatinNameSwitchesToNameFirstShortForm() {
+        String name = "Muhammad Abdullah bin Ismail bin Yusof bin Hassan Al-Rashidi bin Osman";
+        AlertMessageTemplate template = new AlertMessageTemplate(name, "Assault");
+        String message = template.render(KL_LAT, KL_LNG, null, TIME);
+
+        assertTrue(message, message.startsWith(name + " SOS: Assault\n"));
+        assertEquals(1, template.getSegmentCount());
+    }
+
+    @Test
+    public void shortUcs2NameFitsOneSegmentWithTheName() {
+        AlertMessageTemplate template = new AlertMessageTemplate("李明", "Robbery");
+        String message = template.render(KL_LAT, KL_LNG, "吉隆坡安邦路", TIME);
+
+        assertFalse(template.isGsm());
+        assertEquals("李明 SOS: Robbery\n14:05 " + KL_LINK + "\n吉隆坡安邦路", message);
+        assertTrue(message.length() <= AlertMessageTemplate.UCS2_SEGMENT_LENGTH);
+    }
+
+    @Test
+    public void longUcs2NameTakesMoreSegmentsInsteadOfBeingCut() {
+        String name = "穆罕默德·阿卜杜拉·伊本·阿齐兹·阿勒沙特·本·哈立德";
+        AlertMessageTemplate template = new AlertMessageTemplate(name, "Robbery");
+        String message = template.render(KL_LAT, KL_LNG, "吉隆坡安邦路", TIME);
+
+        assertTrue(message, message.startsWith(name + " SOS: Robbery\n14:05 " + KL_LINK));
+        assertEquals(2, AlertMessageTemplate.segmentsFor(message.length(), false));
+        assertTrue(message.length() <= template.getMaxLength());
+    }
+
+    @Test
+    public void nameLongerThanEverySegmentIsCut() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 300; i++) {
+            name.append('李');
+        }
+        AlertMessageTemplate template = new AlertMessageTemplate(name.toString(), "Robbery");
+        String message = template.render(-89.99999, -179.99999, null, TIME, true);
+
+        assertEquals(AlertMessageTemplate.MAX_SEGMENTS, template.getSegmentCount());
+        assertTrue(message.length() <= AlertMessageTemplate.MAX_SEGMENTS * AlertMessageTemplate.UCS2_CONCAT_SEGMENT_LENGTH);
+        assertTrue(message, message.endsWith("Last seen 14:05 maps.google.com/?q=-89.99999,-179.99999"));
+    }
+}
@@ -0,0 +1,129 @@
+package com.example.mysafepoint.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+// JMH benchmark of SpatialIncidentIndex queries and updates for 10k to 1M incidents, with
+// a linear scan over the same points as the baseline. The points are spread around a few
+// Malaysian cities, the way real reports bunch up. It is not a unit test and never runs
+// with the test task; run main() from the IDE, which uses the unit-test classpath.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIncidentIndexBenchmark {
+    // Kuala Lumpur, George Town, Johor Bahru, Kota Kinabalu, Kuching
+    private static final double[][] CITIES = {
+            {3.139, 101.687}, {5.414, 100.329}, {1.492, 103.741}, {5.980, 116.073}, {1.553, 110.359}
+    };
+    // Standard deviation of the spread around each city, about 11 km
+    private static final double SPREAD_DEGREES = 0.1;
+    private static final int QUERY_POINTS = 1024;
+
+    @Param({"10000", "100000", "1000000"})
+    public int pointCount;
+
+    private SpatialIncidentIndex index;
+    private String[] ids;
+    private double[] latitudes;
+    private double[] longitudes;
+    private double[] queryLatitudes;
+    private double[] queryLongitudes;
+    private int nextQuery;
+    private int nextMove;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        index = new SpatialIncidentIndex();
+        ids = new String[pointCount];
+        latitudes = new double[pointCount];
+        longitudes = new double[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            double[] city = CITIES[i % CITIES.length];
+            latitudes[i] = city[0] + random.nextGaussian() * SPREAD_DEGREES;
+            longitudes[i] = city[1] + random.nextGaussian() * SPREAD_DEGREES;
+            ids[i] = "incident" + i;
+            index.put(ids[i], latitudes[i], longitudes[i]);
+        }
+
+        // Queries start where incidents are, as a user standing among them would
+        queryLatitudes = new double[QUERY_POINTS];
+        queryLongitudes = new double[QUERY_POINTS];
+        for (int i = 0; i < QUERY_POINTS; i++) {
+            int point = random.nextInt(pointCount);
+            queryLatitudes[i] = latitudes[point];
+            queryLongitudes[i] = longitudes[point];
+        }
+    }
+
+    // "Which incidents are within 2 km of here"
+    @Benchmark
+    public List<String> radius2Km() {
+        int q = nextQuery++ & (QUERY_POINTS - 1);
+        return index.queryRadius(queryLatitudes[q], queryLongitudes[q], 2000);
+    }
+
+    @Benchmark
+    public int radius2KmLinearScan() {
+        int q = nextQuery++ & (QUERY_POINTS - 1);
+        double latitude = queryLatitudes[q];
+        double longitude = queryLongitudes[q];
+        int found = 0;
+        for (int i = 0; i < pointCount; i++) {
+            if (SpatialIncidentIndex.distanceMeters(latitude, longitude, latitudes[i], longitudes[i]) <= 2000) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    // A city-sized map viewport, about 20 km across
+    @Benchmark
+    public List<String> cityBounds() {
+        int q = nextQuery++ & (QUERY_POINTS - 1);
+        return index.queryBounds(queryLatitudes[q] - 0.09, queryLongitudes[q] - 0.09,
+                queryLatitudes[q] + 0.09, queryLongitudes[q] + 0.09);
+    }
+
+    // The whole of Malaysia on screen, visiting points without building a list
+    @Benchmark
+    public void countryBounds(final Blackhole blackhole) {
+        index.forEachInBounds(0.5, 99.5, 7.5, 119.5, (id, latitude, longitude) -> blackhole.consume(id));
+    }
+
+    // One incident moved by a stream update
+    @Benchmark
+    public void moveOne() {
+        int i = nextMove++ % pointCount;
+        int q = i & (QUERY_POINTS - 1);
+        index.put(ids[i], queryLatitudes[q], queryLongitudes[q]);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(SpatialIncidentIndexBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,238 @@
+package com.example.mysafepoint.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SpatialIncidentIndexTest {
+    // Kuala Lumpur
+    private static final double KL_LAT = 3.1390;
+    private static final double KL_LNG = 101.6869;
+
+    private SpatialIncidentIndex index;
+
+    @Before
+    public void setUp() {
+        index = new SpatialIncidentIndex();
+    }
+
+    @Test
+    public void putAddsPointsAndQueriesFindThem() {
+        index.put("a", KL_LAT, KL_LNG);
+        index.put("b", KL_LAT + 0.001, KL_LNG + 0.001);
+        index.put("far", 1.3521, 103.8198);
+
+        assertEquals(3, index.size());
+        assertTrue(index.contains("a"));
+        assertEquals(Arrays.asList("a", "b"), sorted(index.queryRadius(KL_LAT, KL_LNG, 1000)));
+        assertEquals(Arrays.asList("a", "b"), sorted(index.queryBounds(3.0, 101.5, 3.3, 101.8)));
+    }
+
+    @Test
+    public void queryRadiusUsesDistanceNotTheBoundingBox() {
+        // About 1.1 km north, and about 1.1 km north and 1.1 km east (1.56 km away)
+        index.put("north", KL_LAT + 0.01, KL_LNG);
+        index.put("corner", KL_LAT + 0.01, KL_LNG + 0.01);
+
+        assertEquals(Collections.singletonList("north"), index.queryRadius(KL_LAT, KL_LNG, 1200));
+        assertEquals(Arrays.asList("corner", "north"), sorted(index.queryRadius(KL_LAT, KL_LNG, 1600)));
+    }
+
+    @Test
+    public void putWithKnownIdMovesThePoint() {
+        index.put("a", KL_LAT, KL_LNG);
+        // Far enough to land in another grid cell
+        index.put("a", 1.3521, 103.8198);
+
+        assertEquals(1, index.size());
+        assertTrue(index.queryRadius(KL_LAT, KL_LNG, 5000).isEmpty());
+        assertEquals(Collections.singletonList("a"), index.queryRadius(1.3521, 103.8198, 100));
+    }
+
+    @Test
+    public void putWithKnownIdMovesThePointWithinItsCell() {
+        index.put("a", KL_LAT, KL_LNG);
+        index.put("a", KL_LAT + 0.0001, KL_LNG);
+
+        assertEquals(1, index.size());
+        assertEquals(Collections.singletonList("a"), index.queryBounds(KL_LAT + 0.00005, KL_LNG - 0.001, KL_LAT + 0.001, KL_LNG + 0.001));
+    }
+
+    @Test
+    public void removeDropsThePoint() {
+        index.put("a", KL_LAT, KL_LNG);
+        index.put("b", KL_LAT, KL_LNG);
+        index.remove("a");
+
+        assertEquals(1, index.size());
+        assertFalse(index.contains("a"));
+        assertEquals(Collections.singletonList("b"), index.queryRadius(KL_LAT, KL_LNG, 100));
+
+        // Unknown IDs are ignored
+        index.remove("missing");
+        assertEquals(1, index.size());
+    }
+
+    @Test
+    public void removedSlotsAreReusedWithoutLeakingOldPoints() {
+        for (int i = 0; i < 100; i++) {
+            index.put("old" + i, KL_LAT + i * 0.001, KL_LNG);
+        }
+        for (int i = 0; i < 100; i++) {
+            index.remove("old" + i);
+        }
+        // Fill the freed slots with points somewhere else
+        for (int i = 0; i < 100; i++) {
+            index.put("new" + i, -33.8688, 151.2093 + i * 0.001);
+        }
+
+        assertEquals(100, index.size());
+        assertTrue(index.queryBounds(3.0, 101.0, 3.5, 102.0).isEmpty());
+        assertEquals(100, index.queryBounds(-34, 151, -33, 152).size());
+        for (int i = 0; i < 100; i++) {
+            assertFalse(index.contains("old" + i));
+        }
+    }
+
+    @Test
+    public void clearEmptiesTheIndex() {
+        index.put("a", KL_LAT, KL_LNG);
+        index.clear();
+
+        assertEquals(0, index.size());
+        assertTrue(index.queryRadius(KL_LAT, KL_LNG, 1000).isEmpty());
+
+        index.put("b", KL_LAT, KL_LNG);
+        assertEquals(Collections.singletonList("b"), index.queryRadius(KL_LAT, KL_LNG, 1000));
+    }
+
+    @Test
+    public void boundsCrossingTheAntimeridian() {
+        index.put("east", -17.0, 179.9);
+        index.put("west", -17.0, -179.9);
+        index.put("greenwich", -17.0, 0.0);
+
+        // west > east wraps around through 180
+        assertEquals(Arrays.asList("east", "west"), sorted(index.queryBounds(-18, 179.5, -16, -179.5)));
+    }
+
+    @Test
+    public void radiusCrossingTheAntimeridian() {
+        // Fiji, about 11 km either side of 180
+        index.put("east", -17.0, 179.9);
+        index.put("west", -17.0, -179.9);
+
+        assertEquals(Arrays.asList("east", "west"), sorted(index.queryRadius(-17.0, 180.0, 15000)));
+        assertEquals(Arrays.asList("east", "west"), sorted(index.queryRadius(-17.0, -179.95, 20000)));
+        assertEquals(Collections.singletonList("west"), index.queryRadius(-17.0, -179.95, 8000));
+    }
+
+    @Test
+    public void radiusNearAPoleCoversEveryLongitude() {
+        // Both about 1.1 km from the North Pole, on opposite sides of it
+        index.put("a", 89.99, 0.0);
+        index.put("b", 89.99, 180.0);
+        index.put("south", -89.99, 0.0);
+
+        assertEquals(Arrays.asList("a", "b"), sorted(index.queryRadius(90.0, 0.0, 2000)));
+        // 2.2 km apart across the pole
+        assertEquals(Arrays.asList("a", "b"), sorted(index.queryRadius(89.99, 0.0, 2500)));
+        assertEquals(Collections.singletonList("a"), index.queryRadius(89.99, 0.0, 1500));
+        assertEquals(Collections.singletonList("south"), index.queryRadius(-90.0, 45.0, 2000));
+    }
+
+    @Test
+    public void pointsOnTheEdgesOfTheGrid() {
+        index.put("north", 90.0, 180.0);
+        index.put("south", -90.0, -180.0);
+
+        assertEquals(Collections.singletonList("north"), index.queryBounds(89.9, 179.9, 90, 180));
+        assertEquals(Collections.singletonList("south"), index.queryBounds(-90, -180, -89.9, -179.9));
+    }
+
+    @Test
+    public void queriesMatchABruteForceScan() {
+        Random random = new Random(7);
+        int count = 5000;
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        for (int i = 0; i < count; i++) {
+            // Half bunched around Kuala Lumpur, half anywhere
+            if (i % 2 == 0) {
+                latitudes[i] = KL_LAT + random.nextGaussian() * 0.05;
+                longitudes[i] = KL_LNG + random.nextGaussian() * 0.05;
+            } else {
+                latitudes[i] = random.nextDouble() * 180 - 90;
+                longitudes[i] = random.nextDouble() * 360 - 180;
+            }
+            index.put("p" + i, latitudes[i], longitudes[i]);
+        }
+
+        // From the bucket cells up to a box over the whole world
+        double[] halfSizes = {0.001, 0.02, 0.3, 5, 40, 180};
+        for (double half : halfSizes) {
+            double south = Math.max(-90, KL_LAT - half);
+            double north = Math.min(90, KL_LAT + half);
+            double west = Math.max(-180, KL_LNG - half);
+            double east = Math.min(180, KL_LNG + half);
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                if (latitudes[i] >= south && latitudes[i] <= north && longitudes[i] >= west && longitudes[i] <= east) {
+                    expected.add("p" + i);
+                }
+            }
+            assertEquals("half size " + half, sorted(expected), sorted(index.queryBounds(south, west, north, east)));
+        }
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            if (SpatialIncidentIndex.distanceMeters(KL_LAT, KL_LNG, latitudes[i], longitudes[i]) <= 2000) {
+                expected.add("p" + i);
+            }
+        }
+        assertEquals(sorted(expected), sorted(index.queryRadius(KL_LAT, KL_LNG, 2000)));
+    }
+
+    @Test
+    public void cellsAddedBetweenQueriesAreFound() {
+        index.put("a", KL_LAT, KL_LNG);
+        assertEquals(Collections.singletonList("a"), index.queryRadius(KL_LAT, KL_LNG, 100));
+
+        // A few new cells are merged into the sorted keys, many are re-sorted
+        for (int i = 0; i < 3; i++) {
+            index.put("few" + i, -33.8688 + i, 151.2093);
+        }
+        assertEquals(3, index.queryBounds(-34, 151, -30, 152).size());
+        for (int i = 0; i < 500; i++) {
+            index.put("many" + i, 51.5 + i * 0.02, -0.12);
+        }
+        assertEquals(500, index.queryBounds(51, -1, 62, 1).size());
+        assertEquals(3, index.queryBounds(-34, 151, -30, 152).size());
+        assertEquals(Collections.singletonList("a"), index.queryRadius(KL_LAT, KL_LNG, 100));
+    }
+
+    @Test
+    public void distanceMetersMatchesKnownDistances() {
+        // One degree of latitude is about 111.2 km
+        assertEquals(111195, SpatialIncidentIndex.distanceMeters(0, 0, 1, 0), 10);
+        assertEquals(0, SpatialIncidentIndex.distanceMeters(KL_LAT, KL_LNG, KL_LAT, KL_LNG), 1e-9);
+        // The same across the antimeridian as the short way round
+        assertEquals(SpatialIncidentIndex.distanceMeters(0, 179.5, 0, -179.5),
+                SpatialIncidentIndex.distanceMeters(0, -0.5, 0, 0.5), 1e-6);
+    }
+
+    private static List<String> sorted(List<String> ids) {
+        List<String> copy = new ArrayList<>(ids);
+        Collections.sort(copy);
+        return copy;
+    }
+}